@@ -1,18 +1,29 @@
 package edu.berkeley.icsi.memngt.pools;
 
+import java.io.IOException;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import com.esotericsoftware.minlog.Log;
 
+import edu.berkeley.icsi.memngt.protocols.ClientToDaemonProtocol;
 import edu.berkeley.icsi.memngt.utils.ClientUtils;
 
 public abstract class AbstractMemoryPool<T> {
 
 	private static final int ADAPTATION_GRANULARITY = 4 * 1024;
 
+	/**
+	 * The expected duration of a garbage collection in milliseconds before the first one has been measured.
+	 */
+	private static final int DEFAULT_COLLECTION_DURATION = 100;
+
 	private final String name;
 
 	private final int pid;
@@ -55,6 +66,37 @@ public abstract class AbstractMemoryPool<T> {
 	 */
 	private final float heapResizeLimit;
 
+	/**
+	 * The daemon which schedules the forced garbage collections or <code>null</code> if they are not coordinated.
+	 */
+	private volatile ClientToDaemonProtocol collectionScheduler = null;
+
+	/**
+	 * Whether the running adjustment has already requested a garbage collection slot, guarded by the adjustment lock.
+	 */
+	private boolean collectionSlotRequested = false;
+
+	/**
+	 * The daemon which assigned the garbage collection slot of the running adjustment or <code>null</code> if it has
+	 * not been assigned one, guarded by the adjustment lock.
+	 */
+	private ClientToDaemonProtocol collectionSlotAssigner = null;
+
+	/**
+	 * The duration of the last forced garbage collection in milliseconds.
+	 */
+	private volatile int lastCollectionDuration = DEFAULT_COLLECTION_DURATION;
+
+	/**
+	 * The number of gradual adjustments started so far. A running adjustment stops once a newer one has started.
+	 */
+	private final AtomicInteger gradualAdjustments = new AtomicInteger(0);
+
+	/**
+	 * The executor running the gradual adjustments or <code>null</code> if no gradual adjustment has been started yet.
+	 */
+	private ScheduledExecutorService adjuster = null;
+
 	protected AbstractMemoryPool(final String name, final int initialCapacity, final int bufferSize) {
 		this.name = name;
 		this.pid = ClientUtils.getPID();
@@ -176,15 +218,51 @@ public abstract class AbstractMemoryPool<T> {
 			return;
 		}
 
-		final int sizeOfBuffer = this.bufferSize;
-
-		final long start = System.currentTimeMillis();
-
 		final int grantedMemoryShare = this.grantedMemorySize.addAndGet(delta);
 		if (grantedMemoryShare < 0) {
 			throw new IllegalStateException("grantedMemoryShare is" + grantedMemoryShare);
 		}
 
+		adjust(grantedMemoryShare);
+	}
+
+	/**
+	 * Moves the granted memory size towards the given target in a single atomic step and adjusts the memory pool to
+	 * it. Unlike a delta, the step cannot overshoot the target if the granted memory size has changed concurrently.
+	 * 
+	 * @param target
+	 *        the granted memory size in kilobytes to move towards
+	 * @param maximumDecrease
+	 *        the maximum amount of memory in kilobytes by which the granted memory size is lowered in this step
+	 * @return <code>true</code> if the granted memory size has reached the target, <code>false</code> otherwise
+	 */
+	private boolean adjustTo(final int target, final int maximumDecrease) {
+
+		int current, next;
+		do {
+			current = this.grantedMemorySize.get();
+			next = (target >= current) ? target : Math.max(target, current - maximumDecrease);
+		} while (!this.grantedMemorySize.compareAndSet(current, next));
+
+		if (next != current) {
+			adjust(next);
+		}
+
+		return (next == target);
+	}
+
+	/**
+	 * Adjusts the memory pool to the given granted memory share.
+	 * 
+	 * @param grantedMemoryShare
+	 *        the granted memory share in kilobytes
+	 */
+	private void adjust(final int grantedMemoryShare) {
+
+		final int sizeOfBuffer = this.bufferSize;
+
+		final long start = System.currentTimeMillis();
+
 		final int reducedGrantedMemorySize = (int) ((float) grantedMemoryShare * this.heapResizeLimit);
 
 		Log.info("Granted memory share is now " + grantedMemoryShare + " kilobytes (reduced "
@@ -193,72 +271,74 @@ public abstract class AbstractMemoryPool<T> {
 		int allocatedBuffers = 0, releasedBuffers = 0;
 
 		synchronized (this.adjustmentLock) {
+			try {
 
-			// Allocate memory until the reduced granted memory size is crossed, check every ADAPTATION_GRANULARITY
-			// kilobytes
+				// Allocate memory until the reduced granted memory size is crossed, check every ADAPTATION_GRANULARITY
+				// kilobytes
 
-			int kilobytesUntilNextCheck = 0;
-			while (true) {
+				int kilobytesUntilNextCheck = 0;
+				while (true) {
 
-				if (kilobytesUntilNextCheck <= 0) {
-					if (ClientUtils.getPhysicalMemorySize(this.pid) > reducedGrantedMemorySize) {
-						break;
+					if (kilobytesUntilNextCheck <= 0) {
+						if (ClientUtils.getPhysicalMemorySize(this.pid) > reducedGrantedMemorySize) {
+							break;
+						}
+						kilobytesUntilNextCheck = ADAPTATION_GRANULARITY;
 					}
-					kilobytesUntilNextCheck = ADAPTATION_GRANULARITY;
+
+					returnBufferInternal(allocatedNewBuffer(), false);
+					this.allocatedMemory.addAndGet(sizeOfBuffer);
+					kilobytesUntilNextCheck -= sizeOfBuffer;
+					++allocatedBuffers;
 				}
 
-				returnBufferInternal(allocatedNewBuffer(), false);
-				this.allocatedMemory.addAndGet(sizeOfBuffer);
-				kilobytesUntilNextCheck -= sizeOfBuffer;
-				++allocatedBuffers;
-			}
+				// Check if we have exceed the granted memory share with our previous allocations
+				int excessMemory = ClientUtils.getPhysicalMemorySize(this.pid) - grantedMemoryShare;
 
-			// Check if we have exceed the granted memory share with our previous allocations
-			int excessMemory = ClientUtils.getPhysicalMemorySize(this.pid) - grantedMemoryShare;
+				if (excessMemory > 0) {
 
-			if (excessMemory > 0) {
+					while (excessMemory > 0) {
 
-				while (excessMemory > 0) {
+						if (requestBufferInternal(false) == null) {
+							Log.error(this.name + ": No more buffers to release");
+							break;
+						}
+
+						this.allocatedMemory.addAndGet(-sizeOfBuffer);
+						excessMemory -= sizeOfBuffer;
+						kilobytesUntilNextCheck -= sizeOfBuffer;
+						++releasedBuffers;
 
-					if (requestBufferInternal(false) == null) {
-						Log.error(this.name + ": No more buffers to release");
-						break;
 					}
+					collectGarbage();
+				}
 
-					this.allocatedMemory.addAndGet(-sizeOfBuffer);
-					excessMemory -= sizeOfBuffer;
-					kilobytesUntilNextCheck -= sizeOfBuffer;
-					++releasedBuffers;
+				// If we still consume too much memory, further release buffers and call System.gc every
+				// ADAPTATION_GRUNLARITY kilobytes
+				kilobytesUntilNextCheck = 0;
+				while (true) {
 
-				}
-				Log.info("Suggesting garbage collection");
-				System.gc();
-			}
+					if (kilobytesUntilNextCheck <= 0) {
+						excessMemory = ClientUtils.getPhysicalMemorySize(this.pid) - grantedMemoryShare;
+						if (excessMemory <= 0) {
+							break;
+						}
 
-			// If we still consume too much memory, further release buffers and call System.gc every
-			// ADAPTATION_GRUNLARITY kilobytes
-			kilobytesUntilNextCheck = 0;
-			while (true) {
+						collectGarbage();
+						kilobytesUntilNextCheck = ADAPTATION_GRANULARITY;
+					}
 
-				if (kilobytesUntilNextCheck <= 0) {
-					excessMemory = ClientUtils.getPhysicalMemorySize(this.pid) - grantedMemoryShare;
-					if (excessMemory <= 0) {
+					if (requestBufferInternal(false) == null) {
+						Log.error(this.name + ": No more buffers to release");
 						break;
 					}
 
-					Log.info("Suggesting garbage collection");
-					System.gc();
-					kilobytesUntilNextCheck = ADAPTATION_GRANULARITY;
-				}
-
-				if (requestBufferInternal(false) == null) {
-					Log.error(this.name + ": No more buffers to release");
-					break;
+					this.allocatedMemory.addAndGet(-sizeOfBuffer);
+					kilobytesUntilNextCheck -= sizeOfBuffer;
+					++releasedBuffers;
 				}
-
-				this.allocatedMemory.addAndGet(-sizeOfBuffer);
-				kilobytesUntilNextCheck -= sizeOfBuffer;
-				++releasedBuffers;
+			} finally {
+				releaseCollectionSlot();
 			}
 		}
 
@@ -283,6 +363,159 @@ public abstract class AbstractMemoryPool<T> {
 		checkThresholds(this.availableMemory.get());
 	}
 
+	/**
+	 * Adjusts the memory pool to the given granted memory size in the background. The pool shrinks by at most one
+	 * slice per slice interval, so the pauses caused by releasing buffers and collecting garbage are spread over time.
+	 * Growing the pool happens at once. A new adjustment supersedes a running one.
+	 * 
+	 * @param grantedMemorySize
+	 *        the granted memory size in kilobytes to adjust to
+	 * @param sliceSize
+	 *        the maximum amount of memory in kilobytes to release per slice
+	 * @param sliceInterval
+	 *        the time in milliseconds between two slices
+	 */
+	public void adjustGraduallyTo(final int grantedMemorySize, final int sliceSize, final int sliceInterval) {
+
+		if (sliceSize <= 0 || sliceInterval <= 0) {
+			throw new IllegalArgumentException("sliceSize and sliceInterval must be positive");
+		}
+
+		if (grantedMemorySize < 0) {
+			throw new IllegalArgumentException("grantedMemorySize must not be negative");
+		}
+
+		final int adjustment = this.gradualAdjustments.incrementAndGet();
+		final ScheduledExecutorService adjuster = getAdjuster();
+
+		adjuster.execute(new Runnable() {
+
+			/**
+			 * {@inheritDoc}
+			 */
+			@Override
+			public void run() {
+
+				// Stop once a newer adjustment has started
+				if (AbstractMemoryPool.this.gradualAdjustments.get() != adjustment) {
+					return;
+				}
+
+				if (!adjustTo(grantedMemorySize, sliceSize)) {
+					adjuster.schedule(this, sliceInterval, TimeUnit.MILLISECONDS);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Returns the executor running the gradual adjustments of this memory pool, creating it on first use. All
+	 * gradual adjustments share its single thread, so at most one of them adjusts the pool at a time.
+	 * 
+	 * @return the executor running the gradual adjustments
+	 */
+	private synchronized ScheduledExecutorService getAdjuster() {
+
+		if (this.adjuster == null) {
+			this.adjuster = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+				/**
+				 * {@inheritDoc}
+				 */
+				@Override
+				public Thread newThread(final Runnable runnable) {
+
+					final Thread thread = new Thread(runnable, AbstractMemoryPool.this.name + " Adjuster");
+					thread.setDaemon(true);
+
+					return thread;
+				}
+			});
+		}
+
+		return this.adjuster;
+	}
+
+	/**
+	 * Lets the given daemon schedule the garbage collections the memory pool forces when it shrinks, so they do not
+	 * coincide with those of other client processes.
+	 * 
+	 * @param daemon
+	 *        the proxy of the memory negotiator daemon or <code>null</code> to collect without coordination
+	 */
+	public void setCollectionScheduler(final ClientToDaemonProtocol daemon) {
+		this.collectionScheduler = daemon;
+	}
+
+	/**
+	 * Requests a garbage collection slot from the daemon and waits until it begins, if the collections are
+	 * coordinated.
+	 * 
+	 * @return the daemon which assigned the slot or <code>null</code> if no slot has been assigned
+	 */
+	private ClientToDaemonProtocol awaitCollectionSlot() {
+
+		final ClientToDaemonProtocol daemon = this.collectionScheduler;
+		if (daemon == null) {
+			return null;
+		}
+
+		try {
+			final int delay = daemon.requestCollectionSlot(this.pid, this.lastCollectionDuration);
+			if (delay > 0) {
+				Thread.sleep(delay);
+			}
+		} catch (IOException ioe) {
+			Log.warn(this.name + ": Unable to request garbage collection slot: ", ioe);
+			return null;
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+		}
+
+		return daemon;
+	}
+
+	/**
+	 * Tells the daemon that the garbage collections of the running adjustment have completed, if the adjustment has
+	 * been assigned a slot. Must be called while holding the adjustment lock.
+	 */
+	private void releaseCollectionSlot() {
+
+		final ClientToDaemonProtocol daemon = this.collectionSlotAssigner;
+		this.collectionSlotRequested = false;
+		this.collectionSlotAssigner = null;
+
+		if (daemon == null) {
+			return;
+		}
+
+		try {
+			daemon.completeCollection(this.pid);
+		} catch (IOException ioe) {
+			Log.warn(this.name + ": Unable to complete garbage collection slot: ", ioe);
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Forces a garbage collection and records its duration. The first collection of an adjustment waits for the
+	 * collection slot, so adjustments which never collect do not take up a slot. Must be called while holding the
+	 * adjustment lock.
+	 */
+	private void collectGarbage() {
+
+		if (!this.collectionSlotRequested) {
+			this.collectionSlotRequested = true;
+			this.collectionSlotAssigner = awaitCollectionSlot();
+		}
+
+		Log.info("Suggesting garbage collection");
+		final long start = System.currentTimeMillis();
+		System.gc();
+		this.lastCollectionDuration = (int) Math.max(1L, System.currentTimeMillis() - start);
+	}
+
 	private void checkThresholds(final int availableMemory) {
 
 		if (availableMemory > this.lowMemoryThreshold) {
@@ -16,7 +16,8 @@ public interface ClientToDaemonProtocol extends RPCProtocol {
 	 * @param clientRPCPort
 	 *        the RPC port the memory negotiator daemon can use to communicate with the client process
 	 * @param type
-	 *        the type of the client process
+	 *        the type of the client process, which also determines its quality of service class, see
+	 *        {@link QoSClass#getDefault(ProcessType)}
 	 * @return the initially granted memory share in kilobytes
 	 * @throws NegotiationException
 	 *         thrown if the daemon was unable to successfully complete the registration
@@ -28,6 +29,30 @@ public interface ClientToDaemonProtocol extends RPCProtocol {
 	int registerClient(String clientName, int clientPID, int clientRPCPort, ProcessType type)
 			throws NegotiationException, InterruptedException, IOException;
 
+	/**
+	 * Registers a client process with the given quality of service class with the memory negotiator daemon.
+	 * 
+	 * @param clientName
+	 *        the name chosen by the client process to identify itself
+	 * @param clientPID
+	 *        the process ID of the client
+	 * @param clientRPCPort
+	 *        the RPC port the memory negotiator daemon can use to communicate with the client process
+	 * @param type
+	 *        the type of the client process
+	 * @param qosClass
+	 *        the quality of service class of the client process
+	 * @return the initially granted memory share in kilobytes
+	 * @throws NegotiationException
+	 *         thrown if the daemon was unable to successfully complete the registration
+	 * @throws InterruptedException
+	 *         thrown if the caller was interrupted while waiting for the RPC call to return
+	 * @throws IOException
+	 *         thrown if an I/O error occurred during the RPC call
+	 */
+	int registerClient(String clientName, int clientPID, int clientRPCPort, ProcessType type, QoSClass qosClass)
+			throws NegotiationException, InterruptedException, IOException;
+
 	/**
 	 * Requests additional main memory for the client process with the given ID.
 	 * 
@@ -35,7 +60,10 @@ public interface ClientToDaemonProtocol extends RPCProtocol {
 	 *        the process ID of the client requesting the memory
 	 * @param amountOfMemory
 	 *        the requested amount of additional memory in kilobytes
-	 * @return <code>true</code> if the memory negotiator daemon granted the request, <code>false</code> otherwise
+	 * @return <code>true</code> if the memory negotiator daemon granted the request, <code>false</code> otherwise; if
+	 *         the memory must first be reclaimed from other clients, the daemon returns <code>false</code> and
+	 *         announces the grant through {@link DaemonToClientProtocol#grantedMemoryShareChanged(int)} once the memory
+	 *         has been released
 	 * @throws NegotiationException
 	 *         thrown if the daemon could not process the request for additional memory
 	 * @throws InterruptedException
@@ -46,6 +74,30 @@ public interface ClientToDaemonProtocol extends RPCProtocol {
 	boolean requestAdditionalMemory(int clientPID, int amountOfMemory) throws NegotiationException,
 			InterruptedException, IOException;
 
+	/**
+	 * Requests additional main memory for the client process with the given ID and attaches the utility the client
+	 * expects from its memory share. If the daemon runs the market allocation policy, it only reclaims memory from
+	 * other clients if the requester gains more utility than the other clients lose. The curve also serves as the
+	 * client's standing bid until it submits a new one.
+	 * 
+	 * @param clientPID
+	 *        the process ID of the client requesting the memory
+	 * @param amountOfMemory
+	 *        the requested amount of additional memory in kilobytes
+	 * @param utilityCurve
+	 *        the utility the client expects from its total memory share
+	 * @return <code>true</code> if the memory negotiator daemon granted the request, <code>false</code> otherwise, see
+	 *         {@link #requestAdditionalMemory(int, int)}
+	 * @throws NegotiationException
+	 *         thrown if the daemon could not process the request for additional memory
+	 * @throws InterruptedException
+	 *         thrown if the caller was interrupted while waiting for the RPC call to return
+	 * @throws IOException
+	 *         thrown if an I/O error occurred during the RPC call
+	 */
+	boolean requestAdditionalMemory(int clientPID, int amountOfMemory, UtilityCurve utilityCurve)
+			throws NegotiationException, InterruptedException, IOException;
+
 	/**
 	 * Relinquishes the given amount of main memory
 	 * 
@@ -59,4 +111,158 @@ public interface ClientToDaemonProtocol extends RPCProtocol {
 	 *         thrown if an I/O error occurred during the RPC call
 	 */
 	void relinquishMemory(int clientPID, int amountOfMemory) throws InterruptedException, IOException;
+
+	/**
+	 * Renews the lease of the client. Once a client has renewed its lease for the first time, the daemon expects it to
+	 * keep doing so. When the lease expires, the daemon removes the client if it has terminated. A client which is
+	 * still alive is killed if its quality of service class is strictly enforced, otherwise it is reduced to its
+	 * guaranteed memory share until it renews its lease again. Any other call from the client renews the lease as
+	 * well.
+	 * 
+	 * @param clientPID
+	 *        the process ID of the client
+	 * @return the duration of the lease in milliseconds
+	 * @throws NegotiationException
+	 *         thrown if the daemon does not know the client, e.g. because its lease has already expired
+	 * @throws InterruptedException
+	 *         thrown if the caller was interrupted while waiting for the RPC call to return
+	 * @throws IOException
+	 *         thrown if an I/O error occurred during the RPC call
+	 */
+	int renewLease(int clientPID) throws NegotiationException, InterruptedException, IOException;
+
+	/**
+	 * Asks the daemon for a slot to run a forced garbage collection in. The daemon staggers the collections of its
+	 * clients, so they do not all pause at the same time. The call returns immediately with the time the client must
+	 * wait before it starts collecting.
+	 * 
+	 * @param clientPID
+	 *        the process ID of the client
+	 * @param expectedDuration
+	 *        the expected duration of the collection in milliseconds
+	 * @return the time in milliseconds the client must wait before it starts collecting
+	 * @throws InterruptedException
+	 *         thrown if the caller was interrupted while waiting for the RPC call to return
+	 * @throws IOException
+	 *         thrown if an I/O error occurred during the RPC call
+	 */
+	int requestCollectionSlot(int clientPID, int expectedDuration) throws InterruptedException, IOException;
+
+	/**
+	 * Tells the daemon that the client has completed the garbage collection it requested a slot for, so the remainder
+	 * of the slot can be given to other clients.
+	 * 
+	 * @param clientPID
+	 *        the process ID of the client
+	 * @throws InterruptedException
+	 *         thrown if the caller was interrupted while waiting for the RPC call to return
+	 * @throws IOException
+	 *         thrown if an I/O error occurred during the RPC call
+	 */
+	void completeCollection(int clientPID) throws InterruptedException, IOException;
+
+	/**
+	 * Transfers the given amount of main memory from the granted share of one client to the granted share of another
+	 * client. The memory never becomes spare memory, so no third client can claim it in between.
+	 * 
+	 * @param sourcePID
+	 *        the process ID of the client handing over the memory
+	 * @param targetPID
+	 *        the process ID of the client receiving the memory
+	 * @param amountOfMemory
+	 *        the amount of memory to transfer in kilobytes
+	 * @return <code>true</code> if the memory has been transferred, <code>false</code> if the source client does not
+	 *         hold the given amount of memory beyond its guaranteed share
+	 * @throws NegotiationException
+	 *         thrown if the daemon does not know one of the clients
+	 * @throws InterruptedException
+	 *         thrown if the caller was interrupted while waiting for the RPC call to return
+	 * @throws IOException
+	 *         thrown if an I/O error occurred during the RPC call
+	 */
+	boolean transferMemory(int sourcePID, int targetPID, int amountOfMemory) throws NegotiationException,
+			InterruptedException, IOException;
+
+	/**
+	 * Adds the client to a job group. The members of a job group share a quota, and the daemon moves memory between
+	 * them according to their demand before it takes memory from other clients.
+	 * 
+	 * @param clientPID
+	 *        the process ID of the client
+	 * @param groupName
+	 *        the name of the job group, the group is created when its first member joins
+	 * @param quota
+	 *        the maximum total granted memory share of the group in kilobytes, <code>0</code> to keep the group's
+	 *        current quota; the member creating the group sets the quota, later members may only lower it
+	 * @throws NegotiationException
+	 *         thrown if the daemon does not know the client or the client already belongs to another job group
+	 * @throws InterruptedException
+	 *         thrown if the caller was interrupted while waiting for the RPC call to return
+	 * @throws IOException
+	 *         thrown if an I/O error occurred during the RPC call
+	 */
+	void joinJobGroup(int clientPID, String groupName, int quota) throws NegotiationException,
+			InterruptedException, IOException;
+
+	/**
+	 * Sets the parameters which determine the share of the client process when the memory negotiator daemon divides
+	 * spare memory among its clients. Spare memory is divided according to weighted max-min fairness, i.e. every
+	 * client first receives its minimum share and the remaining memory is split in proportion to the clients' weights
+	 * without exceeding any client's maximum share.
+	 * 
+	 * @param clientPID
+	 *        the process ID of the client
+	 * @param weight
+	 *        the weight of the client, must be positive
+	 * @param minimumMemoryShare
+	 *        the memory share in kilobytes the client receives before spare memory is divided
+	 * @param maximumMemoryShare
+	 *        the memory share in kilobytes beyond which the client does not want any more memory
+	 * @throws NegotiationException
+	 *         thrown if the daemon does not know the client or the parameters are invalid
+	 * @throws InterruptedException
+	 *         thrown if the caller was interrupted while waiting for the RPC call to return
+	 * @throws IOException
+	 *         thrown if an I/O error occurred during the RPC call
+	 */
+	void setAllocationParameters(int clientPID, int weight, int minimumMemoryShare, int maximumMemoryShare)
+			throws NegotiationException, InterruptedException, IOException;
+
+	/**
+	 * Reports the garbage collection statistics of the client process to the memory negotiator daemon. The daemon may
+	 * move memory toward clients which spend a large fraction of their time collecting garbage.
+	 * 
+	 * @param clientPID
+	 *        the process ID of the client
+	 * @param gcTimeFraction
+	 *        the fraction of the time since the last report the client spent collecting garbage, between 0 and 1
+	 * @param allocationRate
+	 *        the rate at which the client allocated memory since the last report in kilobytes per second
+	 * @throws InterruptedException
+	 *         thrown if the caller was interrupted while waiting for the RPC call to return
+	 * @throws IOException
+	 *         thrown if an I/O error occurred during the RPC call
+	 */
+	void reportGarbageCollectionStatistics(int clientPID, float gcTimeFraction, int allocationRate)
+			throws InterruptedException, IOException;
+
+	/**
+	 * Renews the memory credit of the client process. The client reports the total amount of credit it has drawn so
+	 * far; the daemon adds the memory drawn since the last renewal to the client's granted memory share and tops up
+	 * the credit as far as the memory situation permits.
+	 * 
+	 * @param clientPID
+	 *        the process ID of the client
+	 * @param drawnMemory
+	 *        the total amount of credit the client has drawn since it registered in kilobytes
+	 * @return the renewed credit
+	 * @throws NegotiationException
+	 *         thrown if the daemon does not know the client
+	 * @throws InterruptedException
+	 *         thrown if the caller was interrupted while waiting for the RPC call to return
+	 * @throws IOException
+	 *         thrown if an I/O error occurred during the RPC call
+	 */
+	MemoryCredit renewCredit(int clientPID, long drawnMemory) throws NegotiationException, InterruptedException,
+			IOException;
 }
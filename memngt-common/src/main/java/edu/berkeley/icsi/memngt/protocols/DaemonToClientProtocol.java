@@ -21,4 +21,81 @@ public interface DaemonToClientProtocol extends RPCProtocol {
 	 *         thrown if an I/O error occurred during the RPC call
 	 */
 	int additionalMemoryOffered(int amountOfAdditionalMemory) throws InterruptedException, IOException;
+
+	/**
+	 * Called by the negotiator daemon to ask the client process to shrink to its granted share gradually. The client
+	 * is expected to give up at least one slice of memory per slice interval, the daemon only intervenes if the client
+	 * falls behind this schedule. The call returns before the client has shrunk.
+	 * 
+	 * @param sizeOfNewGrantedShare
+	 *        the size of the client's granted share in kilobytes
+	 * @param sliceSize
+	 *        the amount of memory in kilobytes to give up per slice
+	 * @param sliceInterval
+	 *        the time in milliseconds between two slices
+	 * @throws InterruptedException
+	 *         thrown if the caller was interrupted while waiting for the RPC call to return
+	 * @throws IOException
+	 *         thrown if an I/O error occurred during the RPC call
+	 */
+	void grantedMemoryShareReduced(int sizeOfNewGrantedShare, int sliceSize, int sliceInterval)
+			throws InterruptedException, IOException;
+
+	/**
+	 * Called by the negotiator daemon to lend spare memory to the client process. The accepted memory is added to the
+	 * client's granted share until the daemon recalls the loan through {@link #memoryLoanRecalled(int, int)}.
+	 * 
+	 * @param loan
+	 *        the loan offered to the client
+	 * @return the amount of memory in kilobytes the client process actually borrows. Negative return values indicate
+	 *         that the client process is not interested in further memory offers.
+	 * @throws InterruptedException
+	 *         thrown if the caller was interrupted while waiting for the RPC call to return
+	 * @throws IOException
+	 *         thrown if an I/O error occurred during the RPC call
+	 */
+	int additionalMemoryOffered(MemoryLoan loan) throws InterruptedException, IOException;
+
+	/**
+	 * Called by the negotiator daemon to recall a memory loan. The client must shrink to its new granted share within
+	 * the return deadline of the loan.
+	 * 
+	 * @param loanID
+	 *        the ID of the recalled loan
+	 * @param sizeOfNewGrantedShare
+	 *        the size of the client's granted share in kilobytes after the loan has been returned
+	 * @throws InterruptedException
+	 *         thrown if the caller was interrupted while waiting for the RPC call to return
+	 * @throws IOException
+	 *         thrown if an I/O error occurred during the RPC call
+	 */
+	void memoryLoanRecalled(int loanID, int sizeOfNewGrantedShare) throws InterruptedException, IOException;
+
+	/**
+	 * Called by the negotiator daemon before it divides spare memory if it runs the market allocation policy. The
+	 * daemon divides the memory so that the total utility across all bidding clients is maximized and then offers
+	 * each client its part through {@link #additionalMemoryOffered(MemoryLoan)}.
+	 * 
+	 * @param amountOfAdditionalMemory
+	 *        the amount of spare memory in kilobytes which is up for division
+	 * @return the utility the client process expects from its total memory share or <code>null</code> if the client
+	 *         does not bid
+	 * @throws InterruptedException
+	 *         thrown if the caller was interrupted while waiting for the RPC call to return
+	 * @throws IOException
+	 *         thrown if an I/O error occurred during the RPC call
+	 */
+	UtilityCurve bidForMemory(int amountOfAdditionalMemory) throws InterruptedException, IOException;
+
+	/**
+	 * Called by the negotiator daemon to revoke the memory credit of the client process when memory becomes scarce.
+	 * The client must stop drawing on its credit.
+	 * 
+	 * @return the amount of credit in kilobytes the client had not drawn yet
+	 * @throws InterruptedException
+	 *         thrown if the caller was interrupted while waiting for the RPC call to return
+	 * @throws IOException
+	 *         thrown if an I/O error occurred during the RPC call
+	 */
+	int revokeCredit() throws InterruptedException, IOException;
 }
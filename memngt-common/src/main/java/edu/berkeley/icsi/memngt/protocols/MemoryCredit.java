@@ -0,0 +1,83 @@
+package edu.berkeley.icsi.memngt.protocols;
+
+/**
+ * A memory credit is an allowance of memory the memory negotiator daemon hands to a client process in advance. The
+ * client can draw on the credit without contacting the daemon until the lease of the credit expires. The memory drawn
+ * is reported to the daemon when the credit is renewed.
+ * <p>
+ * This class is thread-safe.
+ * 
+ * @author warneke
+ */
+public final class MemoryCredit {
+
+	/**
+	 * The amount of credit added in kilobytes.
+	 */
+	private final int amount;
+
+	/**
+	 * The duration of the lease in milliseconds.
+	 */
+	private final int leaseDuration;
+
+	/**
+	 * Stores whether the credit replaces the client's previous credit rather than adding to it.
+	 */
+	private final boolean replacing;
+
+	/**
+	 * Constructs a new memory credit.
+	 * 
+	 * @param amount
+	 *        the amount of credit added in kilobytes
+	 * @param leaseDuration
+	 *        the duration of the lease in milliseconds
+	 * @param replacing
+	 *        <code>true</code> if the credit replaces the client's previous credit, <code>false</code> if it adds to it
+	 */
+	public MemoryCredit(final int amount, final int leaseDuration, final boolean replacing) {
+		this.amount = amount;
+		this.leaseDuration = leaseDuration;
+		this.replacing = replacing;
+	}
+
+	/**
+	 * The default constructor required by kryo.
+	 */
+	private MemoryCredit() {
+		this.amount = 0;
+		this.leaseDuration = 0;
+		this.replacing = false;
+	}
+
+	/**
+	 * Returns the amount of credit added.
+	 * 
+	 * @return the amount of credit added in kilobytes
+	 */
+	public int getAmount() {
+		return this.amount;
+	}
+
+	/**
+	 * Returns the duration of the lease, after which the client must no longer draw on the credit unless it renewed
+	 * the credit.
+	 * 
+	 * @return the duration of the lease in milliseconds
+	 */
+	public int getLeaseDuration() {
+		return this.leaseDuration;
+	}
+
+	/**
+	 * Checks whether the credit replaces the client's previous credit. This is the case if the previous lease expired
+	 * and the daemon settled the previous credit on its own.
+	 * 
+	 * @return <code>true</code> if the credit replaces the client's previous credit, <code>false</code> if it adds to
+	 *         it
+	 */
+	public boolean isReplacing() {
+		return this.replacing;
+	}
+}
@@ -0,0 +1,80 @@
+package edu.berkeley.icsi.memngt.protocols;
+
+/**
+ * A memory loan is spare memory the memory negotiator daemon lends to an infrastructure process. Unlike memory granted
+ * on request, a loan can be recalled at any time. Once recalled, the client must return the loaned memory within the
+ * loan's return deadline. Clients typically use loans to grow caches they can shrink quickly.
+ * <p>
+ * This class is thread-safe.
+ * 
+ * @author warneke
+ */
+public final class MemoryLoan {
+
+	/**
+	 * The ID which tags the loan.
+	 */
+	private final int loanID;
+
+	/**
+	 * The amount of memory offered as a loan in kilobytes.
+	 */
+	private final int amount;
+
+	/**
+	 * The time in milliseconds the client has to return the memory after the loan has been recalled.
+	 */
+	private final int returnDeadline;
+
+	/**
+	 * Constructs a new memory loan.
+	 * 
+	 * @param loanID
+	 *        the ID which tags the loan
+	 * @param amount
+	 *        the amount of memory offered as a loan in kilobytes
+	 * @param returnDeadline
+	 *        the time in milliseconds the client has to return the memory after the loan has been recalled
+	 */
+	public MemoryLoan(final int loanID, final int amount, final int returnDeadline) {
+		this.loanID = loanID;
+		this.amount = amount;
+		this.returnDeadline = returnDeadline;
+	}
+
+	/**
+	 * The default constructor required by kryo.
+	 */
+	private MemoryLoan() {
+		this.loanID = 0;
+		this.amount = 0;
+		this.returnDeadline = 0;
+	}
+
+	/**
+	 * Returns the ID which tags the loan.
+	 * 
+	 * @return the ID which tags the loan
+	 */
+	public int getLoanID() {
+		return this.loanID;
+	}
+
+	/**
+	 * Returns the amount of memory offered as a loan.
+	 * 
+	 * @return the amount of memory offered as a loan in kilobytes
+	 */
+	public int getAmount() {
+		return this.amount;
+	}
+
+	/**
+	 * Returns the time the client has to return the memory after the loan has been recalled.
+	 * 
+	 * @return the time in milliseconds the client has to return the memory after the loan has been recalled
+	 */
+	public int getReturnDeadline() {
+		return this.returnDeadline;
+	}
+}
@@ -0,0 +1,166 @@
+package edu.berkeley.icsi.memngt.protocols;
+
+/**
+ * The quality of service class of a client process determines how the memory negotiator daemon treats the process
+ * when memory becomes scarce. The classes are listed in the reverse order in which they give up memory, i.e. memory is
+ * reclaimed from cache processes first and from latency-critical processes last.
+ * 
+ * @author warneke
+ */
+public enum QoSClass {
+
+	/**
+	 * Services which must not be slowed down. Their initial share is guaranteed, they may burst to twice the usual
+	 * grace margin and the daemon only throttles them, but never imposes a hard limit or kills them. They give up
+	 * excess memory in small slices.
+	 */
+	LATENCY_CRITICAL(3, true, 2.0f, false, 16 * 1024, 64 * 1024),
+
+	/**
+	 * Jobs which need their memory to make progress, but tolerate delays. Their initial share is guaranteed.
+	 */
+	BATCH(2, true, 1.0f, true, 64 * 1024, 64 * 1024),
+
+	/**
+	 * Processes which take whatever memory is left. Their memory can be reclaimed down to the floor of the class.
+	 */
+	BEST_EFFORT(1, false, 1.0f, true, 256 * 1024, 64 * 1024),
+
+	/**
+	 * Processes which use memory only to cache data they can recompute or reload. Their memory can be reclaimed down to
+	 * the floor of the class and they may only exceed their granted share by half the usual grace margin. They give up
+	 * excess memory at once.
+	 */
+	CACHE(0, false, 0.5f, true, 0, 32 * 1024);
+
+	/**
+	 * The rank of the class, memory is reclaimed from lower ranks first.
+	 */
+	private final int rank;
+
+	/**
+	 * Stores whether the initial memory share of a process of this class is guaranteed.
+	 */
+	private final boolean guaranteedMinimum;
+
+	/**
+	 * The factor applied to the daemon's grace margin for processes of this class.
+	 */
+	private final float burstFactor;
+
+	/**
+	 * Stores whether the daemon imposes hard limits on processes of this class and kills them if they do not respond
+	 * to enforcement requests.
+	 */
+	private final boolean strictEnforcement;
+
+	/**
+	 * The amount of memory in kilobytes a process of this class gives up per slice when it exceeds its granted share,
+	 * <code>0</code> if it gives up all excess memory at once.
+	 */
+	private final int reclaimSliceSize;
+
+	/**
+	 * The amount of memory in kilobytes a process of this class keeps even if its initial share is not guaranteed.
+	 */
+	private final int memoryFloor;
+
+	private QoSClass(final int rank, final boolean guaranteedMinimum, final float burstFactor,
+			final boolean strictEnforcement, final int reclaimSliceSize, final int memoryFloor) {
+
+		this.rank = rank;
+		this.guaranteedMinimum = guaranteedMinimum;
+		this.burstFactor = burstFactor;
+		this.strictEnforcement = strictEnforcement;
+		this.reclaimSliceSize = reclaimSliceSize;
+		this.memoryFloor = memoryFloor;
+	}
+
+	/**
+	 * Returns the amount of memory a process of this class always keeps. The daemon never reclaims memory below this
+	 * floor and never programs a kernel limit below it, so even a process without a guaranteed share is not starved
+	 * or killed by a zero limit.
+	 * 
+	 * @return the memory floor in kilobytes
+	 */
+	public int getMemoryFloor() {
+		return this.memoryFloor;
+	}
+
+	/**
+	 * Returns the amount of memory a process of this class gives up per slice when it exceeds its granted share.
+	 * Giving up memory in slices spreads the pauses caused by releasing memory over time.
+	 * 
+	 * @return the amount of memory per slice in kilobytes or <code>0</code> if the process gives up all excess memory
+	 *         at once
+	 */
+	public int getReclaimSliceSize() {
+		return this.reclaimSliceSize;
+	}
+
+	/**
+	 * Returns the rank of the class. Memory is reclaimed from processes of lower ranks first.
+	 * 
+	 * @return the rank of the class
+	 */
+	public int getRank() {
+		return this.rank;
+	}
+
+	/**
+	 * Checks whether the initial memory share of a process of this class is guaranteed, i.e. it is never reclaimed.
+	 * 
+	 * @return <code>true</code> if the initial memory share is guaranteed, <code>false</code> otherwise
+	 */
+	public boolean hasGuaranteedMinimum() {
+		return this.guaranteedMinimum;
+	}
+
+	/**
+	 * Returns the factor applied to the daemon's grace margin for processes of this class, i.e. how far they may
+	 * temporarily exceed their granted memory share.
+	 * 
+	 * @return the factor applied to the grace margin
+	 */
+	public float getBurstFactor() {
+		return this.burstFactor;
+	}
+
+	/**
+	 * Checks whether the daemon imposes hard limits on processes of this class and kills them if they do not respond
+	 * to enforcement requests.
+	 * 
+	 * @return <code>true</code> if processes of this class are subject to strict enforcement, <code>false</code>
+	 *         otherwise
+	 */
+	public boolean isStrictlyEnforced() {
+		return this.strictEnforcement;
+	}
+
+	/**
+	 * Checks whether processes of this class may have memory reclaimed from processes of the given class.
+	 * 
+	 * @param qosClass
+	 *        the class of the processes to reclaim memory from
+	 * @return <code>true</code> if memory may be reclaimed, <code>false</code> otherwise
+	 */
+	public boolean mayPreempt(final QoSClass qosClass) {
+		return this.rank > qosClass.rank;
+	}
+
+	/**
+	 * Returns the class of processes which register without specifying a class.
+	 * 
+	 * @param type
+	 *        the type of the process
+	 * @return the default class for the given process type
+	 */
+	public static QoSClass getDefault(final ProcessType type) {
+
+		if (type == ProcessType.USER_PROCESS) {
+			return BATCH;
+		}
+
+		return BEST_EFFORT;
+	}
+}
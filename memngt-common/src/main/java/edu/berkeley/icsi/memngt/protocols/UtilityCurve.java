@@ -0,0 +1,165 @@
+package edu.berkeley.icsi.memngt.protocols;
+
+/**
+ * A utility curve describes the benefit a client process expects from its memory share, for example derived from its
+ * cache miss curve or the volume of data it would otherwise spill to disk. The curve is piecewise constant in the
+ * marginal utility: the share is divided into consecutive segments, each with the utility one additional megabyte of
+ * memory yields within it. Beyond the last segment additional memory yields no utility.
+ * <p>
+ * The marginal utilities must not increase from one segment to the next, i.e. the curve must be concave. This allows
+ * the memory negotiator daemon to maximize the total utility across all clients greedily.
+ * <p>
+ * This class is thread-safe.
+ * 
+ * @author warneke
+ */
+public final class UtilityCurve {
+
+	/**
+	 * The upper limits of the segments in kilobytes, in ascending order.
+	 */
+	private final int[] segmentLimits;
+
+	/**
+	 * The utility of one additional megabyte within each segment.
+	 */
+	private final float[] marginalUtilities;
+
+	/**
+	 * Constructs a new utility curve.
+	 * 
+	 * @param segmentLimits
+	 *        the upper limits of the segments in kilobytes, in ascending order; the first segment starts at a share of
+	 *        zero
+	 * @param marginalUtilities
+	 *        the utility of one additional megabyte within each segment, non-negative and non-increasing
+	 * @throws IllegalArgumentException
+	 *         thrown if the segments are not valid or the curve is not concave
+	 */
+	public UtilityCurve(final int[] segmentLimits, final float[] marginalUtilities) {
+
+		this.segmentLimits = segmentLimits.clone();
+		this.marginalUtilities = marginalUtilities.clone();
+
+		if (!isValid()) {
+			throw new IllegalArgumentException("Utility curve must consist of ascending segments with non-negative, "
+				+ "non-increasing marginal utilities");
+		}
+	}
+
+	/**
+	 * The default constructor required by kryo.
+	 */
+	private UtilityCurve() {
+		this.segmentLimits = null;
+		this.marginalUtilities = null;
+	}
+
+	/**
+	 * Checks whether the curve is well-formed. Curves received over the network must be checked before they are used.
+	 * 
+	 * @return <code>true</code> if the curve is well-formed, <code>false</code> otherwise
+	 */
+	public boolean isValid() {
+
+		if (this.segmentLimits == null || this.marginalUtilities == null
+			|| this.segmentLimits.length != this.marginalUtilities.length) {
+			return false;
+		}
+
+		for (int i = 0; i < this.segmentLimits.length; ++i) {
+
+			if (this.segmentLimits[i] <= 0 || this.marginalUtilities[i] < 0.0f
+				|| Float.isNaN(this.marginalUtilities[i]) || Float.isInfinite(this.marginalUtilities[i])) {
+				return false;
+			}
+
+			if (i > 0 && (this.segmentLimits[i] <= this.segmentLimits[i - 1]
+				|| this.marginalUtilities[i] > this.marginalUtilities[i - 1])) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Returns the number of segments of the curve.
+	 * 
+	 * @return the number of segments of the curve
+	 */
+	public int getNumberOfSegments() {
+		return this.segmentLimits.length;
+	}
+
+	/**
+	 * Returns the upper limit of the segment with the given index.
+	 * 
+	 * @param index
+	 *        the index of the segment
+	 * @return the upper limit of the segment in kilobytes
+	 */
+	public int getSegmentLimit(final int index) {
+		return this.segmentLimits[index];
+	}
+
+	/**
+	 * Returns the utility of one additional megabyte within the segment with the given index.
+	 * 
+	 * @param index
+	 *        the index of the segment
+	 * @return the utility of one additional megabyte within the segment
+	 */
+	public float getSegmentUtility(final int index) {
+		return this.marginalUtilities[index];
+	}
+
+	/**
+	 * Returns the utility of one additional megabyte of memory for a client holding the given share.
+	 * 
+	 * @param share
+	 *        the memory share of the client in kilobytes
+	 * @return the utility of one additional megabyte of memory
+	 */
+	public float getMarginalUtility(final int share) {
+
+		for (int i = 0; i < this.segmentLimits.length; ++i) {
+			if (share < this.segmentLimits[i]) {
+				return this.marginalUtilities[i];
+			}
+		}
+
+		return 0.0f;
+	}
+
+	/**
+	 * Returns the utility a client gains when its memory share grows from the first to the second given share.
+	 * 
+	 * @param fromShare
+	 *        the smaller memory share in kilobytes
+	 * @param toShare
+	 *        the larger memory share in kilobytes
+	 * @return the utility gained, negative if the first share is the larger one
+	 */
+	public double getUtility(final int fromShare, final int toShare) {
+
+		if (fromShare > toShare) {
+			return -getUtility(toShare, fromShare);
+		}
+
+		double utility = 0.0;
+		int segmentStart = 0;
+		for (int i = 0; i < this.segmentLimits.length; ++i) {
+
+			final int lower = Math.max(fromShare, segmentStart);
+			final int upper = Math.min(toShare, this.segmentLimits[i]);
+			if (upper > lower) {
+				utility += ((double) (upper - lower) / 1024.0) * this.marginalUtilities[i];
+			}
+
+			segmentStart = this.segmentLimits[i];
+		}
+
+		return utility;
+	}
+}
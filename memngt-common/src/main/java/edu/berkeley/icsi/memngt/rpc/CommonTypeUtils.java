@@ -3,8 +3,12 @@ package edu.berkeley.icsi.memngt.rpc;
 import java.util.ArrayList;
 import java.util.List;
 
+import edu.berkeley.icsi.memngt.protocols.MemoryCredit;
+import edu.berkeley.icsi.memngt.protocols.MemoryLoan;
 import edu.berkeley.icsi.memngt.protocols.NegotiationException;
 import edu.berkeley.icsi.memngt.protocols.ProcessType;
+import edu.berkeley.icsi.memngt.protocols.QoSClass;
+import edu.berkeley.icsi.memngt.protocols.UtilityCurve;
 
 public class CommonTypeUtils {
 
@@ -24,6 +28,12 @@ public class CommonTypeUtils {
 		final ArrayList<Class<?>> types = new ArrayList<Class<?>>();
 
 		types.add(ProcessType.class);
+		types.add(QoSClass.class);
+		types.add(UtilityCurve.class);
+		types.add(MemoryCredit.class);
+		types.add(MemoryLoan.class);
+		types.add(int[].class);
+		types.add(float[].class);
 		types.add(NegotiationException.class);
 
 		return types;
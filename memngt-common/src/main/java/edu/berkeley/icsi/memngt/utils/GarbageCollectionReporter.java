@@ -0,0 +1,184 @@
+package edu.berkeley.icsi.memngt.utils;
+
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.List;
+
+import com.esotericsoftware.minlog.Log;
+
+import edu.berkeley.icsi.memngt.protocols.ClientToDaemonProtocol;
+
+/**
+ * The garbage collection reporter periodically reports the fraction of time the JVM spends collecting garbage and its
+ * allocation rate to the memory negotiator daemon. The daemon uses these statistics to move memory toward the JVMs
+ * which suffer the most from garbage collection.
+ * <p>
+ * The collection time is taken from the {@link GarbageCollectorMXBean}s. The allocation rate is estimated from the
+ * usage of the heap memory pools: growth between two samples counts as allocated, and if a pool shrank, it is assumed
+ * to have been collected when it was full. Several collections of the same pool between two samples are not accounted
+ * for, so the estimate is a lower bound.
+ * <p>
+ * This class is thread-safe.
+ * 
+ * @author warneke
+ */
+public final class GarbageCollectionReporter extends Thread {
+
+	/**
+	 * The proxy of the memory negotiator daemon.
+	 */
+	private final ClientToDaemonProtocol daemon;
+
+	/**
+	 * The process ID of the JVM.
+	 */
+	private final int pid;
+
+	/**
+	 * The interval in which the statistics are reported in milliseconds.
+	 */
+	private final int reportingInterval;
+
+	/**
+	 * The heap memory pools of the JVM.
+	 */
+	private final List<MemoryPoolMXBean> heapPools;
+
+	/**
+	 * The usage of each heap memory pool at the last sample.
+	 */
+	private final MemoryUsage[] lastUsages;
+
+	/**
+	 * The accumulated collection time of all collectors at the last sample in milliseconds.
+	 */
+	private long lastCollectionTime;
+
+	/**
+	 * The time of the last sample in milliseconds.
+	 */
+	private long lastSampleTime;
+
+	/**
+	 * Constructs a new garbage collection reporter. The reporter must be started explicitly.
+	 * 
+	 * @param daemon
+	 *        the proxy of the memory negotiator daemon
+	 * @param pid
+	 *        the process ID of the JVM, as registered with the daemon
+	 * @param reportingInterval
+	 *        the interval in which the statistics are reported in milliseconds
+	 */
+	public GarbageCollectionReporter(final ClientToDaemonProtocol daemon, final int pid, final int reportingInterval) {
+		super("Garbage Collection Reporter");
+
+		if (reportingInterval <= 0) {
+			throw new IllegalArgumentException("reportingInterval must be positive");
+		}
+
+		this.daemon = daemon;
+		this.pid = pid;
+		this.reportingInterval = reportingInterval;
+		this.heapPools = ManagementFactory.getMemoryPoolMXBeans();
+		this.lastUsages = new MemoryUsage[this.heapPools.size()];
+
+		setDaemon(true);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void run() {
+
+		sample();
+
+		while (!isInterrupted()) {
+
+			try {
+				Thread.sleep(this.reportingInterval);
+			} catch (InterruptedException ie) {
+				return;
+			}
+
+			final long now = System.currentTimeMillis();
+			final long elapsedTime = Math.max(1L, now - this.lastSampleTime);
+			final long collectionTime = getCollectionTime();
+			final long allocatedMemory = sample();
+
+			final float gcTimeFraction = Math.min(1.0f,
+				Math.max(0.0f, (float) (collectionTime - this.lastCollectionTime) / (float) elapsedTime));
+			final int allocationRate = (int) Math.min(Integer.MAX_VALUE, (allocatedMemory * 1000L) / elapsedTime);
+
+			this.lastCollectionTime = collectionTime;
+			this.lastSampleTime = now;
+
+			try {
+				this.daemon.reportGarbageCollectionStatistics(this.pid, gcTimeFraction, allocationRate);
+			} catch (IOException ioe) {
+				Log.warn("Unable to report garbage collection statistics: ", ioe);
+			} catch (InterruptedException ie) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Returns the accumulated collection time of all garbage collectors of the JVM.
+	 * 
+	 * @return the accumulated collection time in milliseconds
+	 */
+	private static long getCollectionTime() {
+
+		long collectionTime = 0L;
+		for (final GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+			final long time = collector.getCollectionTime();
+			if (time > 0L) {
+				collectionTime += time;
+			}
+		}
+
+		return collectionTime;
+	}
+
+	/**
+	 * Samples the usage of the heap memory pools.
+	 * 
+	 * @return the estimated amount of memory in kilobytes allocated since the last sample
+	 */
+	private long sample() {
+
+		long allocatedMemory = 0L;
+		for (int i = 0; i < this.lastUsages.length; ++i) {
+
+			final MemoryPoolMXBean pool = this.heapPools.get(i);
+			if (pool.getType() != MemoryType.HEAP || !pool.isValid()) {
+				continue;
+			}
+
+			final MemoryUsage usage = pool.getUsage();
+			final MemoryUsage lastUsage = this.lastUsages[i];
+			if (lastUsage != null) {
+				if (usage.getUsed() >= lastUsage.getUsed()) {
+					allocatedMemory += usage.getUsed() - lastUsage.getUsed();
+				} else {
+					// The pool has been collected, assume it filled up before
+					allocatedMemory += Math.max(0L, lastUsage.getCommitted() - lastUsage.getUsed()) + usage.getUsed();
+				}
+			}
+
+			this.lastUsages[i] = usage;
+		}
+
+		if (this.lastSampleTime == 0L) {
+			this.lastSampleTime = System.currentTimeMillis();
+			this.lastCollectionTime = getCollectionTime();
+		}
+
+		return allocatedMemory / 1024L;
+	}
+}
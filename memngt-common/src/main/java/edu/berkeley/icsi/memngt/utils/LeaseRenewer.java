@@ -0,0 +1,157 @@
+package edu.berkeley.icsi.memngt.utils;
+
+import java.io.IOException;
+
+import com.esotericsoftware.minlog.Log;
+
+import edu.berkeley.icsi.memngt.protocols.ClientToDaemonProtocol;
+import edu.berkeley.icsi.memngt.protocols.DaemonToClientProtocol;
+import edu.berkeley.icsi.memngt.protocols.NegotiationException;
+import edu.berkeley.icsi.memngt.protocols.ProcessType;
+import edu.berkeley.icsi.memngt.protocols.QoSClass;
+
+/**
+ * The lease renewer keeps the client's lease with the memory negotiator daemon alive by renewing it three times per
+ * lease duration. Once the renewer has been started, the daemon expects the renewals to continue, so a client which
+ * terminates or hangs has its memory reclaimed quickly. If the daemon no longer knows the client, for example because
+ * the daemon has been restarted, the renewer registers the client again and tells it about its new granted share.
+ * <p>
+ * This class is thread-safe.
+ * 
+ * @author warneke
+ */
+public final class LeaseRenewer extends Thread {
+
+	/**
+	 * The interval in milliseconds in which the renewer retries after a failed renewal.
+	 */
+	private static final int RETRY_INTERVAL = 100;
+
+	/**
+	 * The proxy of the memory negotiator daemon.
+	 */
+	private final ClientToDaemonProtocol daemon;
+
+	/**
+	 * The client, which is told about its granted share after it has been registered again.
+	 */
+	private final DaemonToClientProtocol client;
+
+	/**
+	 * The name of the client.
+	 */
+	private final String clientName;
+
+	/**
+	 * The process ID of the client.
+	 */
+	private final int pid;
+
+	/**
+	 * The port of the client's RPC service.
+	 */
+	private final int rpcPort;
+
+	/**
+	 * The type of the client process.
+	 */
+	private final ProcessType type;
+
+	/**
+	 * The quality of service class of the client.
+	 */
+	private final QoSClass qosClass;
+
+	/**
+	 * Constructs a new lease renewer. The renewer must be started explicitly. The registration details must match the
+	 * ones the client has registered with.
+	 * 
+	 * @param daemon
+	 *        the proxy of the memory negotiator daemon
+	 * @param client
+	 *        the client, which is told about its granted share after it has been registered again
+	 * @param clientName
+	 *        the name of the client
+	 * @param pid
+	 *        the process ID of the client, as registered with the daemon
+	 * @param rpcPort
+	 *        the port of the client's RPC service
+	 * @param type
+	 *        the type of the client process
+	 * @param qosClass
+	 *        the quality of service class of the client
+	 */
+	public LeaseRenewer(final ClientToDaemonProtocol daemon, final DaemonToClientProtocol client,
+			final String clientName, final int pid, final int rpcPort, final ProcessType type,
+			final QoSClass qosClass) {
+		super("Lease Renewer");
+
+		this.daemon = daemon;
+		this.client = client;
+		this.clientName = clientName;
+		this.pid = pid;
+		this.rpcPort = rpcPort;
+		this.type = type;
+		this.qosClass = qosClass;
+
+		setDaemon(true);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void run() {
+
+		while (!isInterrupted()) {
+
+			int sleepTime = RETRY_INTERVAL;
+			try {
+				sleepTime = Math.max(1, this.daemon.renewLease(this.pid) / 3);
+			} catch (NegotiationException ne) {
+				Log.warn("Lease has been revoked: " + ne.getMessage() + ", registering again...");
+				try {
+					reregister();
+				} catch (NegotiationException ne2) {
+					Log.error("Unable to register again: " + ne2.getMessage());
+				} catch (IOException ioe) {
+					Log.warn("Unable to register again: ", ioe);
+				} catch (InterruptedException ie) {
+					return;
+				}
+			} catch (IOException ioe) {
+				Log.warn("Unable to renew lease: ", ioe);
+			} catch (InterruptedException ie) {
+				return;
+			}
+
+			try {
+				Thread.sleep(sleepTime);
+			} catch (InterruptedException ie) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Registers the client with the daemon again, tells the client about its new granted share and takes out a new
+	 * lease.
+	 * 
+	 * @throws NegotiationException
+	 *         thrown if the daemon refused the registration
+	 * @throws InterruptedException
+	 *         thrown if the renewer was interrupted while waiting for an RPC call to return
+	 * @throws IOException
+	 *         thrown if an I/O error occurred during an RPC call
+	 */
+	private void reregister() throws NegotiationException, InterruptedException, IOException {
+
+		final int grantedMemoryShare = this.daemon.registerClient(this.clientName, this.pid, this.rpcPort, this.type,
+			this.qosClass);
+
+		Log.info("Registered again with " + grantedMemoryShare + " kilobytes of granted memory");
+
+		this.client.grantedMemoryShareChanged(grantedMemoryShare);
+		this.daemon.renewLease(this.pid);
+	}
+}
@@ -0,0 +1,178 @@
+package edu.berkeley.icsi.memngt.utils;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.esotericsoftware.minlog.Log;
+
+import edu.berkeley.icsi.memngt.protocols.ClientToDaemonProtocol;
+import edu.berkeley.icsi.memngt.protocols.MemoryCredit;
+import edu.berkeley.icsi.memngt.protocols.NegotiationException;
+
+/**
+ * The memory credit account holds the memory credit the memory negotiator daemon extended to the client process. Small
+ * requests for additional memory are served from the credit with a single atomic operation instead of an RPC call.
+ * The account renews its credit in the background and reports the memory drawn in the process. If the daemon revokes
+ * the credit, the client's implementation of the daemon-to-client protocol must call {@link #revoke()}.
+ * <p>
+ * This class is thread-safe.
+ * 
+ * @author warneke
+ */
+public final class MemoryCreditAccount extends Thread {
+
+	/**
+	 * The interval in milliseconds in which the account retries to renew its credit after a failure.
+	 */
+	private static final int RETRY_INTERVAL = 1000;
+
+	/**
+	 * The proxy of the memory negotiator daemon.
+	 */
+	private final ClientToDaemonProtocol daemon;
+
+	/**
+	 * The process ID of the client.
+	 */
+	private final int pid;
+
+	/**
+	 * The credit which has not been drawn yet in kilobytes.
+	 */
+	private final AtomicInteger balance = new AtomicInteger(0);
+
+	/**
+	 * The total amount of credit drawn since the account was created in kilobytes.
+	 */
+	private final AtomicLong drawnMemory = new AtomicLong(0L);
+
+	/**
+	 * The time at which the lease of the credit expires in milliseconds.
+	 */
+	private volatile long leaseExpiry = 0L;
+
+	/**
+	 * Constructs a new memory credit account. The account must be started explicitly to obtain credit.
+	 * 
+	 * @param daemon
+	 *        the proxy of the memory negotiator daemon
+	 * @param pid
+	 *        the process ID of the client, as registered with the daemon
+	 */
+	public MemoryCreditAccount(final ClientToDaemonProtocol daemon, final int pid) {
+		super("Memory Credit Account");
+
+		this.daemon = daemon;
+		this.pid = pid;
+
+		setDaemon(true);
+	}
+
+	/**
+	 * Requests additional memory, drawing on the credit if possible and asking the daemon otherwise.
+	 * 
+	 * @param amountOfMemory
+	 *        the requested amount of additional memory in kilobytes
+	 * @return <code>true</code> if the request has been granted, <code>false</code> otherwise
+	 * @throws NegotiationException
+	 *         thrown if the daemon could not process the request for additional memory
+	 * @throws InterruptedException
+	 *         thrown if the caller was interrupted while waiting for the RPC call to return
+	 * @throws IOException
+	 *         thrown if an I/O error occurred during the RPC call
+	 */
+	public boolean requestAdditionalMemory(final int amountOfMemory) throws NegotiationException,
+			InterruptedException, IOException {
+
+		if (tryDraw(amountOfMemory)) {
+			return true;
+		}
+
+		return this.daemon.requestAdditionalMemory(this.pid, amountOfMemory);
+	}
+
+	/**
+	 * Draws the given amount of memory from the credit.
+	 * 
+	 * @param amountOfMemory
+	 *        the amount of memory to draw in kilobytes
+	 * @return <code>true</code> if the credit covered the amount, <code>false</code> otherwise
+	 */
+	public boolean tryDraw(final int amountOfMemory) {
+
+		if (amountOfMemory <= 0 || System.currentTimeMillis() >= this.leaseExpiry) {
+			return false;
+		}
+
+		while (true) {
+
+			final int balance = this.balance.get();
+			if (balance < amountOfMemory) {
+				return false;
+			}
+
+			if (this.balance.compareAndSet(balance, balance - amountOfMemory)) {
+				this.drawnMemory.addAndGet(amountOfMemory);
+				return true;
+			}
+
+			// We had a race, try again
+		}
+	}
+
+	/**
+	 * Gives up the credit which has not been drawn yet. The client calls this method when the daemon revokes its
+	 * credit.
+	 * 
+	 * @return the amount of credit given up in kilobytes
+	 */
+	public int revoke() {
+		return this.balance.getAndSet(0);
+	}
+
+	/**
+	 * Returns the credit which has not been drawn yet.
+	 * 
+	 * @return the credit which has not been drawn yet in kilobytes
+	 */
+	public int getBalance() {
+		return this.balance.get();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void run() {
+
+		while (!isInterrupted()) {
+
+			int sleepTime = RETRY_INTERVAL;
+			try {
+				final MemoryCredit credit = this.daemon.renewCredit(this.pid, this.drawnMemory.get());
+				if (credit.isReplacing()) {
+					this.balance.set(credit.getAmount());
+				} else {
+					this.balance.addAndGet(credit.getAmount());
+				}
+				this.leaseExpiry = System.currentTimeMillis() + credit.getLeaseDuration();
+
+				// Renew well before the lease expires
+				sleepTime = Math.max(1, credit.getLeaseDuration() / 2);
+			} catch (NegotiationException ne) {
+				Log.warn("Unable to renew memory credit: " + ne.getMessage());
+			} catch (IOException ioe) {
+				Log.warn("Unable to renew memory credit: ", ioe);
+			} catch (InterruptedException ie) {
+				return;
+			}
+
+			try {
+				Thread.sleep(sleepTime);
+			} catch (InterruptedException ie) {
+				return;
+			}
+		}
+	}
+}
@@ -0,0 +1,55 @@
+package edu.berkeley.icsi.memngt.daemon;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+
+import com.esotericsoftware.minlog.Log;
+
+import edu.berkeley.icsi.memngt.protocols.UtilityCurve;
+
+/**
+ * A bid task asks a client process for its utility curve before the daemon divides spare memory and records the
+ * curve with the process. A process which does not bid keeps its previous curve.
+ * <p>
+ * This class is thread-safe.
+ * 
+ * @author warneke
+ */
+final class BidTask implements Callable<Void> {
+
+	/**
+	 * The client process to ask for a bid.
+	 */
+	private final ClientProcess clientProcess;
+
+	/**
+	 * The amount of spare memory in kilobytes which is up for division.
+	 */
+	private final int spareMemory;
+
+	BidTask(final ClientProcess clientProcess, final int spareMemory) {
+		this.clientProcess = clientProcess;
+		this.spareMemory = spareMemory;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Void call() throws IOException, InterruptedException {
+
+		final UtilityCurve utilityCurve = this.clientProcess.bidForMemory(this.spareMemory);
+		if (utilityCurve == null) {
+			return null;
+		}
+
+		if (!utilityCurve.isValid()) {
+			Log.warn(this.clientProcess + " submitted an invalid utility curve, ignoring it");
+			return null;
+		}
+
+		this.clientProcess.setUtilityCurve(utilityCurve);
+
+		return null;
+	}
+}
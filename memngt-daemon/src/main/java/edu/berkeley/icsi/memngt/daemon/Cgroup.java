@@ -0,0 +1,635 @@
+package edu.berkeley.icsi.memngt.daemon;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+
+import com.esotericsoftware.minlog.Log;
+
+/**
+ * This class provides access to the memory controller of a control group (cgroup) of the unified cgroup v2 hierarchy.
+ * All memory values are reported in kilobytes.
+ * <p>
+ * This class is thread-safe.
+ * 
+ * @author warneke
+ */
+final class Cgroup {
+
+	/**
+	 * The file system type of the unified cgroup hierarchy as reported in <code>/proc/self/mountinfo</code>.
+	 */
+	private static final String CGROUP2_FILE_SYSTEM = "cgroup2";
+
+	/**
+	 * The value the kernel reports for memory limits which are not set.
+	 */
+	private static final String UNLIMITED = "max";
+
+	/**
+	 * The mount point of the unified cgroup hierarchy or <code>null</code> if the hierarchy is not mounted.
+	 */
+	private static final File MOUNT_POINT;
+
+	/**
+	 * The root of the mounted hierarchy relative to the root of the cgroup namespace.
+	 */
+	private static final String MOUNT_ROOT;
+
+	static {
+
+		final String[] mountInfo = findMountInfo();
+		if (mountInfo == null) {
+			MOUNT_POINT = null;
+			MOUNT_ROOT = null;
+		} else {
+			MOUNT_ROOT = mountInfo[0];
+			MOUNT_POINT = new File(mountInfo[1]);
+		}
+	}
+
+	/**
+	 * The path of this cgroup relative to the root of the hierarchy.
+	 */
+	private final String path;
+
+	/**
+	 * The directory representing this cgroup in the cgroup file system.
+	 */
+	private final File directory;
+
+	private Cgroup(final String path) {
+		this.path = path;
+		this.directory = new File(MOUNT_POINT, path);
+	}
+
+	/**
+	 * Returns the cgroup the process with the given ID belongs to.
+	 * 
+	 * @param pid
+	 *        the ID of the process
+	 * @return the cgroup the process belongs to or <code>null</code> if the process is not part of a cgroup v2
+	 *         hierarchy with an enabled memory controller
+	 */
+	static Cgroup getCgroupOfProcess(final int pid) {
+
+		if (MOUNT_POINT == null) {
+			return null;
+		}
+
+		final String filename = "/proc/" + pid + "/cgroup";
+
+		BufferedReader br = null;
+		try {
+			br = new BufferedReader(new FileReader(filename));
+			String line = br.readLine();
+			while (line != null) {
+
+				// The unified hierarchy always has the hierarchy ID 0 and no controller list
+				if (line.startsWith("0::")) {
+
+					String path = line.substring(3);
+					if (!"/".equals(MOUNT_ROOT) && (path.equals(MOUNT_ROOT) || path.startsWith(MOUNT_ROOT + "/"))) {
+						path = path.substring(MOUNT_ROOT.length());
+					}
+
+					final Cgroup cgroup = new Cgroup(path.length() == 0 ? "/" : path);
+					if (!cgroup.hasMemoryController()) {
+						return null;
+					}
+
+					return cgroup;
+				}
+
+				line = br.readLine();
+			}
+
+		} catch (FileNotFoundException fnfe) {
+			return null;
+		} catch (IOException ioe) {
+			Log.error("Error reading " + filename + ": ", ioe);
+		} finally {
+			if (br != null) {
+				try {
+					br.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Returns the cgroup with the given path.
+	 * 
+	 * @param path
+	 *        the path of the cgroup relative to the root of the hierarchy
+	 * @return the cgroup with the given path or <code>null</code> if the unified hierarchy is not mounted
+	 */
+	static Cgroup getCgroup(final String path) {
+
+		if (MOUNT_POINT == null) {
+			return null;
+		}
+
+		return new Cgroup(path);
+	}
+
+	/**
+	 * Returns the path of this cgroup relative to the root of the hierarchy.
+	 * 
+	 * @return the path of this cgroup relative to the root of the hierarchy
+	 */
+	String getPath() {
+		return this.path;
+	}
+
+	/**
+	 * Returns the given file inside this cgroup's directory.
+	 * 
+	 * @param filename
+	 *        the name of the file
+	 * @return the file inside this cgroup's directory
+	 */
+	File getFile(final String filename) {
+		return new File(this.directory, filename);
+	}
+
+	/**
+	 * Returns the parent of this cgroup.
+	 * 
+	 * @return the parent of this cgroup or <code>null</code> if this cgroup is the root of the mounted hierarchy
+	 */
+	Cgroup getParent() {
+
+		if ("/".equals(this.path)) {
+			return null;
+		}
+
+		final int pos = this.path.lastIndexOf('/');
+		if (pos <= 0) {
+			return new Cgroup("/");
+		}
+
+		return new Cgroup(this.path.substring(0, pos));
+	}
+
+	/**
+	 * Returns the child cgroup with the given name, creating it if it does not exist yet.
+	 * 
+	 * @param name
+	 *        the name of the child cgroup
+	 * @return the child cgroup
+	 * @throws IOException
+	 *         thrown if the child cgroup could not be created
+	 */
+	Cgroup createChild(final String name) throws IOException {
+
+		final Cgroup child = new Cgroup("/".equals(this.path) ? "/" + name : this.path + "/" + name);
+		if (!child.directory.isDirectory() && !child.directory.mkdir()) {
+			throw new IOException("Unable to create cgroup " + child);
+		}
+
+		return child;
+	}
+
+	/**
+	 * Removes this cgroup from the hierarchy. The kernel only permits the removal of cgroups without any processes.
+	 * 
+	 * @return <code>true</code> if the cgroup has been removed, <code>false</code> otherwise
+	 */
+	boolean delete() {
+		return this.directory.delete();
+	}
+
+	/**
+	 * Enables the memory controller for the children of this cgroup.
+	 * 
+	 * @throws IOException
+	 *         thrown if the memory controller could not be enabled
+	 */
+	void enableMemoryControllerForChildren() throws IOException {
+		writeFile("cgroup.subtree_control", "+memory");
+	}
+
+	/**
+	 * Moves the process with the given ID into this cgroup.
+	 * 
+	 * @param pid
+	 *        the ID of the process to move
+	 * @throws IOException
+	 *         thrown if the process could not be moved
+	 */
+	void addProcess(final int pid) throws IOException {
+		writeFile("cgroup.procs", Integer.toString(pid));
+	}
+
+	/**
+	 * Sets the memory throttling limit (<code>memory.high</code>) of this cgroup. Above this limit, the kernel throttles
+	 * the processes in the cgroup and puts them under heavy reclaim pressure.
+	 * 
+	 * @param limit
+	 *        the throttling limit in kilobytes
+	 * @throws IOException
+	 *         thrown if the limit could not be set
+	 */
+	void setMemoryHigh(final int limit) throws IOException {
+		writeFile("memory.high", Long.toString((long) limit * 1024L));
+	}
+
+	/**
+	 * Sets the hard memory limit (<code>memory.max</code>) of this cgroup. If the processes in the cgroup cannot be
+	 * kept below this limit, the kernel invokes the OOM killer inside the cgroup.
+	 * 
+	 * @param limit
+	 *        the hard limit in kilobytes
+	 * @throws IOException
+	 *         thrown if the limit could not be set
+	 */
+	void setMemoryMax(final int limit) throws IOException {
+		writeFile("memory.max", Long.toString((long) limit * 1024L));
+	}
+
+	/**
+	 * Removes the throttling limit and the hard memory limit of this cgroup.
+	 * 
+	 * @throws IOException
+	 *         thrown if the limits could not be removed
+	 */
+	void removeMemoryLimits() throws IOException {
+
+		// Lift the hard limit first, so it never ends up below the throttling limit
+		writeFile("memory.max", UNLIMITED);
+		writeFile("memory.high", UNLIMITED);
+	}
+
+	/**
+	 * Checks whether the memory controller is enabled for this cgroup.
+	 * 
+	 * @return <code>true</code> if the memory controller is enabled for this cgroup, <code>false</code> otherwise
+	 */
+	boolean hasMemoryController() {
+		return new File(this.directory, "memory.stat").exists();
+	}
+
+	/**
+	 * Returns the hard memory limit (<code>memory.max</code>) of this cgroup.
+	 * 
+	 * @return the hard memory limit of this cgroup in kilobytes or <code>-1</code> if the cgroup has no limit or the
+	 *         limit could not be determined
+	 */
+	int getMemoryLimit() {
+
+		final String val = readFirstLine("memory.max");
+		if (val == null || UNLIMITED.equals(val)) {
+			return -1;
+		}
+
+		return bytesToKilobytes(val);
+	}
+
+	/**
+	 * Returns the total amount of memory (<code>memory.current</code>) currently charged to this cgroup, including the
+	 * page cache.
+	 * 
+	 * @return the amount of memory currently charged to this cgroup in kilobytes or <code>-1</code> if the amount could
+	 *         not be determined
+	 */
+	int getMemoryUsage() {
+
+		final String val = readFirstLine("memory.current");
+		if (val == null) {
+			return -1;
+		}
+
+		return bytesToKilobytes(val);
+	}
+
+	/**
+	 * Returns the amount of swap space (<code>memory.swap.current</code>) currently used by this cgroup.
+	 * 
+	 * @return the amount of swap space used by this cgroup in kilobytes or <code>-1</code> if the amount could not be
+	 *         determined
+	 */
+	int getSwapUsage() {
+
+		final String val = readFirstLine("memory.swap.current");
+		if (val == null) {
+			return -1;
+		}
+
+		return bytesToKilobytes(val);
+	}
+
+	/**
+	 * Returns the share of time in which at least one process of this cgroup stalled waiting for memory, averaged over
+	 * the last ten seconds, as reported by the <code>some</code> line of <code>memory.pressure</code>.
+	 * 
+	 * @return the stall time in percent or <code>-1</code> if the kernel provides no pressure stall information
+	 */
+	float getMemoryStall() {
+
+		final String val = readFirstLine("memory.pressure");
+		if (val == null || !val.startsWith("some")) {
+			return -1.0f;
+		}
+
+		for (final String field : val.split(" ")) {
+			if (field.startsWith("avg10=")) {
+				try {
+					return Float.parseFloat(field.substring(6));
+				} catch (NumberFormatException nfe) {
+					Log.debug("Unable to parse " + field);
+				}
+			}
+		}
+
+		return -1.0f;
+	}
+
+	/**
+	 * Returns the value of the given key from the <code>memory.stat</code> file of this cgroup.
+	 * 
+	 * @param key
+	 *        the key to look up
+	 * @return the value of the key in kilobytes or <code>-1</code> if the value could not be determined
+	 */
+	int getMemoryStatValue(final String key) {
+
+		final File file = new File(this.directory, "memory.stat");
+		final String prefix = key + " ";
+
+		BufferedReader br = null;
+		try {
+			br = new BufferedReader(new FileReader(file));
+			String line = br.readLine();
+			while (line != null) {
+
+				if (line.startsWith(prefix)) {
+					return bytesToKilobytes(line.substring(prefix.length()));
+				}
+
+				line = br.readLine();
+			}
+
+		} catch (FileNotFoundException fnfe) {
+			return -1;
+		} catch (IOException ioe) {
+			Log.error("Error reading " + file + ": ", ioe);
+		} finally {
+			if (br != null) {
+				try {
+					br.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Returns the working set size of this cgroup, i.e. the memory charged to the cgroup minus the inactive page cache
+	 * the kernel can reclaim without any noticeable impact on the processes in the cgroup.
+	 * 
+	 * @return the working set size of this cgroup in kilobytes or <code>-1</code> if the size could not be determined
+	 */
+	int getWorkingSetSize() {
+
+		final int usage = getMemoryUsage();
+		if (usage == -1) {
+			return -1;
+		}
+
+		final int inactiveFile = getMemoryStatValue("inactive_file");
+		if (inactiveFile == -1) {
+			return usage;
+		}
+
+		return Math.max(0, usage - inactiveFile);
+	}
+
+	/**
+	 * Returns the amount of memory that can still be allocated inside this cgroup without hitting the hard memory limit
+	 * of this cgroup or any of its ancestors.
+	 * 
+	 * @return the amount of memory that can still be allocated in kilobytes or <code>-1</code> if neither this cgroup
+	 *         nor any of its ancestors has a memory limit
+	 */
+	int getAvailableMemory() {
+
+		int availableMemory = -1;
+
+		Cgroup cgroup = this;
+		while (cgroup != null) {
+
+			final int limit = cgroup.getMemoryLimit();
+			if (limit != -1) {
+				final int workingSetSize = cgroup.getWorkingSetSize();
+				if (workingSetSize != -1) {
+					final int headroom = Math.max(0, limit - workingSetSize);
+					if (availableMemory == -1 || headroom < availableMemory) {
+						availableMemory = headroom;
+					}
+				}
+			}
+
+			cgroup = cgroup.getParent();
+		}
+
+		return availableMemory;
+	}
+
+	/**
+	 * Checks if the process with the given ID is the only process in this cgroup.
+	 * 
+	 * @param pid
+	 *        the ID of the process
+	 * @return <code>true</code> if the process with the given ID is the only process in this cgroup, <code>false</code>
+	 *         otherwise
+	 */
+	boolean isExclusiveTo(final int pid) {
+
+		final File file = new File(this.directory, "cgroup.procs");
+
+		boolean found = false;
+		BufferedReader br = null;
+		try {
+			br = new BufferedReader(new FileReader(file));
+			String line = br.readLine();
+			while (line != null) {
+
+				if (!Integer.toString(pid).equals(line.trim())) {
+					return false;
+				}
+
+				found = true;
+				line = br.readLine();
+			}
+
+		} catch (FileNotFoundException fnfe) {
+			return false;
+		} catch (IOException ioe) {
+			Log.error("Error reading " + file + ": ", ioe);
+			return false;
+		} finally {
+			if (br != null) {
+				try {
+					br.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+
+		return found;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public boolean equals(final Object obj) {
+
+		if (!(obj instanceof Cgroup)) {
+			return false;
+		}
+
+		return this.path.equals(((Cgroup) obj).path);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public int hashCode() {
+		return this.path.hashCode();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public String toString() {
+		return this.directory.getPath();
+	}
+
+	/**
+	 * Reads the first line of the given file inside this cgroup's directory.
+	 * 
+	 * @param filename
+	 *        the name of the file to read
+	 * @return the first line of the file or <code>null</code> if the file could not be read
+	 */
+	private String readFirstLine(final String filename) {
+
+		final File file = new File(this.directory, filename);
+
+		BufferedReader br = null;
+		try {
+			br = new BufferedReader(new FileReader(file));
+			final String line = br.readLine();
+			if (line == null) {
+				return null;
+			}
+
+			return line.trim();
+
+		} catch (FileNotFoundException fnfe) {
+			return null;
+		} catch (IOException ioe) {
+			Log.error("Error reading " + file + ": ", ioe);
+			return null;
+		} finally {
+			if (br != null) {
+				try {
+					br.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+	}
+
+	/**
+	 * Writes the given value to the given file inside this cgroup's directory.
+	 * 
+	 * @param filename
+	 *        the name of the file to write to
+	 * @param value
+	 *        the value to write
+	 * @throws IOException
+	 *         thrown if the value could not be written
+	 */
+	private void writeFile(final String filename, final String value) throws IOException {
+
+		final FileWriter fw = new FileWriter(new File(this.directory, filename));
+		try {
+			fw.write(value);
+		} finally {
+			fw.close();
+		}
+	}
+
+	/**
+	 * Auxiliary method to convert a number of bytes as reported by the cgroup file system into kilobytes.
+	 * 
+	 * @param val
+	 *        the number of bytes as string
+	 * @return the number of kilobytes or <code>-1</code> if the string could not be parsed
+	 */
+	private static int bytesToKilobytes(final String val) {
+
+		try {
+			final long kilobytes = Long.parseLong(val.trim()) / 1024L;
+			return (int) Math.min(kilobytes, (long) Integer.MAX_VALUE);
+		} catch (NumberFormatException nfe) {
+			Log.debug("Unable to parse " + val, nfe);
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Looks up the mount root and the mount point of the unified cgroup hierarchy in <code>/proc/self/mountinfo</code>.
+	 * 
+	 * @return an array containing the mount root and the mount point or <code>null</code> if the unified hierarchy is
+	 *         not mounted
+	 */
+	private static String[] findMountInfo() {
+
+		BufferedReader br = null;
+		try {
+			br = new BufferedReader(new FileReader("/proc/self/mountinfo"));
+			String line = br.readLine();
+			while (line != null) {
+
+				// The file system type follows the separator " - "
+				final int pos = line.indexOf(" - ");
+				if (pos != -1) {
+					final String[] fields = line.split(" ");
+					final String[] fsFields = line.substring(pos + 3).split(" ");
+					if (fields.length >= 5 && fsFields.length >= 1 && CGROUP2_FILE_SYSTEM.equals(fsFields[0])) {
+						return new String[] { fields[3], fields[4] };
+					}
+				}
+
+				line = br.readLine();
+			}
+
+		} catch (IOException ioe) {
+			Log.debug("Unable to read /proc/self/mountinfo: ", ioe);
+		} finally {
+			if (br != null) {
+				try {
+					br.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+
+		return null;
+	}
+}
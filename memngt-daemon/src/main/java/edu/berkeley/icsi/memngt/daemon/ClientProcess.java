@@ -1,43 +1,195 @@
 package edu.berkeley.icsi.memngt.daemon;
 
 import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import edu.berkeley.icsi.memngt.daemon.policies.ClientState;
+import edu.berkeley.icsi.memngt.daemon.policies.PagingStatistics;
 import edu.berkeley.icsi.memngt.protocols.DaemonToClientProtocol;
+import edu.berkeley.icsi.memngt.protocols.MemoryLoan;
 import edu.berkeley.icsi.memngt.protocols.ProcessType;
+import edu.berkeley.icsi.memngt.protocols.QoSClass;
+import edu.berkeley.icsi.memngt.protocols.UtilityCurve;
 import edu.berkeley.icsi.memngt.utils.ClientUtils;
 
 final class ClientProcess implements DaemonToClientProtocol, Comparable<ClientProcess> {
 
+	/**
+	 * The time in milliseconds after which reported garbage collection statistics are considered outdated.
+	 */
+	private static final long GC_STATISTICS_LIFETIME = 10000L;
+
 	private final String name;
 
 	private final int pid;
 
 	private final ProcessType type;
 
+	/**
+	 * The quality of service class of the process.
+	 */
+	private final QoSClass qosClass;
+
 	private final int priority;
 
 	private final DaemonToClientProtocol rpcProxy;
 
+	/**
+	 * The cgroup exclusively used by this process or <code>null</code> if the process does not have a cgroup on its
+	 * own.
+	 */
+	private final Cgroup cgroup;
+
 	private final int guaranteedMemoryShare;
 
-	private int grantedMemoryShare;
+	/**
+	 * The granted memory share in kilobytes.
+	 */
+	private final AtomicInteger grantedMemoryShare;
 
 	/**
 	 * Stores if the process shall be offered free memory.
 	 */
-	private boolean offerFreeMemory;
+	private volatile boolean offerFreeMemory;
+
+	/**
+	 * The weight of the process when dividing spare memory among the clients.
+	 */
+	private volatile int weight = 1;
+
+	/**
+	 * The memory share in kilobytes the process receives before spare memory is divided among the clients.
+	 */
+	private volatile int minimumMemoryShare;
+
+	/**
+	 * The memory share in kilobytes beyond which the process does not want any more memory.
+	 */
+	private volatile int maximumMemoryShare;
+
+	/**
+	 * The physical memory size in kilobytes measured last or <code>-1</code> if it has not been measured yet.
+	 */
+	private volatile int lastPhysicalMemorySize = -1;
+
+	/**
+	 * The utility curve the process submitted last or <code>null</code> if it never submitted one.
+	 */
+	private volatile UtilityCurve utilityCurve = null;
+
+	/**
+	 * The fraction of time the process spent collecting garbage as last reported.
+	 */
+	private volatile float gcTimeFraction = 0.0f;
+
+	/**
+	 * The allocation rate of the process in kilobytes per second as last reported.
+	 */
+	private volatile int allocationRate = 0;
+
+	/**
+	 * The time at which the process last reported its garbage collection statistics in milliseconds.
+	 */
+	private volatile long gcReportTime = 0L;
+
+	/**
+	 * The history of the process's physical memory size and granted memory share.
+	 */
+	private final UsageHistory usageHistory = new UsageHistory();
+
+	/**
+	 * The memory credit extended to the process.
+	 */
+	private final CreditLine creditLine = new CreditLine();
+
+	/**
+	 * The memory loans the process has borrowed.
+	 */
+	private final LoanBook loanBook = new LoanBook();
+
+	/**
+	 * The job group the process belongs to or <code>null</code> if it does not belong to any group.
+	 */
+	private volatile JobGroup jobGroup = null;
+
+	/**
+	 * The tree of processes the process has forked.
+	 */
+	private final ProcessTree processTree;
+
+	/**
+	 * The schedule by which the process shrinks to its granted share or <code>null</code> if it is not shrinking
+	 * gradually.
+	 */
+	private volatile ReductionSchedule reductionSchedule = null;
+
+	/**
+	 * The start time of the process in clock ticks since the system booted or <code>-1</code> if it is unknown. The
+	 * start time tells the process apart from later processes with the same ID.
+	 */
+	private final long startTime;
+
+	/**
+	 * The time at which the process's lease expires in milliseconds, {@link Long#MAX_VALUE} as long as the process
+	 * has not taken out a lease.
+	 */
+	private volatile long leaseExpiry = Long.MAX_VALUE;
+
+	/**
+	 * How much the process paged when it was measured last. The major fault rate covers the time between the last two
+	 * measurements.
+	 */
+	private volatile PagingStatistics pagingStatistics = PagingStatistics.UNKNOWN;
+
+	/**
+	 * The number of major page faults the process had caused when it was measured last or <code>-1</code> if it has
+	 * not been measured yet.
+	 */
+	private long lastMajorFaults = -1L;
+
+	/**
+	 * The time of the last paging measurement in milliseconds.
+	 */
+	private long lastPagingMeasurement = 0L;
 
-	ClientProcess(final String name, final int pid, final ProcessType type, final DaemonToClientProtocol rpcProxy,
-			final int guaranteedMemoryShare) {
+	/**
+	 * The OOM score last assigned to the process or {@link Integer#MIN_VALUE} if none has been assigned yet.
+	 */
+	private int oomScoreAdj = Integer.MIN_VALUE;
+
+	/**
+	 * Stores whether memory is currently being reclaimed from other processes on behalf of this process.
+	 */
+	private final AtomicBoolean reclaimPending = new AtomicBoolean(false);
+
+	/**
+	 * The time in milliseconds at which the granted memory share was last increased.
+	 */
+	private volatile long lastGrantTime = 0L;
+
+	ClientProcess(final String name, final int pid, final ProcessType type, final QoSClass qosClass,
+			final DaemonToClientProtocol rpcProxy, final Cgroup cgroup, final int initialMemoryShare,
+			final int defaultMemoryShare, final Set<Integer> registeredPIDs) {
 
 		this.name = name;
 		this.pid = pid;
 		this.type = type;
+		this.qosClass = qosClass;
 		this.priority = 0;
 		this.rpcProxy = rpcProxy;
-		this.guaranteedMemoryShare = guaranteedMemoryShare;
-		this.grantedMemoryShare = guaranteedMemoryShare;
+		this.cgroup = cgroup;
+		// A share learned from previous runs is a starting point, only the default share can be guaranteed
+		final int guaranteedMemoryShare = Math.min(initialMemoryShare, defaultMemoryShare);
+		this.guaranteedMemoryShare = qosClass.hasGuaranteedMinimum() ? guaranteedMemoryShare : Math.min(
+			guaranteedMemoryShare, qosClass.getMemoryFloor());
+		this.grantedMemoryShare = new AtomicInteger(initialMemoryShare);
 		this.offerFreeMemory = (type == ProcessType.INFRASTRUCTURE_PROCESS);
+		this.minimumMemoryShare = this.guaranteedMemoryShare;
+		this.maximumMemoryShare = Integer.MAX_VALUE;
+		this.processTree = new ProcessTree(pid, registeredPIDs);
+		this.startTime = Utils.getProcessStartTime(pid);
 	}
 
 	String getName() {
@@ -52,6 +204,10 @@ final class ClientProcess implements DaemonToClientProtocol, Comparable<ClientPr
 		return this.type;
 	}
 
+	QoSClass getQoSClass() {
+		return this.qosClass;
+	}
+
 	int getPriority() {
 		return this.priority;
 	}
@@ -60,8 +216,46 @@ final class ClientProcess implements DaemonToClientProtocol, Comparable<ClientPr
 		return this.guaranteedMemoryShare;
 	}
 
+	int getWeight() {
+		return this.weight;
+	}
+
+	int getMinimumMemoryShare() {
+		return this.minimumMemoryShare;
+	}
+
+	int getMaximumMemoryShare() {
+		return this.maximumMemoryShare;
+	}
+
+	/**
+	 * Sets the parameters which determine the process's share when spare memory is divided among the clients.
+	 * 
+	 * @param weight
+	 *        the weight of the process, must be positive
+	 * @param minimumMemoryShare
+	 *        the memory share in kilobytes the process receives before spare memory is divided
+	 * @param maximumMemoryShare
+	 *        the memory share in kilobytes beyond which the process does not want any more memory
+	 */
+	void setAllocationParameters(final int weight, final int minimumMemoryShare, final int maximumMemoryShare) {
+
+		if (weight <= 0) {
+			throw new IllegalArgumentException("weight must be positive");
+		}
+
+		if (minimumMemoryShare < 0 || maximumMemoryShare < minimumMemoryShare) {
+			throw new IllegalArgumentException("Invalid range of memory shares " + minimumMemoryShare + " to "
+				+ maximumMemoryShare);
+		}
+
+		this.weight = weight;
+		this.minimumMemoryShare = minimumMemoryShare;
+		this.maximumMemoryShare = maximumMemoryShare;
+	}
+
 	int getGrantedMemoryShare() {
-		return this.grantedMemoryShare;
+		return this.grantedMemoryShare.get();
 	}
 
 	void increaseGrantedMemoryShare(final int amountOfMemory) {
@@ -70,7 +264,18 @@ final class ClientProcess implements DaemonToClientProtocol, Comparable<ClientPr
 			throw new IllegalStateException("amountOfAdditionalMemory not be non-negative");
 		}
 
-		this.grantedMemoryShare += amountOfMemory;
+		this.grantedMemoryShare.addAndGet(amountOfMemory);
+		this.lastGrantTime = System.currentTimeMillis();
+	}
+
+	/**
+	 * Returns the time at which the granted memory share was last increased.
+	 * 
+	 * @return the time in milliseconds at which the granted memory share was last increased, <code>0</code> if it has
+	 *         never been increased
+	 */
+	long getLastGrantTime() {
+		return this.lastGrantTime;
 	}
 
 	void decreaseGrantedMemoryShare(final int amountOfMemory) {
@@ -79,14 +284,302 @@ final class ClientProcess implements DaemonToClientProtocol, Comparable<ClientPr
 			throw new IllegalStateException("amountOfAdditionalMemory not be non-negative");
 		}
 
-		this.grantedMemoryShare -= amountOfMemory;
-		if (this.grantedMemoryShare < this.guaranteedMemoryShare) {
-			this.grantedMemoryShare = this.guaranteedMemoryShare;
+		while (true) {
+
+			final int grantedMemoryShare = this.grantedMemoryShare.get();
+			final int newGrantedMemoryShare = Math.max(grantedMemoryShare - amountOfMemory,
+				this.guaranteedMemoryShare);
+			if (this.grantedMemoryShare.compareAndSet(grantedMemoryShare, newGrantedMemoryShare)) {
+				return;
+			}
+
+			// We had a race, try again
 		}
 	}
 
+	/**
+	 * Decreases the granted memory share by the given amount if the share does not drop below the guaranteed share.
+	 * 
+	 * @param amountOfMemory
+	 *        the amount of memory in kilobytes to decrease the granted share by
+	 * @return <code>true</code> if the granted share has been decreased, <code>false</code> otherwise
+	 */
+	boolean tryDecreaseGrantedMemoryShare(final int amountOfMemory) {
+
+		if (amountOfMemory < 0) {
+			throw new IllegalStateException("amountOfAdditionalMemory not be non-negative");
+		}
+
+		while (true) {
+
+			final int grantedMemoryShare = this.grantedMemoryShare.get();
+			if (grantedMemoryShare - amountOfMemory < this.guaranteedMemoryShare) {
+				return false;
+			}
+
+			if (this.grantedMemoryShare.compareAndSet(grantedMemoryShare, grantedMemoryShare - amountOfMemory)) {
+				return true;
+			}
+
+			// We had a race, try again
+		}
+	}
+
+	/**
+	 * Sets the schedule by which the process shrinks to its granted share.
+	 * 
+	 * @param reductionSchedule
+	 *        the reduction schedule
+	 */
+	void setReductionSchedule(final ReductionSchedule reductionSchedule) {
+		this.reductionSchedule = reductionSchedule;
+	}
+
+	/**
+	 * Returns the memory share the daemon currently enforces for the process. While the process shrinks gradually,
+	 * this is the ceiling of its reduction schedule, otherwise its granted share. The enforced share never falls below
+	 * the process's memory floor.
+	 * 
+	 * @param now
+	 *        the current time in milliseconds
+	 * @return the enforced memory share in kilobytes
+	 */
+	int getEnforcedMemoryShare(final long now) {
+
+		final int grantedMemoryShare = Math.max(this.grantedMemoryShare.get(), getMemoryFloor());
+		final ReductionSchedule reductionSchedule = this.reductionSchedule;
+		if (reductionSchedule == null) {
+			return grantedMemoryShare;
+		}
+
+		final int ceiling = reductionSchedule.getCeiling(now);
+		if (ceiling <= grantedMemoryShare) {
+			// The schedule has run its course
+			this.reductionSchedule = null;
+			return grantedMemoryShare;
+		}
+
+		return ceiling;
+	}
+
+	/**
+	 * Returns the amount of memory the process always keeps, i.e. the larger of its guaranteed share and the floor of
+	 * its quality of service class.
+	 * 
+	 * @return the memory floor of the process in kilobytes
+	 */
+	int getMemoryFloor() {
+		return Math.max(this.guaranteedMemoryShare, this.qosClass.getMemoryFloor());
+	}
+
+	boolean isShrinkingGradually() {
+		return this.reductionSchedule != null;
+	}
+
+	UsageHistory getUsageHistory() {
+		return this.usageHistory;
+	}
+
+	CreditLine getCreditLine() {
+		return this.creditLine;
+	}
+
+	LoanBook getLoanBook() {
+		return this.loanBook;
+	}
+
+	JobGroup getJobGroup() {
+		return this.jobGroup;
+	}
+
+	void setJobGroup(final JobGroup jobGroup) {
+		this.jobGroup = jobGroup;
+	}
+
+	/**
+	 * Renews the process's lease. The first renewal takes out the lease.
+	 * 
+	 * @param leaseExpiry
+	 *        the time at which the lease expires in milliseconds
+	 */
+	void renewLease(final long leaseExpiry) {
+		this.leaseExpiry = leaseExpiry;
+	}
+
+	/**
+	 * Drops the process's lease, so the process is no longer expected to renew it until it takes out a new lease.
+	 */
+	void dropLease() {
+		this.leaseExpiry = Long.MAX_VALUE;
+	}
+
+	boolean holdsLease() {
+		return this.leaseExpiry != Long.MAX_VALUE;
+	}
+
+	boolean isLeaseExpired(final long now) {
+		return now >= this.leaseExpiry;
+	}
+
+	/**
+	 * Checks whether the process is still alive. A process with the same ID, but a different start time is a
+	 * different process which reused the ID.
+	 * 
+	 * @return <code>true</code> if the process is still alive, <code>false</code> otherwise
+	 */
+	boolean isAlive() {
+
+		final long startTime = Utils.getProcessStartTime(this.pid);
+		if (startTime == -1L) {
+			return false;
+		}
+
+		return this.startTime == -1L || this.startTime == startTime;
+	}
+
+	Cgroup getCgroup() {
+		return this.cgroup;
+	}
+
+	/**
+	 * Returns the physical memory size of the process. If the process has a cgroup on its own, the size is the working
+	 * set size reported by the cgroup's memory controller, which includes the processes it has forked. Otherwise the
+	 * size is the resident set size of the process and its descendants.
+	 * 
+	 * @return the physical memory size of the process in kilobytes or <code>-1</code> if the process no longer exists
+	 */
 	int getPhysicalMemorySize() {
-		return ClientUtils.getPhysicalMemorySize(this.pid);
+
+		this.lastPhysicalMemorySize = measurePhysicalMemorySize();
+
+		return this.lastPhysicalMemorySize;
+	}
+
+	private int measurePhysicalMemorySize() {
+
+		// Always consult /proc first, the cgroup may outlive the process
+		final int residentSetSize = ClientUtils.getPhysicalMemorySize(this.pid);
+		if (residentSetSize == -1) {
+			return residentSetSize;
+		}
+
+		final int workingSetSize = (this.cgroup == null) ? -1 : this.cgroup.getWorkingSetSize();
+		if (workingSetSize == -1) {
+			return residentSetSize + this.processTree.getPhysicalMemorySizeOfDescendants();
+		}
+
+		return workingSetSize;
+	}
+
+	/**
+	 * Measures how much the process pages: the swap space it occupies, the rate of its major page faults and, if the
+	 * process has a cgroup on its own, the time it stalled waiting for memory. Only the main loop calls this method.
+	 * 
+	 * @param now
+	 *        the current time in milliseconds
+	 */
+	void measurePaging(final long now) {
+
+		final int swapSize = (this.cgroup == null) ? Utils.getSwapSize(this.pid) : this.cgroup.getSwapUsage();
+		final float memoryStall = (this.cgroup == null) ? -1.0f : this.cgroup.getMemoryStall();
+
+		final long majorFaults = Utils.getMajorFaults(this.pid);
+		final long elapsedTime = now - this.lastPagingMeasurement;
+		int majorFaultRate = this.pagingStatistics.getMajorFaultRate();
+		if (majorFaults == -1L || this.lastMajorFaults == -1L) {
+			majorFaultRate = 0;
+		} else if (elapsedTime > 0L) {
+			majorFaultRate = (int) Math.min(Integer.MAX_VALUE, Math.max(0L, majorFaults - this.lastMajorFaults)
+				* 1000L / elapsedTime);
+		}
+
+		this.pagingStatistics = new PagingStatistics(Math.max(0, swapSize), majorFaultRate, memoryStall);
+		this.lastMajorFaults = majorFaults;
+		this.lastPagingMeasurement = now;
+	}
+
+	/**
+	 * Marks that memory is being reclaimed on behalf of the process, unless a reclaim is already pending.
+	 * 
+	 * @return <code>true</code> if no reclaim was pending before, <code>false</code> otherwise
+	 */
+	boolean beginReclaim() {
+		return this.reclaimPending.compareAndSet(false, true);
+	}
+
+	void completeReclaim() {
+		this.reclaimPending.set(false);
+	}
+
+	/**
+	 * Assigns the given OOM score to the process. The score is only written if it differs from the one assigned last,
+	 * so a score the kernel refused is not retried until it changes. Only the main loop calls this method.
+	 * 
+	 * @param oomScoreAdj
+	 *        the OOM score to assign
+	 */
+	void setOomScoreAdj(final int oomScoreAdj) {
+
+		if (this.oomScoreAdj == oomScoreAdj) {
+			return;
+		}
+
+		this.oomScoreAdj = oomScoreAdj;
+		Utils.setOomScoreAdj(this.pid, oomScoreAdj);
+	}
+
+	PagingStatistics getPagingStatistics() {
+		return this.pagingStatistics;
+	}
+
+	/**
+	 * Returns a snapshot of the process's state for the allocation policy. The snapshot contains the physical memory
+	 * size measured last, so taking it does not touch /proc.
+	 * 
+	 * @return a snapshot of the process's state
+	 */
+	ClientState getState() {
+
+		// Statistics which have not been refreshed for a while no longer describe the process
+		final boolean gcStatisticsValid = (System.currentTimeMillis() - this.gcReportTime) <= GC_STATISTICS_LIFETIME;
+
+		final float gcTimeFraction = gcStatisticsValid ? this.gcTimeFraction : 0.0f;
+		final int allocationRate = gcStatisticsValid ? this.allocationRate : 0;
+
+		return new ClientState(this.pid, this.name, this.type, this.qosClass, this.priority, this.weight,
+			this.guaranteedMemoryShare, this.grantedMemoryShare.get(), this.minimumMemoryShare,
+			this.maximumMemoryShare, this.lastPhysicalMemorySize, this.type != ProcessType.USER_PROCESS
+				&& this.offerFreeMemory, this.utilityCurve, gcTimeFraction, allocationRate, this.pagingStatistics);
+	}
+
+	/**
+	 * Sets the utility curve the process submitted.
+	 * 
+	 * @param utilityCurve
+	 *        the utility curve, must be valid
+	 */
+	void setUtilityCurve(final UtilityCurve utilityCurve) {
+
+		if (!utilityCurve.isValid()) {
+			throw new IllegalArgumentException("Invalid utility curve");
+		}
+
+		this.utilityCurve = utilityCurve;
+	}
+
+	/**
+	 * Records the garbage collection statistics the process reported.
+	 * 
+	 * @param gcTimeFraction
+	 *        the fraction of time the process spent collecting garbage
+	 * @param allocationRate
+	 *        the allocation rate of the process in kilobytes per second
+	 */
+	void setGarbageCollectionStatistics(final float gcTimeFraction, final int allocationRate) {
+
+		this.gcTimeFraction = Float.isNaN(gcTimeFraction) ? 0.0f : Math.min(1.0f, Math.max(0.0f, gcTimeFraction));
+		this.allocationRate = Math.max(0, allocationRate);
+		this.gcReportTime = System.currentTimeMillis();
 	}
 
 	/**
@@ -151,6 +644,58 @@ final class ClientProcess implements DaemonToClientProtocol, Comparable<ClientPr
 		return this.rpcProxy.additionalMemoryOffered(amountOfAdditionalMemory);
 	}
 
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void grantedMemoryShareReduced(final int sizeOfNewGrantedShare, final int sliceSize,
+			final int sliceInterval) throws InterruptedException, IOException {
+		this.rpcProxy.grantedMemoryShareReduced(sizeOfNewGrantedShare, sliceSize, sliceInterval);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public int additionalMemoryOffered(final MemoryLoan loan) throws InterruptedException, IOException {
+
+		if (this.type == ProcessType.USER_PROCESS) {
+			throw new IllegalStateException("Memory loan offered to user process");
+		}
+
+		return this.rpcProxy.additionalMemoryOffered(loan);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void memoryLoanRecalled(final int loanID, final int sizeOfNewGrantedShare) throws InterruptedException,
+			IOException {
+		this.rpcProxy.memoryLoanRecalled(loanID, sizeOfNewGrantedShare);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public UtilityCurve bidForMemory(final int amountOfAdditionalMemory) throws InterruptedException, IOException {
+
+		if (this.type == ProcessType.USER_PROCESS) {
+			throw new IllegalStateException("Bid requested from user process");
+		}
+
+		return this.rpcProxy.bidForMemory(amountOfAdditionalMemory);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public int revokeCredit() throws InterruptedException, IOException {
+		return this.rpcProxy.revokeCredit();
+	}
+
 	/**
 	 * {@inheritDoc}
 	 */
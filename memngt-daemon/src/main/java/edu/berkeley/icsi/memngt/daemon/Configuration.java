@@ -0,0 +1,115 @@
+package edu.berkeley.icsi.memngt.daemon;
+
+import com.esotericsoftware.minlog.Log;
+
+/**
+ * This class provides access to the configuration of the memory negotiator daemon. Configuration parameters are passed
+ * to the daemon as system properties, e.g. <code>-Dmemngt.daemon.kernelEnforcement=true</code>.
+ * <p>
+ * This class is thread-safe.
+ * 
+ * @author warneke
+ */
+final class Configuration {
+
+	/**
+	 * The prefix of all configuration keys of the daemon.
+	 */
+	private static final String KEY_PREFIX = "memngt.daemon.";
+
+	/**
+	 * Private constructor to prevent instantiation.
+	 */
+	private Configuration() {
+	}
+
+	/**
+	 * Returns the string value of the given configuration key.
+	 * 
+	 * @param key
+	 *        the configuration key without the common prefix
+	 * @param defaultValue
+	 *        the value to return if the key is not set
+	 * @return the value of the configuration key or the default value if the key is not set
+	 */
+	static String getString(final String key, final String defaultValue) {
+
+		final String val = System.getProperty(KEY_PREFIX + key);
+		if (val == null) {
+			return defaultValue;
+		}
+
+		return val.trim();
+	}
+
+	/**
+	 * Returns the boolean value of the given configuration key.
+	 * 
+	 * @param key
+	 *        the configuration key without the common prefix
+	 * @param defaultValue
+	 *        the value to return if the key is not set
+	 * @return the value of the configuration key or the default value if the key is not set
+	 */
+	static boolean getBoolean(final String key, final boolean defaultValue) {
+
+		final String val = getString(key, null);
+		if (val == null) {
+			return defaultValue;
+		}
+
+		return Boolean.parseBoolean(val);
+	}
+
+	/**
+	 * Returns the integer value of the given configuration key.
+	 * 
+	 * @param key
+	 *        the configuration key without the common prefix
+	 * @param defaultValue
+	 *        the value to return if the key is not set or cannot be parsed
+	 * @return the value of the configuration key or the default value if the key is not set or cannot be parsed
+	 */
+	static int getInteger(final String key, final int defaultValue) {
+
+		final String val = getString(key, null);
+		if (val == null) {
+			return defaultValue;
+		}
+
+		try {
+			return Integer.parseInt(val);
+		} catch (NumberFormatException nfe) {
+			Log.warn("Unable to parse value " + val + " of configuration key " + KEY_PREFIX + key
+				+ ", using default value " + defaultValue);
+		}
+
+		return defaultValue;
+	}
+
+	/**
+	 * Returns the floating point value of the given configuration key.
+	 * 
+	 * @param key
+	 *        the configuration key without the common prefix
+	 * @param defaultValue
+	 *        the value to return if the key is not set or cannot be parsed
+	 * @return the value of the configuration key or the default value if the key is not set or cannot be parsed
+	 */
+	static float getFloat(final String key, final float defaultValue) {
+
+		final String val = getString(key, null);
+		if (val == null) {
+			return defaultValue;
+		}
+
+		try {
+			return Float.parseFloat(val);
+		} catch (NumberFormatException nfe) {
+			Log.warn("Unable to parse value " + val + " of configuration key " + KEY_PREFIX + key
+				+ ", using default value " + defaultValue);
+		}
+
+		return defaultValue;
+	}
+}
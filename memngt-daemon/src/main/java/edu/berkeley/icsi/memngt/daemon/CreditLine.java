@@ -0,0 +1,108 @@
+package edu.berkeley.icsi.memngt.daemon;
+
+/**
+ * The credit line keeps track of the memory credit the daemon extended to a client process. The client reports the
+ * total amount of credit it has drawn since it registered, so reports which arrive late or not at all never cause
+ * the same memory to be settled twice. Credit which has been extended, but not settled yet, is reserved in the memory
+ * ledger.
+ * <p>
+ * This class is thread-safe.
+ * 
+ * @author warneke
+ */
+final class CreditLine {
+
+	/**
+	 * The total amount of credit extended to the client in kilobytes.
+	 */
+	private long extendedCredit = 0L;
+
+	/**
+	 * The total amount of credit settled, i.e. added to the client's granted memory share, in kilobytes.
+	 */
+	private long settledCredit = 0L;
+
+	/**
+	 * The time at which the lease of the credit expires in milliseconds.
+	 */
+	private long leaseExpiry = 0L;
+
+	/**
+	 * Returns the credit which has been extended, but not settled yet.
+	 * 
+	 * @return the outstanding credit in kilobytes
+	 */
+	synchronized int getOutstandingCredit() {
+		return (int) (this.extendedCredit - this.settledCredit);
+	}
+
+	/**
+	 * Checks whether the lease of the outstanding credit has expired.
+	 * 
+	 * @param now
+	 *        the current time in milliseconds
+	 * @return <code>true</code> if there is outstanding credit and its lease has expired, <code>false</code> otherwise
+	 */
+	synchronized boolean isExpired(final long now) {
+		return this.extendedCredit > this.settledCredit && now >= this.leaseExpiry;
+	}
+
+	/**
+	 * Settles the credit the client has drawn since the last settlement.
+	 * 
+	 * @param drawnCredit
+	 *        the total amount of credit the client has drawn since it registered in kilobytes
+	 * @return the amount of credit newly settled in kilobytes
+	 */
+	synchronized int settle(final long drawnCredit) {
+
+		final long newlySettled = Math.min(drawnCredit, this.extendedCredit) - this.settledCredit;
+		if (newlySettled <= 0L) {
+			return 0;
+		}
+
+		this.settledCredit += newlySettled;
+
+		return (int) newlySettled;
+	}
+
+	/**
+	 * Settles the entire outstanding credit as if the client had drawn it. The daemon cannot tell how much of the
+	 * credit the client used once the lease has expired, so it assumes the worst.
+	 * 
+	 * @return the amount of credit newly settled in kilobytes
+	 */
+	synchronized int settleAll() {
+		return settle(this.extendedCredit);
+	}
+
+	/**
+	 * Extends further credit to the client and renews the lease.
+	 * 
+	 * @param amountOfMemory
+	 *        the amount of credit to extend in kilobytes
+	 * @param leaseExpiry
+	 *        the time at which the lease expires in milliseconds
+	 */
+	synchronized void extend(final int amountOfMemory, final long leaseExpiry) {
+
+		this.extendedCredit += amountOfMemory;
+		this.leaseExpiry = leaseExpiry;
+	}
+
+	/**
+	 * Closes the credit line after the client gave up its undrawn credit. The remainder of the outstanding credit is
+	 * settled, the given up part is no longer extended.
+	 * 
+	 * @param undrawnCredit
+	 *        the amount of credit the client gave up in kilobytes
+	 * @return the amount of credit newly settled in kilobytes
+	 */
+	synchronized int revoke(final int undrawnCredit) {
+
+		final long givenUp = Math.max(0, Math.min(undrawnCredit, getOutstandingCredit()));
+		this.extendedCredit -= givenUp;
+
+		return settleAll();
+	}
+}
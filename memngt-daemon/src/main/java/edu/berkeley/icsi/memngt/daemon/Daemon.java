@@ -2,330 +2,2303 @@ package edu.berkeley.icsi.memngt.daemon;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
-import java.util.PriorityQueue;
 import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.esotericsoftware.minlog.Log;
 
+import edu.berkeley.icsi.memngt.daemon.policies.AllocationDecision;
+import edu.berkeley.icsi.memngt.daemon.policies.AllocationPolicies;
+import edu.berkeley.icsi.memngt.daemon.policies.AllocationPolicy;
+import edu.berkeley.icsi.memngt.daemon.policies.ClientState;
+import edu.berkeley.icsi.memngt.daemon.policies.NodeState;
+import edu.berkeley.icsi.memngt.daemon.policies.PagingStatistics;
 import edu.berkeley.icsi.memngt.protocols.ClientToDaemonProtocol;
 import edu.berkeley.icsi.memngt.protocols.DaemonToClientProtocol;
+import edu.berkeley.icsi.memngt.protocols.MemoryCredit;
+import edu.berkeley.icsi.memngt.protocols.MemoryLoan;
 import edu.berkeley.icsi.memngt.protocols.NegotiationException;
 import edu.berkeley.icsi.memngt.protocols.ProcessType;
+import edu.berkeley.icsi.memngt.protocols.QoSClass;
+import edu.berkeley.icsi.memngt.protocols.UtilityCurve;
 import edu.berkeley.icsi.memngt.rpc.CommonTypeUtils;
 import edu.berkeley.icsi.memngt.rpc.RPCService;
 import edu.berkeley.icsi.memngt.utils.ClientUtils;
 
 public final class Daemon implements ClientToDaemonProtocol {
 
+	/**
+	 * The interval in which the main loop runs in milliseconds if the kernel provides no memory pressure information.
+	 */
 	private static final int UPDATE_INTERVAL = 1000;
 
-	private static final int MINIMUM_CLIENT_MEMORY = 8 * 1024 * 1024;
+	/**
+	 * Configuration key for the interval in milliseconds in which the main loop runs after memory pressure has been
+	 * detected.
+	 */
+	private static final String MINIMUM_UPDATE_INTERVAL_KEY = "minimumUpdateInterval";
+
+	/**
+	 * Configuration key for the interval in milliseconds up to which the main loop backs off while the node is idle.
+	 */
+	private static final String MAXIMUM_UPDATE_INTERVAL_KEY = "maximumUpdateInterval";
+
+	/**
+	 * Configuration key for the number of threads enforcing granted memory shares concurrently.
+	 */
+	private static final String ENFORCEMENT_THREADS_KEY = "enforcementThreads";
+
+	/**
+	 * Configuration key for the time in milliseconds after which an enforcement round gives up on all clients which
+	 * have not responded yet.
+	 */
+	private static final String ENFORCEMENT_ROUND_DEADLINE_KEY = "enforcementRoundDeadline";
+
+	/**
+	 * Configuration key for the time in milliseconds a single client may take to respond to an enforcement request.
+	 */
+	private static final String ENFORCEMENT_CLIENT_TIMEOUT_KEY = "enforcementClientTimeout";
+
+	/**
+	 * Configuration key for the time in milliseconds a request for additional memory waits for infrastructure
+	 * processes to release memory.
+	 */
+	private static final String RECLAIM_TIMEOUT_KEY = "reclaimTimeout";
+
+	/**
+	 * Configuration key for the name of the allocation policy, see {@link AllocationPolicies#create(String)}.
+	 */
+	private static final String ALLOCATION_POLICY_KEY = "allocationPolicy";
+
+	/**
+	 * Configuration key for the time in milliseconds the daemon looks ahead when it adjusts granted memory shares to
+	 * the forecast memory usage of the clients, <code>0</code> disables the adjustment.
+	 */
+	private static final String FORECAST_HORIZON_KEY = "forecastHorizon";
+
+	/**
+	 * The minimum difference in kilobytes between the forecast memory usage and the granted memory share of a client
+	 * for the daemon to adjust the share.
+	 */
+	private static final int FORECAST_ADJUSTMENT_THRESHOLD = 4 * 1024;
+
+	/**
+	 * Configuration key for the amount of memory credit in kilobytes the daemon extends to each client in advance,
+	 * <code>0</code> disables credits.
+	 */
+	private static final String CREDIT_SIZE_KEY = "creditSize";
+
+	/**
+	 * Configuration key for the duration in milliseconds of the lease on a client's memory credit.
+	 */
+	private static final String CREDIT_LEASE_KEY = "creditLease";
+
+	/**
+	 * The time in milliseconds the daemon honors a credit beyond the lease it announced to the client. Within this
+	 * period the client has stopped drawing on the credit, so settling it afterwards cannot miss any draws.
+	 */
+	private static final int CREDIT_LEASE_GRACE_PERIOD = 1000;
+
+	/**
+	 * Configuration key for the time in milliseconds an infrastructure process has to return a recalled memory loan.
+	 */
+	private static final String LOAN_RETURN_DEADLINE_KEY = "loanReturnDeadline";
+
+	/**
+	 * Configuration key for the duration in milliseconds of a client's lease.
+	 */
+	private static final String CLIENT_LEASE_KEY = "clientLease";
+
+	/**
+	 * Configuration key for the interval in milliseconds in which the daemon checks whether its clients are alive.
+	 */
+	private static final String LIVENESS_CHECK_INTERVAL_KEY = "livenessCheckInterval";
+
+	/**
+	 * Configuration key for the time in milliseconds between two slices when a client shrinks gradually.
+	 */
+	private static final String RECLAIM_SLICE_INTERVAL_KEY = "reclaimSliceInterval";
+
+	/**
+	 * Configuration key for the rate of major page faults per second from which on a client counts as paging.
+	 */
+	private static final String MAJOR_FAULT_THRESHOLD_KEY = "majorFaultThreshold";
+
+	/**
+	 * Configuration key for the memory stall in percent from which on a client counts as paging.
+	 */
+	private static final String MEMORY_STALL_THRESHOLD_KEY = "memoryStallThreshold";
+
+	private final RPCService rpcService;
+
+	/**
+	 * The cgroup the daemon runs in or <code>null</code> if the daemon is not part of a cgroup v2 hierarchy with an
+	 * enabled memory controller.
+	 */
+	private final Cgroup cgroup;
+
+	/**
+	 * The kernel enforcer or <code>null</code> if granted memory shares are only enforced cooperatively.
+	 */
+	private final KernelEnforcer kernelEnforcer;
+
+	/**
+	 * The memory pressure monitor or <code>null</code> if the kernel provides no memory pressure information.
+	 */
+	private final MemoryPressureMonitor pressureMonitor;
+
+	/**
+	 * The interval in milliseconds in which the main loop runs after memory pressure has been detected.
+	 */
+	private final int minimumUpdateInterval;
+
+	/**
+	 * The interval in milliseconds up to which the main loop backs off while the node is idle.
+	 */
+	private final int maximumUpdateInterval;
+
+	/**
+	 * The executor service running the enforcement tasks.
+	 */
+	private final ExecutorService enforcementExecutor;
+
+	/**
+	 * The time in milliseconds after which an enforcement round gives up on all clients which have not responded yet.
+	 */
+	private final int enforcementRoundDeadline;
+
+	/**
+	 * The time in milliseconds a single client may take to respond to an enforcement request.
+	 */
+	private final int enforcementClientTimeout;
+
+	/**
+	 * The executor service running the reclaim and bid tasks as well as other notifications of the clients.
+	 */
+	private final ExecutorService reclaimExecutor;
+
+	/**
+	 * The time in milliseconds a request for additional memory waits for infrastructure processes to release memory.
+	 */
+	private final int reclaimTimeout;
+
+	/**
+	 * The time in milliseconds the daemon looks ahead when it adjusts granted memory shares to the forecast memory
+	 * usage of the clients.
+	 */
+	private final int forecastHorizon;
+
+	/**
+	 * The amount of memory credit in kilobytes the daemon extends to each client in advance.
+	 */
+	private final int creditSize;
+
+	/**
+	 * The duration in milliseconds of the lease on a client's memory credit.
+	 */
+	private final int creditLease;
+
+	/**
+	 * The time in milliseconds an infrastructure process has to return a recalled memory loan.
+	 */
+	private final int loanReturnDeadline;
+
+	/**
+	 * The source of the IDs which tag memory loans.
+	 */
+	private final AtomicInteger loanIDs = new AtomicInteger(0);
+
+	/**
+	 * The duration in milliseconds of a client's lease.
+	 */
+	private final int clientLease;
+
+	/**
+	 * The interval in milliseconds in which the daemon checks whether its clients are alive.
+	 */
+	private final int livenessCheckInterval;
+
+	/**
+	 * The thread which checks whether the clients are alive.
+	 */
+	private final Thread livenessMonitor;
+
+	/**
+	 * The time in milliseconds between two slices when a client shrinks gradually.
+	 */
+	private final int reclaimSliceInterval;
+
+	/**
+	 * The rate of major page faults per second from which on a client counts as paging.
+	 */
+	private final int majorFaultThreshold;
+
+	/**
+	 * The memory stall in percent from which on a client counts as paging.
+	 */
+	private final float memoryStallThreshold;
+
+	/**
+	 * The job groups, indexed by their name.
+	 */
+	private final ConcurrentHashMap<String, JobGroup> jobGroups = new ConcurrentHashMap<String, JobGroup>();
+
+	private final ConcurrentHashMap<Integer, ClientProcess> clientProcesses = new ConcurrentHashMap<Integer, ClientProcess>();
+
+	private final Queue<ClientProcess> userProcesses = new PriorityBlockingQueue<ClientProcess>();
+
+	private final Queue<ClientProcess> infrastructureProcesses = new PriorityBlockingQueue<ClientProcess>();
+
+	/**
+	 * The ledger of granted, but not yet allocated memory.
+	 */
+	private final MemoryLedger memoryLedger = new MemoryLedger();
+
+	/**
+	 * The accountant of the memory used outside the client processes.
+	 */
+	private final NodeAccountant nodeAccountant = new NodeAccountant();
+
+	/**
+	 * The scheduler staggering the clients' forced garbage collections.
+	 */
+	private final GCScheduler gcScheduler;
+
+	/**
+	 * The adjuster aligning the clients' OOM scores with their priorities and overage.
+	 */
+	private final OomScoreAdjuster oomScoreAdjuster = new OomScoreAdjuster();
+
+	/**
+	 * The store of the applications' memory profiles or <code>null</code> if no profiles are kept.
+	 */
+	private final ProfileStore profileStore;
+
+	/**
+	 * The policy deciding how the memory is divided among the client processes.
+	 */
+	private final AllocationPolicy allocationPolicy;
+
+	private Daemon(final int rpcPort) throws IOException {
+
+		this.rpcService = new RPCService(rpcPort, 4, CommonTypeUtils.getRPCTypesToRegister());
+		this.rpcService.setProtocolCallbackHandler(
+			ClientToDaemonProtocol.class, this);
+
+		this.cgroup = Cgroup.getCgroupOfProcess(ClientUtils.getPID());
+		if (this.cgroup != null) {
+			Log.info("Memory negotiator daemon runs in cgroup " + this.cgroup + ", budgeting against its memory limit");
+		}
+
+		this.kernelEnforcer = KernelEnforcer.create(this.cgroup);
+		this.pressureMonitor = MemoryPressureMonitor.start(this.cgroup, (this.kernelEnforcer == null) ? null
+			: this.kernelEnforcer.getRoot());
+		this.minimumUpdateInterval = Math.max(1, Configuration.getInteger(MINIMUM_UPDATE_INTERVAL_KEY, 100));
+		this.maximumUpdateInterval = Math.max(this.minimumUpdateInterval,
+			Configuration.getInteger(MAXIMUM_UPDATE_INTERVAL_KEY, 5000));
+		this.enforcementExecutor = Executors.newFixedThreadPool(Math.max(1, Configuration.getInteger(
+			ENFORCEMENT_THREADS_KEY, 8)));
+		this.enforcementRoundDeadline = Configuration.getInteger(ENFORCEMENT_ROUND_DEADLINE_KEY, 2000);
+		this.enforcementClientTimeout = Configuration.getInteger(ENFORCEMENT_CLIENT_TIMEOUT_KEY, 500);
+		// Clients wait for their collection slot before shrinking, so leave them time to answer the enforcement
+		this.gcScheduler = new GCScheduler(this.enforcementClientTimeout / 2);
+		this.reclaimExecutor = Executors.newCachedThreadPool();
+		this.reclaimTimeout = Configuration.getInteger(RECLAIM_TIMEOUT_KEY, 250);
+		this.allocationPolicy = createAllocationPolicy();
+		this.forecastHorizon = Math.max(0, Configuration.getInteger(FORECAST_HORIZON_KEY, 5000));
+		this.profileStore = ProfileStore.create();
+		this.creditSize = Math.max(0, Configuration.getInteger(CREDIT_SIZE_KEY, 16 * 1024));
+		this.creditLease = Math.max(1, Configuration.getInteger(CREDIT_LEASE_KEY, 5000));
+		this.loanReturnDeadline = Math.max(1, Configuration.getInteger(LOAN_RETURN_DEADLINE_KEY, 2000));
+		this.clientLease = Math.max(1, Configuration.getInteger(CLIENT_LEASE_KEY, 30000));
+		this.livenessCheckInterval = Math.max(1, Configuration.getInteger(LIVENESS_CHECK_INTERVAL_KEY, 100));
+		this.reclaimSliceInterval = Math.max(1, Configuration.getInteger(RECLAIM_SLICE_INTERVAL_KEY, 100));
+		this.majorFaultThreshold = Math.max(1, Configuration.getInteger(MAJOR_FAULT_THRESHOLD_KEY, 100));
+		this.memoryStallThreshold = Configuration.getFloat(MEMORY_STALL_THRESHOLD_KEY, 1.0f);
+		this.livenessMonitor = new Thread("Liveness Monitor") {
+
+			/**
+			 * {@inheritDoc}
+			 */
+			@Override
+			public void run() {
+				monitorLiveness();
+			}
+		};
+		this.livenessMonitor.setDaemon(true);
+		this.livenessMonitor.start();
+
+		Log.info("Started local memory negotiator daemon on port " + rpcPort);
+	}
+
+	private void reenforceGrantedMemoryShares() {
+
+		// Determine the client processes which exceed their granted share including the grace margin
+		final List<EnforcementTask> enforcementTasks = new ArrayList<EnforcementTask>();
+
+		// While examining the clients, also refresh the ledger of granted, but not yet allocated memory
+		final int ledgerToken = this.memoryLedger.beginRefresh();
+		int unallocatedGrants = 0;
+		int managedMemory = 0;
+
+		// The spare memory which may absorb small excesses of clients which do not page, read on demand
+		int spareMemory = -1;
+
+		final long now = System.currentTimeMillis();
+		final Iterator<ClientProcess> it = this.clientProcesses.values().iterator();
+		while (it.hasNext()) {
+
+			final ClientProcess clientProcess = it.next();
+			final int physicalMemorySize = clientProcess.getPhysicalMemorySize();
+			final int grantedMemoryShare = clientProcess.getGrantedMemoryShare();
+			if (physicalMemorySize == -1) {
+				Log.info("Cannot find client process " + clientProcess + ", removing it...");
+				removeClientProcess(clientProcess);
+				continue;
+			}
+
+			clientProcess.getUsageHistory().record(now, physicalMemorySize, grantedMemoryShare);
+			clientProcess.measurePaging(now);
+			final int swapSize = clientProcess.getPagingStatistics().getSwapSize();
+			this.oomScoreAdjuster.adjust(clientProcess, physicalMemorySize + swapSize);
+			managedMemory += physicalMemorySize;
+
+			if (physicalMemorySize < grantedMemoryShare) {
+				unallocatedGrants += grantedMemoryShare - physicalMemorySize;
+			}
+
+			// Outstanding credit stays reserved until it is settled
+			unallocatedGrants += clientProcess.getCreditLine().getOutstandingCredit();
+
+			// A client which shrinks gradually is only held to its schedule, which the kernel follows as well
+			final boolean shrinkingGradually = clientProcess.isShrinkingGradually();
+			final int enforcedMemoryShare = clientProcess.getEnforcedMemoryShare(now);
+			final int toleratedMemoryShare = addGraceMargin(enforcedMemoryShare, clientProcess.getQoSClass());
+			if (shrinkingGradually) {
+				enforceGrantedMemoryShare(clientProcess);
+			}
+
+			// Swapped out pages are still the client's, they merely do not show in its physical memory size
+			final int excessMemoryShare = physicalMemorySize + swapSize - toleratedMemoryShare;
+			if (excessMemoryShare <= 0) {
+				// Client process does not exceed its granted share
+				continue;
+			}
+
+			// A client which slightly exceeds its share without paging is left alone as long as spare memory covers it
+			if (!shrinkingGradually && !isPaging(clientProcess)
+				&& excessMemoryShare <= toleratedMemoryShare - enforcedMemoryShare) {
+				if (spareMemory == -1) {
+					spareMemory = Math.max(0, subtractGraceMargin(getFreeMemory()));
+				}
+				if (excessMemoryShare <= spareMemory) {
+					spareMemory -= excessMemoryShare;
+					continue;
+				}
+			}
+
+			enforcementTasks.add(new EnforcementTask(clientProcess, grantedMemoryShare, excessMemoryShare,
+				this.reclaimSliceInterval));
+		}
+
+		this.memoryLedger.completeRefresh(ledgerToken, unallocatedGrants);
+		this.nodeAccountant.update(now, managedMemory);
+
+		// Members of a job group are enforced as a whole, their excess is covered by the rest of the group first
+		final Iterator<EnforcementTask> taskIt = enforcementTasks.iterator();
+		while (taskIt.hasNext()) {
+			final JobGroup jobGroup = taskIt.next().getClientProcess().getJobGroup();
+			if (jobGroup != null && !exceedsGrantedMemoryShare(jobGroup)) {
+				taskIt.remove();
+			}
+		}
+
+		if (enforcementTasks.isEmpty()) {
+			return;
+		}
+
+		// Approach the clients with the largest excess first
+		Collections.sort(enforcementTasks);
+
+		final Map<EnforcementTask, EnforcementTask.Outcome> outcomes;
+		try {
+			outcomes = fanOutEnforcementTasks(enforcementTasks);
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			return;
+		}
+
+		for (final Map.Entry<EnforcementTask, EnforcementTask.Outcome> entry : outcomes.entrySet()) {
+
+			final ClientProcess clientProcess = entry.getKey().getClientProcess();
+
+			switch (entry.getValue()) {
+			case TERMINATED:
+				Log.info("Cannot find client process " + clientProcess + ", removing it...");
+				removeClientProcess(clientProcess);
+				break;
+			case FAILED:
+				if (!clientProcess.getQoSClass().isStrictlyEnforced()) {
+					Log.warn("Unable to enforce the memory share for " + clientProcess);
+					break;
+				}
+				Log.warn("Unable to enforce the memory share for " + clientProcess + ", killing process...");
+				kill(clientProcess);
+				removeClientProcess(clientProcess);
+				break;
+			case TIMED_OUT:
+				Log.warn(clientProcess + " did not respond within the enforcement deadline");
+				break;
+			default:
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Runs the given enforcement tasks concurrently. Each task is cancelled if it does not complete within the
+	 * per-client timeout after it started, and all remaining tasks are cancelled when the deadline of the enforcement
+	 * round passes.
+	 * 
+	 * @param enforcementTasks
+	 *        the enforcement tasks to run, in the order in which they shall be started
+	 * @return the outcome of each enforcement task
+	 * @throws InterruptedException
+	 *         thrown if the caller is interrupted while waiting for the tasks to complete
+	 */
+	private Map<EnforcementTask, EnforcementTask.Outcome> fanOutEnforcementTasks(
+			final List<EnforcementTask> enforcementTasks) throws InterruptedException {
+
+		final CompletionService<EnforcementTask.Outcome> completionService = new ExecutorCompletionService<EnforcementTask.Outcome>(
+			this.enforcementExecutor);
+
+		final Map<Future<EnforcementTask.Outcome>, EnforcementTask> pendingTasks = new HashMap<Future<EnforcementTask.Outcome>, EnforcementTask>();
+		for (final EnforcementTask enforcementTask : enforcementTasks) {
+			pendingTasks.put(completionService.submit(enforcementTask), enforcementTask);
+		}
+
+		final Map<EnforcementTask, EnforcementTask.Outcome> outcomes = new HashMap<EnforcementTask, EnforcementTask.Outcome>();
+		final long roundDeadline = System.currentTimeMillis() + this.enforcementRoundDeadline;
+
+		try {
+			while (!pendingTasks.isEmpty()) {
+
+				final long now = System.currentTimeMillis();
+				if (now >= roundDeadline) {
+					break;
+				}
+
+				// Cancel the tasks which exceeded their per-client timeout and determine when to check again
+				long nextCheck = roundDeadline;
+				for (final Map.Entry<Future<EnforcementTask.Outcome>, EnforcementTask> entry : pendingTasks.entrySet()) {
+					final long startTime = entry.getValue().getStartTime();
+					if (startTime == -1L) {
+						continue;
+					}
+					final long expiry = startTime + this.enforcementClientTimeout;
+					if (expiry <= now) {
+						entry.getKey().cancel(true);
+					} else if (expiry < nextCheck) {
+						nextCheck = expiry;
+					}
+				}
+
+				final Future<EnforcementTask.Outcome> future = completionService.poll(nextCheck - now,
+					TimeUnit.MILLISECONDS);
+				if (future == null) {
+					continue;
+				}
+
+				final EnforcementTask enforcementTask = pendingTasks.remove(future);
+				outcomes.put(enforcementTask, getOutcome(future));
+			}
+
+		} finally {
+
+			// Give up on all tasks which did not complete before the deadline
+			for (final Map.Entry<Future<EnforcementTask.Outcome>, EnforcementTask> entry : pendingTasks.entrySet()) {
+				entry.getKey().cancel(true);
+				outcomes.put(entry.getValue(), EnforcementTask.Outcome.TIMED_OUT);
+			}
+		}
+
+		return outcomes;
+	}
+
+	private static EnforcementTask.Outcome getOutcome(final Future<EnforcementTask.Outcome> future) {
+
+		try {
+			return future.get();
+		} catch (CancellationException ce) {
+			return EnforcementTask.Outcome.TIMED_OUT;
+		} catch (ExecutionException ee) {
+			Log.error("Enforcement task failed: ", ee.getCause());
+			return EnforcementTask.Outcome.FAILED;
+		} catch (InterruptedException ie) {
+			// Cannot happen as the future is already done
+			Thread.currentThread().interrupt();
+			return EnforcementTask.Outcome.TIMED_OUT;
+		}
+	}
+
+	private void redistributeFreeMemory() {
+
+		if (this.allocationPolicy.requiresBids()) {
+			collectBids();
+		}
+
+		final AllocationDecision decision = this.allocationPolicy.redistribute(getNodeState());
+
+		// Lower the granted shares first, the clients release the memory in the background
+		for (final Map.Entry<Integer, Integer> entry : decision.getReclaims().entrySet()) {
+
+			final ClientProcess clientProcess = this.clientProcesses.get(entry.getKey());
+			if (clientProcess == null) {
+				continue;
+			}
+
+			final ReclaimTask reclaimTask = createReclaimTask(clientProcess, entry.getValue().intValue(), true);
+			if (reclaimTask != null) {
+				this.reclaimExecutor.submit(reclaimTask);
+			}
+		}
+
+		final int freeMemory = subtractGraceMargin(getFreeMemory());
+
+		for (final Map.Entry<Integer, Integer> entry : decision.getGrants().entrySet()) {
+
+			final ClientProcess clientProcess = this.clientProcesses.get(entry.getKey());
+			if (clientProcess == null || clientProcess.getType() == ProcessType.USER_PROCESS
+				|| !clientProcess.getOfferFreeMemory()) {
+				continue;
+			}
+
+			int memoryToOffer = entry.getValue().intValue();
+			final JobGroup jobGroup = clientProcess.getJobGroup();
+			if (jobGroup != null) {
+				memoryToOffer = Math.min(memoryToOffer, jobGroup.getRemainingQuota());
+				if (memoryToOffer <= 0) {
+					continue;
+				}
+			}
+
+			// Reserve the offered memory, so it cannot be granted to another client while the offer is pending
+			final int offeredMemory = this.memoryLedger.grantUpTo(memoryToOffer, freeMemory);
+			if (offeredMemory <= 0) {
+				return;
+			}
+
+			// Spare memory is only lent, so it can be recalled within a known time
+			final MemoryLoan loan = new MemoryLoan(this.loanIDs.incrementAndGet(), offeredMemory,
+				this.loanReturnDeadline);
+
+			int acceptedMemory = 0;
+			Log.info("Offering " + offeredMemory + " kilobytes of additional memory to " + clientProcess);
+			try {
+				acceptedMemory = Math.min(offeredMemory, clientProcess.additionalMemoryOffered(loan));
+				if (acceptedMemory > 0) {
+					Log.info(clientProcess + " accepted " + acceptedMemory + " kilobytes of additional memory");
+					clientProcess.getLoanBook().add(loan.getLoanID(), acceptedMemory, loan.getReturnDeadline());
+					clientProcess.increaseGrantedMemoryShare(acceptedMemory);
+					enforceGrantedMemoryShare(clientProcess);
+				} else if (acceptedMemory < 0) {
+					Log.info(clientProcess + " indicated not to be intersted in further memory offers");
+					clientProcess.setOfferFreeMemory(false);
+				}
+			} catch (IOException ioe) {
+				Log.warn("I/O error while offering additional memory to " + clientProcess
+					+ "...", ioe);
+				continue;
+			} catch (InterruptedException ie) {
+				Thread.currentThread().interrupt();
+				return;
+			} finally {
+				// Return the part of the reservation the client did not accept
+				this.memoryLedger.release(offeredMemory - Math.max(0, acceptedMemory));
+			}
+		}
+	}
+
+	/**
+	 * Asks the infrastructure processes which accept offers for their bids on the spare memory. The method waits at
+	 * most the configured reclaim timeout for them to respond.
+	 */
+	private void collectBids() {
+
+		final NodeState nodeState = getNodeState();
+		if (nodeState.getSpareMemory() <= 0) {
+			return;
+		}
+
+		final List<BidTask> bidTasks = new ArrayList<BidTask>();
+		for (final ClientProcess clientProcess : this.infrastructureProcesses) {
+			if (clientProcess.getOfferFreeMemory()) {
+				bidTasks.add(new BidTask(clientProcess, nodeState.getSpareMemory()));
+			}
+		}
+
+		if (bidTasks.isEmpty()) {
+			return;
+		}
+
+		List<Future<Void>> futures;
+		try {
+			futures = this.reclaimExecutor.invokeAll(bidTasks, this.reclaimTimeout, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			return;
+		}
+
+		for (final Future<Void> future : futures) {
+
+			if (future.isCancelled()) {
+				continue;
+			}
+
+			try {
+				future.get();
+			} catch (ExecutionException ee) {
+				Log.warn("Unable to collect bid: ", ee.getCause());
+			} catch (InterruptedException ie) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Adjusts the granted memory shares of the clients to their forecast memory usage. Clients which are ramping up
+	 * receive the memory they are expected to need before they hit their limit, or the peak their application reached
+	 * in previous runs, as far as the allocation policy approves it from spare memory. Only if that leaves some of
+	 * them short of their forecast, clients which have been winding down for a while have the memory they are not
+	 * expected to need any more reclaimed early, at most the amount the others are short of. Clients which have
+	 * recently been granted memory are left alone, as they may not have allocated it yet, and memory loans are never
+	 * recalled for a mere forecast.
+	 */
+	private void adjustGrantedMemorySharesToForecasts() {
+
+		if (this.forecastHorizon == 0) {
+			return;
+		}
+
+		// The memory ramping up clients are expected to need, but could not be granted from spare memory
+		int unmetDemand = 0;
+		final List<ClientProcess> decliningProcesses = new ArrayList<ClientProcess>();
+
+		final long now = System.currentTimeMillis();
+		for (final ClientProcess clientProcess : this.clientProcesses.values()) {
+
+			final UsageHistory usageHistory = clientProcess.getUsageHistory();
+			final int forecast = usageHistory.forecast(this.forecastHorizon);
+			if (forecast == -1) {
+				continue;
+			}
+
+			if (usageHistory.getTrend() > 0) {
+
+				// Clients known to peak higher are granted memory towards their peak as soon as they ramp up
+				final int expectedUsage = Math.max(forecast, getLearnedPeakUsage(clientProcess));
+				final int memoryToGrant = Math.min(expectedUsage, clientProcess.getMaximumMemoryShare())
+					- clientProcess.getGrantedMemoryShare();
+				if (memoryToGrant < FORECAST_ADJUSTMENT_THRESHOLD) {
+					continue;
+				}
+
+				if (preGrantMemory(clientProcess, memoryToGrant)) {
+					Log.info(clientProcess + " is ramping up, granting " + memoryToGrant
+						+ " kilobytes of memory in advance");
+				} else {
+					// Only the forecast counts as demand, the learned peak is merely a hint
+					unmetDemand += Math.max(0, Math.min(forecast, clientProcess.getMaximumMemoryShare())
+						- clientProcess.getGrantedMemoryShare());
+				}
+
+			} else if (usageHistory.isDeclining() && now - clientProcess.getLastGrantTime() >= this.forecastHorizon) {
+				decliningProcesses.add(clientProcess);
+			}
+		}
+
+		for (final ClientProcess clientProcess : decliningProcesses) {
+
+			if (unmetDemand < FORECAST_ADJUSTMENT_THRESHOLD) {
+				break;
+			}
+
+			// Keep what the client currently uses, only the memory it is expected to give up is reclaimed
+			final UsageHistory usageHistory = clientProcess.getUsageHistory();
+			final int expectedUsage = Math.max(usageHistory.forecast(this.forecastHorizon), usageHistory
+				.getPhysicalMemorySize(0));
+			final int targetShare = Math.max(clientProcess.getMinimumMemoryShare(), addGraceMargin(expectedUsage,
+				clientProcess.getQoSClass()));
+			final int memoryToReclaim = Math.min(unmetDemand, clientProcess.getGrantedMemoryShare() - targetShare);
+			if (memoryToReclaim < FORECAST_ADJUSTMENT_THRESHOLD) {
+				continue;
+			}
+
+			final ReclaimTask reclaimTask = createReclaimTask(clientProcess, memoryToReclaim, false);
+			if (reclaimTask != null) {
+				Log.info(clientProcess + " is winding down, reclaiming memory early for clients ramping up");
+				unmetDemand -= reclaimTask.getReducedMemory();
+				this.reclaimExecutor.submit(reclaimTask);
+			}
+		}
+	}
+
+	/**
+	 * Returns the peak memory usage the application of the given client process reached in previous runs.
+	 * 
+	 * @param clientProcess
+	 *        the client process
+	 * @return the learned peak usage in kilobytes or <code>-1</code> if the daemon has no profile of the application
+	 */
+	private int getLearnedPeakUsage(final ClientProcess clientProcess) {
+
+		if (this.profileStore == null) {
+			return -1;
+		}
+
+		return this.profileStore.getPeakUsage(clientProcess.getName());
+	}
+
+	/**
+	 * Grants memory to the given client process ahead of its request. Speculative grants are only made from spare
+	 * memory, never at the expense of other clients.
+	 * 
+	 * @param clientProcess
+	 *        the client process to grant the memory to
+	 * @param amountOfMemory
+	 *        the amount of memory to grant in kilobytes
+	 * @return <code>true</code> if the memory has been granted, <code>false</code> otherwise
+	 */
+	private boolean preGrantMemory(final ClientProcess clientProcess, final int amountOfMemory) {
+
+		final int freeMemory = subtractGraceMargin(getFreeMemory());
+		final AllocationDecision decision = this.allocationPolicy.decideOnRequest(getNodeState(freeMemory),
+			clientProcess.getState(), amountOfMemory);
+		if (!decision.getReclaims().isEmpty() || decision.getGrant(clientProcess.getPID()) < amountOfMemory) {
+			return false;
+		}
+
+		if (!tryGrantWithinQuota(clientProcess, amountOfMemory, 0, freeMemory)) {
+			return false;
+		}
+
+		enforceGrantedMemoryShare(clientProcess);
+
+		notifyGrantedMemoryShareChanged(clientProcess);
+
+		return true;
+	}
+
+	/**
+	 * Checks whether the given client process is paging, i.e. it faults its pages back in from disk at a high rate or
+	 * stalls waiting for memory.
+	 * 
+	 * @param clientProcess
+	 *        the client process to check
+	 * @return <code>true</code> if the client process is paging, <code>false</code> otherwise
+	 */
+	private boolean isPaging(final ClientProcess clientProcess) {
+
+		final PagingStatistics pagingStatistics = clientProcess.getPagingStatistics();
+		if (pagingStatistics.getMajorFaultRate() >= this.majorFaultThreshold) {
+			return true;
+		}
+
+		return pagingStatistics.getMemoryStall() >= this.memoryStallThreshold;
+	}
+
+	/**
+	 * Grants latency-critical clients which page the memory they have lost to swap, so they can fault their pages
+	 * back in without being held to a share which no longer fits them. The grants come from spare memory before it is
+	 * handed to anybody else.
+	 */
+	private void unswapLatencyCriticalClients() {
+
+		for (final ClientProcess clientProcess : this.clientProcesses.values()) {
+
+			if (clientProcess.getQoSClass() != QoSClass.LATENCY_CRITICAL) {
+				continue;
+			}
+
+			final int swapSize = clientProcess.getPagingStatistics().getSwapSize();
+			final UsageHistory usageHistory = clientProcess.getUsageHistory();
+			if (swapSize == 0 || usageHistory.size() == 0 || !isPaging(clientProcess)) {
+				continue;
+			}
+
+			final int grantedMemoryShare = clientProcess.getGrantedMemoryShare();
+			final int memoryToGrant = Math.min(usageHistory.getPhysicalMemorySize(0) + swapSize,
+				clientProcess.getMaximumMemoryShare()) - grantedMemoryShare;
+			if (memoryToGrant <= 0) {
+				continue;
+			}
+
+			if (preGrantMemory(clientProcess, memoryToGrant)) {
+				Log.info(clientProcess + " is paging, granting " + memoryToGrant + " kilobytes of memory to unswap");
+			}
+		}
+	}
+
+	/**
+	 * Tells the given client process about its new granted memory share without blocking the caller.
+	 * 
+	 * @param clientProcess
+	 *        the client process whose granted memory share has changed
+	 */
+	private void notifyGrantedMemoryShareChanged(final ClientProcess clientProcess) {
+
+		this.reclaimExecutor.submit(new Runnable() {
+
+			/**
+			 * {@inheritDoc}
+			 */
+			@Override
+			public void run() {
+
+				try {
+					clientProcess.grantedMemoryShareChanged(clientProcess.getGrantedMemoryShare());
+				} catch (IOException ioe) {
+					Log.warn("Unable to notify " + clientProcess + " of its new memory share: ", ioe);
+				} catch (InterruptedException ie) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Moves memory within the job groups from members which do not use their granted share to members which exceed
+	 * theirs. Groups which exceed their quota, for example because it has been lowered, give up the memory their
+	 * members do not use first.
+	 */
+	private void rebalanceJobGroups() {
+
+		for (final JobGroup jobGroup : this.jobGroups.values()) {
+
+			trimToQuota(jobGroup);
+
+			for (final ClientProcess member : jobGroup.getMembers()) {
+
+				final int demand = member.getState().getPhysicalMemorySize() - member.getGrantedMemoryShare();
+				if (demand <= 0) {
+					continue;
+				}
+
+				final int movedMemory = shiftWithinJobGroup(jobGroup, member, demand, true);
+				if (movedMemory > 0) {
+					Log.info("Moved " + movedMemory + " kilobytes of memory to " + member + " within " + jobGroup);
+					notifyGrantedMemoryShareChanged(member);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Takes back the memory the members of the given job group have been granted, but do not use, until the group is
+	 * within its quota again. Members are never shrunk below their usage, so a group whose members use more than the
+	 * quota only gets back under it as they release memory.
+	 * 
+	 * @param jobGroup
+	 *        the job group
+	 */
+	private void trimToQuota(final JobGroup jobGroup) {
+
+		synchronized (jobGroup) {
+
+			final int quota = jobGroup.getQuota();
+			if (quota <= 0) {
+				return;
+			}
+
+			int excessMemory = jobGroup.getGrantedMemoryShare() - quota;
+			for (final ClientProcess member : jobGroup.getMembers()) {
+
+				if (excessMemory <= 0) {
+					return;
+				}
+
+				final int memoryToTrim = Math.min(getUnusedMemoryShare(member), excessMemory);
+				if (memoryToTrim <= 0 || !member.tryDecreaseGrantedMemoryShare(memoryToTrim)) {
+					continue;
+				}
+
+				Log.info("Trimming the granted memory share of " + member + " by " + memoryToTrim
+					+ " kilobytes to the quota of " + jobGroup);
+
+				member.getLoanBook().trim(member.getGrantedMemoryShare() - member.getGuaranteedMemoryShare());
+				enforceGrantedMemoryShare(member);
+				notifyGrantedMemoryShareChanged(member);
+
+				excessMemory -= memoryToTrim;
+			}
+		}
+	}
+
+	/**
+	 * Moves the memory the other members of the given job group have been granted, but do not use, to the given
+	 * member. The memory is already accounted for in the ledger as granted, but not yet allocated memory, so the
+	 * ledger remains unchanged.
+	 * 
+	 * @param jobGroup
+	 *        the job group
+	 * @param beneficiary
+	 *        the member to move the memory to
+	 * @param amountOfMemory
+	 *        the amount of memory to move in kilobytes
+	 * @param partial
+	 *        <code>true</code> to move as much memory as the other members can spare, <code>false</code> to only move
+	 *        memory if they can spare the entire amount
+	 * @return the amount of memory actually moved in kilobytes
+	 */
+	private int shiftWithinJobGroup(final JobGroup jobGroup, final ClientProcess beneficiary, final int amountOfMemory,
+			final boolean partial) {
+
+		synchronized (jobGroup) {
+
+			final List<ClientProcess> donors = new ArrayList<ClientProcess>();
+			int unusedMemory = 0;
+			for (final ClientProcess member : jobGroup.getMembers()) {
+
+				if (member != beneficiary && getUnusedMemoryShare(member) > 0) {
+					donors.add(member);
+					unusedMemory += getUnusedMemoryShare(member);
+				}
+			}
+
+			if (unusedMemory == 0 || (!partial && unusedMemory < amountOfMemory)) {
+				return 0;
+			}
+
+			int movedMemory = 0;
+			for (final ClientProcess donor : donors) {
+
+				final int memoryToMove = Math.min(getUnusedMemoryShare(donor), amountOfMemory - movedMemory);
+				if (memoryToMove <= 0 || !donor.tryDecreaseGrantedMemoryShare(memoryToMove)) {
+					continue;
+				}
+
+				donor.getLoanBook().trim(donor.getGrantedMemoryShare() - donor.getGuaranteedMemoryShare());
+				enforceGrantedMemoryShare(donor);
+				notifyGrantedMemoryShareChanged(donor);
+
+				movedMemory += memoryToMove;
+				if (movedMemory == amountOfMemory) {
+					break;
+				}
+			}
+
+			beneficiary.increaseGrantedMemoryShare(movedMemory);
+			enforceGrantedMemoryShare(beneficiary);
+
+			return movedMemory;
+		}
+	}
+
+	/**
+	 * Returns the part of the granted memory share the given client process does not use, leaving it the grace margin
+	 * above its physical memory size.
+	 * 
+	 * @param clientProcess
+	 *        the client process
+	 * @return the unused part of the granted memory share in kilobytes
+	 */
+	private int getUnusedMemoryShare(final ClientProcess clientProcess) {
+
+		final int physicalMemorySize = clientProcess.getState().getPhysicalMemorySize();
+		if (physicalMemorySize == -1) {
+			return 0;
+		}
+
+		final int neededMemoryShare = Math.max(clientProcess.getGuaranteedMemoryShare(),
+			addGraceMargin(physicalMemorySize, clientProcess.getQoSClass()));
+
+		return Math.max(0, clientProcess.getGrantedMemoryShare() - neededMemoryShare);
+	}
+
+	/**
+	 * Checks whether the members of the given job group together use more memory than they have been granted,
+	 * including the grace margin.
+	 * 
+	 * @param jobGroup
+	 *        the job group
+	 * @return <code>true</code> if the group exceeds its granted memory share, <code>false</code> otherwise
+	 */
+	private boolean exceedsGrantedMemoryShare(final JobGroup jobGroup) {
+
+		long physicalMemorySize = 0L;
+		long grantedMemoryShare = 0L;
+		for (final ClientProcess member : jobGroup.getMembers()) {
+			physicalMemorySize += Math.max(0, member.getState().getPhysicalMemorySize());
+			grantedMemoryShare += addGraceMargin(member.getGrantedMemoryShare(), member.getQoSClass());
+		}
+
+		return physicalMemorySize > grantedMemoryShare;
+	}
+
+	/**
+	 * Checks whether the clients have returned their recalled memory loans. A client which still exceeds its granted
+	 * share including the grace margin after the return deadline of a recalled loan has passed is asked once more to
+	 * shrink. If it still exceeds its share after a second deadline, it is treated like a client whose share cannot be
+	 * enforced.
+	 */
+	private void enforceLoanDeadlines() {
+
+		final long now = System.currentTimeMillis();
+
+		for (final ClientProcess clientProcess : this.clientProcesses.values()) {
+
+			final LoanBook loanBook = clientProcess.getLoanBook();
+			if (!loanBook.hasRecalledLoans()) {
+				continue;
+			}
+
+			// Like every other enforcement path, tolerate the grace margin of the client's class
+			final int physicalMemorySize = clientProcess.getState().getPhysicalMemorySize();
+			if (physicalMemorySize <= addGraceMargin(clientProcess.getGrantedMemoryShare(), clientProcess
+				.getQoSClass())) {
+				loanBook.markReturned();
+				continue;
+			}
+
+			// Remind the client of its reduced share once before its loans are treated as defaulted
+			final List<LoanBook.Loan> escalatedLoans = loanBook.escalateOverdueLoans(now);
+			if (!escalatedLoans.isEmpty()) {
+				Log.warn(clientProcess + " did not return " + escalatedLoans.size()
+					+ " recalled memory loans in time, repeating request...");
+				enforceGrantedMemoryShare(clientProcess);
+				notifyGrantedMemoryShareChanged(clientProcess);
+			}
+
+			final List<LoanBook.Loan> overdueLoans = loanBook.removeOverdueLoans(now);
+			if (overdueLoans.isEmpty()) {
+				continue;
+			}
+
+			if (!clientProcess.getQoSClass().isStrictlyEnforced()) {
+				Log.warn(clientProcess + " did not return " + overdueLoans.size() + " recalled memory loans in time");
+				continue;
+			}
+
+			Log.warn(clientProcess + " did not return " + overdueLoans.size()
+				+ " recalled memory loans in time, killing process...");
+			kill(clientProcess);
+			removeClientProcess(clientProcess);
+		}
+	}
+
+	/**
+	 * Settles the memory credit of the clients whose lease has expired and revokes the credit of all clients if the
+	 * spare memory no longer suffices to extend a full credit.
+	 */
+	private void settleCredits() {
+
+		final long now = System.currentTimeMillis();
+		final List<Callable<Void>> revocationTasks = new ArrayList<Callable<Void>>();
+		final boolean underPressure = this.creditSize > 0 && getNodeState().getSpareMemory() < this.creditSize;
+
+		for (final ClientProcess clientProcess : this.clientProcesses.values()) {
+
+			final CreditLine creditLine = clientProcess.getCreditLine();
+			synchronized (creditLine) {
+				if (creditLine.isExpired(now)) {
+					settleCredit(clientProcess, creditLine.settleAll());
+					continue;
+				}
+			}
+
+			if (!underPressure || creditLine.getOutstandingCredit() == 0) {
+				continue;
+			}
+
+			revocationTasks.add(new Callable<Void>() {
+
+				/**
+				 * {@inheritDoc}
+				 */
+				@Override
+				public Void call() throws InterruptedException {
+
+					int undrawnCredit;
+					try {
+						undrawnCredit = clientProcess.revokeCredit();
+					} catch (IOException ioe) {
+						Log.warn("Unable to revoke memory credit of " + clientProcess + ": ", ioe);
+						undrawnCredit = 0;
+					}
+
+					int outstandingCredit;
+					int settledCredit;
+					synchronized (creditLine) {
+						outstandingCredit = creditLine.getOutstandingCredit();
+						settledCredit = creditLine.revoke(undrawnCredit);
+					}
+					Log.info("Revoked memory credit of " + clientProcess + ", " + settledCredit
+						+ " kilobytes had been drawn");
+
+					settleCredit(clientProcess, settledCredit);
+					Daemon.this.memoryLedger.release(outstandingCredit - settledCredit);
+
+					return null;
+				}
+			});
+		}
+
+		if (revocationTasks.isEmpty()) {
+			return;
+		}
+
+		try {
+			this.reclaimExecutor.invokeAll(revocationTasks, this.reclaimTimeout, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Adds settled memory credit to the granted memory share of the given client process. The memory is already
+	 * reserved in the ledger, so the share grows without a further grant.
+	 * 
+	 * @param clientProcess
+	 *        the client process whose credit has been settled
+	 * @param settledCredit
+	 *        the amount of settled credit in kilobytes
+	 */
+	private void settleCredit(final ClientProcess clientProcess, final int settledCredit) {
+
+		if (settledCredit <= 0) {
+			return;
+		}
+
+		clientProcess.increaseGrantedMemoryShare(settledCredit);
+		enforceGrantedMemoryShare(clientProcess);
+	}
+
+	/**
+	 * Removes the clients which have terminated. Clients which hold a lease are watched through their lease alone and
+	 * only looked up in <code>/proc</code> once their lease has expired, the other clients are looked up once per
+	 * lease duration. The check runs in its own thread, so the memory of terminated clients is reclaimed independently
+	 * of the main loop's update interval.
+	 */
+	private void monitorLiveness() {
+
+		long nextProcessCheck = 0L;
+
+		while (!Thread.currentThread().isInterrupted()) {
+
+			final long now = System.currentTimeMillis();
+			final boolean checkProcesses = (now >= nextProcessCheck);
+			if (checkProcesses) {
+				nextProcessCheck = now + this.clientLease;
+			}
+
+			for (final ClientProcess clientProcess : this.clientProcesses.values()) {
+
+				if (clientProcess.holdsLease()) {
+					if (clientProcess.isLeaseExpired(now)) {
+						handleExpiredLease(clientProcess);
+					}
+				} else if (checkProcesses && !clientProcess.isAlive()) {
+					Log.info("Client process " + clientProcess + " has terminated, removing it...");
+					removeClientProcess(clientProcess);
+				}
+			}
+
+			try {
+				Thread.sleep(this.livenessCheckInterval);
+			} catch (InterruptedException ie) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Handles a client process which did not renew its lease. A client which has terminated is removed. A client which
+	 * is still alive is considered hung: it is killed if its quality of service class is strictly enforced, otherwise
+	 * it loses its lease and is held to its guaranteed memory share. It remains registered, so the memory it still
+	 * holds stays accounted for until it terminates.
+	 * 
+	 * @param clientProcess
+	 *        the client process whose lease has expired
+	 */
+	private void handleExpiredLease(final ClientProcess clientProcess) {
+
+		if (!clientProcess.isAlive()) {
+			Log.info("Client process " + clientProcess + " has terminated, removing it...");
+			removeClientProcess(clientProcess);
+			return;
+		}
+
+		if (clientProcess.getQoSClass().isStrictlyEnforced()) {
+			Log.warn("Client process " + clientProcess + " did not renew its lease, killing process...");
+			kill(clientProcess);
+			removeClientProcess(clientProcess);
+			return;
+		}
+
+		Log.warn("Client process " + clientProcess
+			+ " did not renew its lease, reducing it to its guaranteed memory share...");
+
+		// A new renewal takes out a new lease
+		clientProcess.dropLease();
+		clientProcess.decreaseGrantedMemoryShare(clientProcess.getGrantedMemoryShare()
+			- clientProcess.getGuaranteedMemoryShare());
+		clientProcess.getLoanBook().trim(0);
+		enforceGrantedMemoryShare(clientProcess);
+		notifyGrantedMemoryShareChanged(clientProcess);
+	}
+
+	private void runMainLoop() {
+
+		int updateInterval = this.minimumUpdateInterval;
+
+		while (true) {
+
+			unswapLatencyCriticalClients();
+			reenforceGrantedMemoryShares();
+			rebalanceJobGroups();
+			enforceLoanDeadlines();
+			settleCredits();
+			adjustGrantedMemorySharesToForecasts();
+			redistributeFreeMemory();
+
+			try {
+				if (this.pressureMonitor == null) {
+					Thread.sleep(UPDATE_INTERVAL);
+				} else if (this.pressureMonitor.awaitPressure(updateInterval)) {
+					Log.debug("Memory pressure detected, updating memory shares immediately");
+					updateInterval = this.minimumUpdateInterval;
+				} else {
+					// Back off while the node is idle
+					updateInterval = Math.min(updateInterval * 2, this.maximumUpdateInterval);
+				}
+			} catch (InterruptedException ie) {
+				return;
+			}
+		}
+	}
+
+	private void addToPriorityQueue(final ClientProcess clientProcess) {
+
+		if (clientProcess.getType() == ProcessType.USER_PROCESS) {
+			this.userProcesses.add(clientProcess);
+		} else {
+			this.infrastructureProcesses.add(clientProcess);
+		}
+	}
+
+	private void removeFromPriorityQueue(final ClientProcess clientProcess) {
+
+		Queue<ClientProcess> queueToRemoveFrom;
+		if (clientProcess.getType() == ProcessType.USER_PROCESS) {
+			queueToRemoveFrom = this.userProcesses;
+		} else {
+			queueToRemoveFrom = this.infrastructureProcesses;
+		}
+
+		if (!queueToRemoveFrom.remove(clientProcess)) {
+			Log.debug("Cloud not find client process " + clientProcess + " to remove it from priority queue");
+		}
+	}
+
+	/**
+	 * Programs the granted memory share of the given client process into the kernel if kernel-based enforcement is
+	 * enabled.
+	 * 
+	 * @param clientProcess
+	 *        the client process whose granted memory share shall be enforced
+	 */
+	private void enforceGrantedMemoryShare(final ClientProcess clientProcess) {
+
+		if (this.kernelEnforcer == null) {
+			return;
+		}
+
+		// Serialize the updates per client, so a stale share can never overwrite a more recent one
+		synchronized (clientProcess) {
+			this.kernelEnforcer.enforce(clientProcess, addGraceMargin(clientProcess.getEnforcedMemoryShare(System
+				.currentTimeMillis()), clientProcess.getQoSClass()));
+		}
+	}
+
+	/**
+	 * Removes the given client process from the daemon's bookkeeping.
+	 * 
+	 * @param clientProcess
+	 *        the client process to remove
+	 */
+	private void removeClientProcess(final ClientProcess clientProcess) {
+
+		final int ledgerToken = this.memoryLedger.beginRemoval();
+		if (!this.clientProcesses.remove(Integer.valueOf(clientProcess.getPID()), clientProcess)) {
+			return;
+		}
+
+		removeFromPriorityQueue(clientProcess);
+		leaveJobGroup(clientProcess);
+
+		// Return the memory the client was granted, but had not allocated, right away instead of at the next refresh,
+		// unless a refresh overlapped with the removal and may already have left the client out
+		final int physicalMemorySize = Math.max(0, clientProcess.getState().getPhysicalMemorySize());
+		final int unallocatedMemory = Math.max(0, clientProcess.getGrantedMemoryShare() - physicalMemorySize)
+			+ clientProcess.getCreditLine().getOutstandingCredit();
+		this.memoryLedger.completeRemoval(ledgerToken, unallocatedMemory);
+
+		if (this.kernelEnforcer != null) {
+			this.kernelEnforcer.detach(clientProcess);
+		}
+
+		// Learn from the run, so the next instance of the application starts near the size it needs
+		final UsageHistory usageHistory = clientProcess.getUsageHistory();
+		if (this.profileStore != null && usageHistory.canForecast()) {
+			this.profileStore.recordRun(clientProcess.getName(), usageHistory.getPeakPhysicalMemorySize(),
+				usageHistory.getSteadyStatePhysicalMemorySize());
+		}
+	}
+
+	/**
+	 * Removes the given client process from its job group and discards the group once it has no members left.
+	 * 
+	 * @param clientProcess
+	 *        the client process leaving its job group
+	 */
+	private void leaveJobGroup(final ClientProcess clientProcess) {
+
+		synchronized (this.jobGroups) {
+
+			final JobGroup jobGroup = clientProcess.getJobGroup();
+			if (jobGroup == null) {
+				return;
+			}
+
+			jobGroup.removeMember(clientProcess);
+			clientProcess.setJobGroup(null);
+			if (jobGroup.isEmpty()) {
+				this.jobGroups.remove(jobGroup.getName(), jobGroup);
+			}
+		}
+	}
+
+	private static void kill(final ClientProcess client) {
+
+		try {
+			client.kill();
+		} catch (IOException ioe) {
+			Log.error("Cannot kill " + client + ": ", ioe);
+		}
+	}
+
+	private void shutDown() {
+
+		if (this.pressureMonitor != null) {
+			this.pressureMonitor.interrupt();
+		}
+
+		this.livenessMonitor.interrupt();
+
+		this.enforcementExecutor.shutdownNow();
+		this.reclaimExecutor.shutdownNow();
+
+		this.rpcService.shutDown();
+	}
+
+	public static void main(final String[] args) {
+
+		// Do some initial compatibility checks
+		ClientUtils.checkCompatibility();
+
+		Daemon daemon = null;
+		try {
+			daemon = new Daemon(8009);
+		} catch (IOException ioe) {
+			Log.error("Could not initialize memory negotiator daemon: ", ioe);
+			return;
+		}
+
+		daemon.runMainLoop();
+
+		daemon.shutDown();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public int registerClient(final String clientName, final int clientPID, final int clientRPCPort,
+			final ProcessType type) throws NegotiationException {
+
+		return registerClient(clientName, clientPID, clientRPCPort, type, QoSClass.getDefault(type));
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public int registerClient(final String clientName, final int clientPID, final int clientRPCPort,
+			final ProcessType type, final QoSClass qosClass) throws NegotiationException {
+
+		Log.debug("Client registration request from " + clientName + ", PID " + clientPID + ", RPC port "
+			+ clientRPCPort + ", QoS class " + qosClass);
+
+		if (type == null || qosClass == null) {
+			throw new NegotiationException("Client " + clientPID + " did not specify its type and QoS class");
+		}
+
+		final Integer pid = Integer.valueOf(clientPID);
+
+		// Check if we already now this process
+		ClientProcess clientProcess = this.clientProcesses.get(pid);
+		if (clientProcess != null) {
+
+			if (clientProcess.isAlive()) {
+				Log.warn("Client with PID " + clientPID + " is already registered");
+				return clientProcess.getGrantedMemoryShare();
+			}
+
+			Log.info("Process ID " + clientPID + " has been reused, removing previous client process...");
+			removeClientProcess(clientProcess);
+		}
+
+		// Verify we are actually talking to the right process
+		if (!Utils.verifyPortBinding(clientPID, clientRPCPort)) {
+			throw new NegotiationException("Could not verify binding between process ID " + clientPID
+				+ " and RPC port " + clientRPCPort);
+		}
+
+		// Create RPC proxy for the client
+		DaemonToClientProtocol rpcProxy = null;
+		try {
+			rpcProxy = this.rpcService.getProxy(new InetSocketAddress(clientRPCPort), DaemonToClientProtocol.class);
+		} catch (IOException ioe) {
+			final String errorMsg = "Unable to create RPC proxy for client " + clientPID;
+			Log.error(errorMsg, ioe);
+			throw new NegotiationException(errorMsg);
+		}
+
+		// Per-process accounting through the cgroup is only meaningful if the client has a cgroup on its own
+		Cgroup clientCgroup;
+		if (this.kernelEnforcer != null) {
+			clientCgroup = this.kernelEnforcer.attach(clientPID);
+		} else {
+			clientCgroup = Cgroup.getCgroupOfProcess(clientPID);
+			if (clientCgroup != null && (clientCgroup.equals(this.cgroup) || !clientCgroup.isExclusiveTo(clientPID))) {
+				clientCgroup = null;
+			}
+		}
+
+		// Known applications start at their steady-state size, but only the default share is guaranteed to them
+		final int learnedMemoryShare = (this.profileStore == null) ? -1 : this.profileStore
+			.getSteadyStateUsage(clientName);
+		final NodeState nodeState = getNodeState();
+		final int defaultMemoryShare = this.allocationPolicy.getInitialMemoryShare(nodeState, clientName, type,
+			qosClass, -1);
+		final int initialMemoryShare = Math.max(0, this.memoryLedger.grantUpTo(
+			this.allocationPolicy.getInitialMemoryShare(nodeState, clientName, type, qosClass, learnedMemoryShare),
+			subtractGraceMargin(getFreeMemory())));
+
+		clientProcess = new ClientProcess(clientName, clientPID, type, qosClass, rpcProxy, clientCgroup,
+			initialMemoryShare, defaultMemoryShare, this.clientProcesses.keySet());
+
+		// Another handler thread may have registered the same process concurrently
+		final ClientProcess existingProcess = this.clientProcesses.putIfAbsent(pid, clientProcess);
+		if (existingProcess != null) {
+			this.memoryLedger.release(initialMemoryShare);
+			Log.warn("Client with PID " + clientPID + " is already registered");
+			return existingProcess.getGrantedMemoryShare();
+		}
+
+		addToPriorityQueue(clientProcess);
+		enforceGrantedMemoryShare(clientProcess);
+
+		Log.info("Successfully registered new client process " + clientProcess + " with "
+			+ clientProcess.getGrantedMemoryShare() + " kilobytes of granted memory");
+
+		return clientProcess.getGrantedMemoryShare();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public boolean requestAdditionalMemory(final int clientPID, final int amountOfMemory)
+			throws IOException {
+
+		Log.info("Process with ID " + clientPID + " requests " + amountOfMemory + " kilobytes of additional memory");
+
+		final ClientProcess clientProcess = getClientProcess(clientPID);
+
+		if (clientProcess == null) {
+			Log.error("Cannot find process with ID " + clientPID);
+			return false;
+		}
+
+		// Memory other members of the job do not use is handed over without contending with other jobs
+		final JobGroup jobGroup = clientProcess.getJobGroup();
+		if (jobGroup != null) {
+
+			if (shiftWithinJobGroup(jobGroup, clientProcess, amountOfMemory, false) == amountOfMemory) {
+				Log.info("Granted request of " + clientProcess + " from the memory of " + jobGroup);
+				return true;
+			}
+
+			if (!jobGroup.hasQuotaFor(amountOfMemory)) {
+				Log.info("Request of " + clientProcess + " exceeds the quota of " + jobGroup);
+				return false;
+			}
+		}
+
+		final int freeMemory = subtractGraceMargin(getFreeMemory());
+		final NodeState nodeState = getNodeState(freeMemory);
+		final AllocationDecision decision = this.allocationPolicy.decideOnRequest(nodeState, clientProcess.getState(),
+			amountOfMemory);
+
+		if (!decision.getReclaims().isEmpty()) {
+			// The requester learns about the memory once the other clients have released it
+			reclaimMemory(clientProcess, amountOfMemory, decision.getReclaims());
+			return false;
+		}
+
+		if (decision.getGrant(clientPID) < amountOfMemory) {
+			Log.info("Allocation policy rejected request of " + clientProcess);
+			return false;
+		}
+
+		// Only grant what is actually free
+		if (tryGrantWithinQuota(clientProcess, amountOfMemory, 0, freeMemory)) {
+			enforceGrantedMemoryShare(clientProcess);
+			return true;
+		}
+
+		return false;
+	}
+
+	/**
+	 * Grants the given amount of memory to the given client process if its job group, if any, stays within its quota
+	 * and the memory not covered by held memory is free. The quota check and the grant happen atomically with respect
+	 * to the other grants to the members of the group.
+	 * 
+	 * @param clientProcess
+	 *        the client process to grant the memory to
+	 * @param amountOfMemory
+	 *        the amount of memory to grant in kilobytes
+	 * @param heldMemory
+	 *        the part of the amount in kilobytes which is already held for the client process in the ledger
+	 * @param freeMemory
+	 *        the amount of free memory in kilobytes
+	 * @return <code>true</code> if the memory has been granted, <code>false</code> otherwise
+	 */
+	private boolean tryGrantWithinQuota(final ClientProcess clientProcess, final int amountOfMemory,
+			final int heldMemory, final int freeMemory) {
+
+		final JobGroup jobGroup = clientProcess.getJobGroup();
+		if (jobGroup == null) {
+			return tryGrant(clientProcess, amountOfMemory, heldMemory, freeMemory);
+		}
+
+		synchronized (jobGroup) {
+
+			if (!jobGroup.hasQuotaFor(amountOfMemory)) {
+				Log.info("Request of " + clientProcess + " exceeds the quota of " + jobGroup);
+				return false;
+			}
+
+			return tryGrant(clientProcess, amountOfMemory, heldMemory, freeMemory);
+		}
+	}
+
+	/**
+	 * Grants the given amount of memory to the given client process if the memory not covered by held memory is free.
+	 * 
+	 * @param clientProcess
+	 *        the client process to grant the memory to
+	 * @param amountOfMemory
+	 *        the amount of memory to grant in kilobytes
+	 * @param heldMemory
+	 *        the part of the amount in kilobytes which is already held for the client process in the ledger
+	 * @param freeMemory
+	 *        the amount of free memory in kilobytes
+	 * @return <code>true</code> if the memory has been granted, <code>false</code> otherwise
+	 */
+	private boolean tryGrant(final ClientProcess clientProcess, final int amountOfMemory, final int heldMemory,
+			final int freeMemory) {
+
+		if (amountOfMemory > heldMemory && !this.memoryLedger.tryGrant(amountOfMemory - heldMemory, freeMemory)) {
+			return false;
+		}
+
+		this.memoryLedger.grantHeld(heldMemory);
+		clientProcess.increaseGrantedMemoryShare(amountOfMemory);
+
+		return true;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public boolean requestAdditionalMemory(final int clientPID, final int amountOfMemory,
+			final UtilityCurve utilityCurve) throws NegotiationException, IOException {
+
+		final ClientProcess clientProcess = getClientProcess(clientPID);
+		if (clientProcess == null) {
+			Log.error("Cannot find process with ID " + clientPID);
+			return false;
+		}
+
+		if (utilityCurve == null || !utilityCurve.isValid()) {
+			throw new NegotiationException("Process with ID " + clientPID + " submitted an invalid utility curve");
+		}
+
+		clientProcess.setUtilityCurve(utilityCurve);
+
+		return requestAdditionalMemory(clientPID, amountOfMemory);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public MemoryCredit renewCredit(final int clientPID, final long drawnMemory) throws NegotiationException {
+
+		final ClientProcess clientProcess = getClientProcess(clientPID);
+		if (clientProcess == null) {
+			throw new NegotiationException("Cannot find process with ID " + clientPID);
+		}
+
+		final CreditLine creditLine = clientProcess.getCreditLine();
+		synchronized (creditLine) {
+
+			// Once the lease has expired, the daemon may already have settled the credit on its own
+			final long now = System.currentTimeMillis();
+			final boolean replacing = creditLine.isExpired(now);
+			if (replacing) {
+				settleCredit(clientProcess, creditLine.settleAll());
+			} else {
+				settleCredit(clientProcess, creditLine.settle(drawnMemory));
+			}
+
+			// Top up the credit as far as the allocation policy approves it from spare memory
+			int extendedCredit = this.creditSize - creditLine.getOutstandingCredit();
+			if (extendedCredit > 0) {
+				final int freeMemory = subtractGraceMargin(getFreeMemory());
+				final AllocationDecision decision = this.allocationPolicy.decideOnRequest(getNodeState(freeMemory),
+					clientProcess.getState(), extendedCredit);
+				if (!decision.getReclaims().isEmpty() || decision.getGrant(clientPID) < extendedCredit
+					|| !this.memoryLedger.tryGrant(extendedCredit, freeMemory)) {
+					extendedCredit = 0;
+				}
+			} else {
+				extendedCredit = 0;
+			}
+
+			creditLine.extend(extendedCredit, now + this.creditLease + CREDIT_LEASE_GRACE_PERIOD);
+
+			return new MemoryCredit(extendedCredit, this.creditLease, replacing);
+		}
+	}
+
+	/**
+	 * Reclaims memory from other client processes on behalf of the given client process without blocking the caller.
+	 * The other processes are asked to shrink in parallel in the background. The reductions are held in the memory
+	 * ledger, so the memory the processes release cannot be handed out to anyone else meanwhile. Once they have
+	 * responded or the configured reclaim timeout has passed, the requested memory is granted to the requesting
+	 * process and the process is told about its new share. Reductions which have not been used for the grant are
+	 * rolled back. At most one reclaim is pending per requesting process.
+	 * 
+	 * @param requestingProcess
+	 *        the client process on whose behalf the memory is reclaimed
+	 * @param amountOfMemory
+	 *        the amount of memory in kilobytes the requesting process asked for
+	 * @param reclaims
+	 *        the amounts of memory in kilobytes to reclaim, indexed by process ID
+	 */
+	private void reclaimMemory(final ClientProcess requestingProcess, final int amountOfMemory,
+			final Map<Integer, Integer> reclaims) {
+
+		if (!requestingProcess.beginReclaim()) {
+			Log.info("Memory is already being reclaimed for " + requestingProcess);
+			return;
+		}
+
+		final List<ReclaimTask> reclaimTasks = new ArrayList<ReclaimTask>();
+		for (final Map.Entry<Integer, Integer> entry : reclaims.entrySet()) {
+
+			final ClientProcess candidate = this.clientProcesses.get(entry.getKey());
+			if (candidate == null || candidate == requestingProcess) {
+				continue;
+			}
+
+			final ReclaimTask reclaimTask = createReclaimTask(candidate, entry.getValue().intValue(), true);
+			if (reclaimTask != null) {
+				Log.info("Reclaiming memory from " + candidate + " for " + requestingProcess);
+				this.memoryLedger.hold(reclaimTask.getReducedMemory());
+				reclaimTasks.add(reclaimTask);
+			}
+		}
+
+		if (reclaimTasks.isEmpty()) {
+			requestingProcess.completeReclaim();
+			return;
+		}
+
+		this.reclaimExecutor.submit(new Runnable() {
+
+			/**
+			 * {@inheritDoc}
+			 */
+			@Override
+			public void run() {
+
+				try {
+					grantReclaimedMemory(requestingProcess, amountOfMemory, reclaimTasks);
+				} finally {
+					requestingProcess.completeReclaim();
+				}
+			}
+		});
+	}
 
 	/**
-	 * The fraction by which a client process may exceed its granted memory share before the memory negotiator daemon
-	 * interferes.
+	 * Runs the given reclaim tasks and grants the requested memory to the requesting process if the other processes
+	 * released memory. The grant is taken from the memory held for the reductions first and only the remainder from
+	 * the free memory. The reductions of the other processes' granted shares which exceed the grant are rolled back.
+	 * 
+	 * @param requestingProcess
+	 *        the client process on whose behalf the memory is reclaimed
+	 * @param amountOfMemory
+	 *        the amount of memory in kilobytes the requesting process asked for
+	 * @param reclaimTasks
+	 *        the reclaim tasks to run
 	 */
-	private static final float GRACE_MARGIN = 0.1f;
+	private void grantReclaimedMemory(final ClientProcess requestingProcess, final int amountOfMemory,
+			final List<ReclaimTask> reclaimTasks) {
 
-	private final RPCService rpcService;
-
-	private final Map<Integer, ClientProcess> clientProcesses = new HashMap<Integer, ClientProcess>();
+		final int releasedMemory = runReclaimTasks(reclaimTasks);
+		Log.info("Client processes released " + releasedMemory + " kilobytes of memory for " + requestingProcess);
 
-	private final Queue<ClientProcess> userProcesses = new PriorityQueue<ClientProcess>();
+		int reducedMemory = 0;
+		for (final ReclaimTask reclaimTask : reclaimTasks) {
+			reducedMemory += reclaimTask.getReducedMemory();
+		}
 
-	private final Queue<ClientProcess> infrastructureProcesses = new PriorityQueue<ClientProcess>();
+		int grantedMemory = 0;
+		final int heldMemory = Math.min(amountOfMemory, reducedMemory);
+		final boolean registered = (this.clientProcesses.get(Integer.valueOf(requestingProcess.getPID()))
+			== requestingProcess);
+		if (releasedMemory > 0 && registered && tryGrantWithinQuota(requestingProcess, amountOfMemory, heldMemory,
+			subtractGraceMargin(getFreeMemory()))) {
 
-	private Daemon(final int rpcPort) throws IOException {
+			enforceGrantedMemoryShare(requestingProcess);
+			notifyGrantedMemoryShareChanged(requestingProcess);
+			grantedMemory = heldMemory;
 
-		this.rpcService = new RPCService(rpcPort, 4, CommonTypeUtils.getRPCTypesToRegister());
-		this.rpcService.setProtocolCallbackHandler(
-			ClientToDaemonProtocol.class, this);
+			Log.info("Granted request of " + requestingProcess + " from reclaimed memory");
+		} else {
+			Log.info("Unable to grant request of " + requestingProcess + " from reclaimed memory");
+		}
 
-		Log.info("Started local memory negotiator daemon on port " + rpcPort);
+		if (reducedMemory > grantedMemory) {
+			rollBackReductions(reclaimTasks, reducedMemory - grantedMemory);
+		}
 	}
 
-	private void reenforceGrantedMemoryShares() {
+	/**
+	 * Gives the given amount of held memory back to the processes the reclaim tasks reduced, the processes reduced
+	 * last first. Memory a process has already released is granted to it again from the held memory, memory it still
+	 * holds needs no grant. The held memory of processes which are gone is released.
+	 * 
+	 * @param reclaimTasks
+	 *        the reclaim tasks whose reductions shall be rolled back
+	 * @param amountOfMemory
+	 *        the amount of held memory in kilobytes to give back
+	 */
+	private void rollBackReductions(final List<ReclaimTask> reclaimTasks, final int amountOfMemory) {
 
-		synchronized (this) {
+		int remainingMemory = amountOfMemory;
+		for (int i = reclaimTasks.size() - 1; i >= 0 && remainingMemory > 0; --i) {
 
-			final Iterator<ClientProcess> it = this.clientProcesses.values().iterator();
-			while (it.hasNext()) {
+			final ReclaimTask reclaimTask = reclaimTasks.get(i);
+			final ClientProcess clientProcess = reclaimTask.getClientProcess();
+			final int memoryToRestore = Math.min(remainingMemory, reclaimTask.getReducedMemory());
+			remainingMemory -= memoryToRestore;
 
-				final ClientProcess clientProcess = it.next();
-				int physicalMemorySize = clientProcess.getPhysicalMemorySize();
-				final int grantedMemoryShare = clientProcess.getGrantedMemoryShare();
-				final int grantedMemoryShareWithGraceMargin = addGraceMargin(grantedMemoryShare);
-				if (physicalMemorySize == -1) {
-					Log.info("Cannot find client process " + clientProcess + ", removing it...");
-					it.remove();
-					removeFromPriorityQueue(clientProcess);
-					continue;
-				}
+			final int physicalMemorySize = clientProcess.getPhysicalMemorySize();
+			if (physicalMemorySize == -1
+				|| this.clientProcesses.get(Integer.valueOf(clientProcess.getPID())) != clientProcess) {
+				this.memoryLedger.releaseHeld(memoryToRestore);
+				continue;
+			}
 
-				int excessMemoryShare = physicalMemorySize - grantedMemoryShareWithGraceMargin;
-				if (excessMemoryShare <= 0) {
-					// Client process does exceed its granted share
-					continue;
-				}
+			final int retainedMemory = Math.min(memoryToRestore, Math.max(0, physicalMemorySize
+				- clientProcess.getGrantedMemoryShare()));
+			this.memoryLedger.releaseHeld(retainedMemory);
+			this.memoryLedger.grantHeld(memoryToRestore - retainedMemory);
 
-				Log.info(clientProcess + " exceeds its granted memory share by " + excessMemoryShare
-					+ " kilobytes, asking it to relinquish memory...");
+			Log.info("Restoring " + memoryToRestore + " kilobytes of the granted memory share of " + clientProcess);
 
-				try {
-					clientProcess.grantedMemoryShareChanged(grantedMemoryShare);
-				} catch (IOException ioe) {
-					Log.warn("I/O error while enforcing the memory share for " + clientProcess
-						+ ", killing process...", ioe);
-					kill(clientProcess);
-					it.remove();
-					removeFromPriorityQueue(clientProcess);
-					continue;
-				} catch (InterruptedException ie) {
-					return;
-				}
+			clientProcess.increaseGrantedMemoryShare(memoryToRestore);
+			enforceGrantedMemoryShare(clientProcess);
+			notifyGrantedMemoryShareChanged(clientProcess);
+		}
+	}
 
-				physicalMemorySize = clientProcess.getPhysicalMemorySize();
-				if (physicalMemorySize == -1) {
-					Log.info("Cannot find client process " + clientProcess + ", removing it...");
-					it.remove();
-					removeFromPriorityQueue(clientProcess);
-					continue;
-				}
+	/**
+	 * Runs the given reclaim tasks in parallel and waits at most the configured reclaim timeout for them to complete.
+	 * 
+	 * @param reclaimTasks
+	 *        the reclaim tasks to run
+	 * @return the amount of memory in kilobytes the processes actually released within the timeout
+	 */
+	private int runReclaimTasks(final List<ReclaimTask> reclaimTasks) {
 
-				excessMemoryShare = physicalMemorySize - grantedMemoryShare;
-				if (excessMemoryShare > 0) {
-					Log.info(clientProcess + " still exceeds its granted memory share by " + excessMemoryShare
-						+ " kilobytes, killing it...");
-					//kill(clientProcess);
-					//it.remove();
-					//removeFromPriorityQueue(clientProcess);
-				} else {
-					Log.info(clientProcess + " reduced its physical memory consumption to " + physicalMemorySize);
-				}
+		List<Future<Integer>> futures;
+		try {
+			futures = this.reclaimExecutor.invokeAll(reclaimTasks, this.reclaimTimeout, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			return 0;
+		}
+
+		int releasedMemory = 0;
+		for (final Future<Integer> future : futures) {
+
+			if (future.isCancelled()) {
+				continue;
+			}
+
+			try {
+				releasedMemory += future.get().intValue();
+			} catch (ExecutionException ee) {
+				Log.warn("Unable to reclaim memory: ", ee.getCause());
+			} catch (InterruptedException ie) {
+				Thread.currentThread().interrupt();
+				break;
 			}
 		}
+
+		return releasedMemory;
 	}
 
-	private void redistributeFreeMemory() {
+	/**
+	 * Lowers the granted memory share of the given client process and creates the task which asks the process to
+	 * shrink accordingly.
+	 * 
+	 * @param clientProcess
+	 *        the client process to reclaim memory from
+	 * @param amountOfMemory
+	 *        the amount of memory to reclaim in kilobytes
+	 * @param recallLoans
+	 *        <code>true</code> to recall the process's memory loans first, <code>false</code> to leave the loans and
+	 *        the memory they cover untouched
+	 * @return the reclaim task or <code>null</code> if the process holds no reclaimable memory
+	 */
+	private ReclaimTask createReclaimTask(final ClientProcess clientProcess, final int amountOfMemory,
+			final boolean recallLoans) {
 
-		synchronized (this) {
+		int reclaimableMemory = clientProcess.getGrantedMemoryShare() - clientProcess.getGuaranteedMemoryShare();
+		if (!recallLoans) {
+			reclaimableMemory -= clientProcess.getLoanBook().getBorrowedMemory();
+		}
 
-			final Iterator<ClientProcess> it = this.infrastructureProcesses.iterator();
+		if (reclaimableMemory <= 0 || amountOfMemory <= 0) {
+			return null;
+		}
 
-			int freeMemory = subtractGraceMargin(Utils.getFreePhysicalMemory());
+		// Recall loans first, the process has committed to return them within their deadline
+		final List<LoanBook.Loan> recalledLoans = recallLoans ? clientProcess.getLoanBook().recall(
+			Math.min(reclaimableMemory, amountOfMemory), System.currentTimeMillis())
+			: Collections.<LoanBook.Loan> emptyList();
+		int recalledMemory = 0;
+		for (final LoanBook.Loan loan : recalledLoans) {
+			recalledMemory += loan.getAmount();
+		}
 
-			while (it.hasNext()) {
+		// Reduce the granted share first, so the memory is not offered to the process again
+		final int memoryToReclaim = Math.min(reclaimableMemory, Math.max(amountOfMemory, recalledMemory));
+		clientProcess.decreaseGrantedMemoryShare(memoryToReclaim);
+		enforceGrantedMemoryShare(clientProcess);
 
-				final ClientProcess clientProcess = it.next();
+		Log.info("Reducing the granted memory share of " + clientProcess + " by " + memoryToReclaim + " kilobytes");
 
-				// Check if process is interested in memory offers
-				if (!clientProcess.getOfferFreeMemory()) {
-					continue;
-				}
+		return new ReclaimTask(clientProcess, clientProcess.getGrantedMemoryShare(), recalledLoans,
+			recalledMemory >= memoryToReclaim, memoryToReclaim);
+	}
 
-				Log.info("Offering " + freeMemory + " kilobytes of additional memory to " + clientProcess);
-				try {
-					final int acceptedMemory = clientProcess.additionalMemoryOffered(freeMemory);
-					if (acceptedMemory > 0) {
-						Log.info(clientProcess + " accepted " + acceptedMemory + " kilobytes of additional memory");
-						clientProcess.increaseGrantedMemoryShare(acceptedMemory);
-					} else if (acceptedMemory < 0) {
-						Log.info(clientProcess + " indicated not to be intersted in further memory offers");
-						clientProcess.setOfferFreeMemory(false);
-					}
-				} catch (IOException ioe) {
-					Log.warn("I/O error while offering additional memory to " + clientProcess
-						+ "...", ioe);
-					continue;
-				} catch (InterruptedException ie) {
-					return;
-				}
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void relinquishMemory(final int clientPID, final int amountOfMemory) throws IOException {
 
-			}
+		Log.info("Process with ID " + clientPID + " relinquishes " + amountOfMemory
+			+ " kilobytes of additional memory");
+
+		final ClientProcess clientProcess = getClientProcess(clientPID);
+
+		if (clientProcess == null) {
+			Log.error("Cannot find process with ID " + clientPID);
+			return;
 		}
 
+		clientProcess.decreaseGrantedMemoryShare(amountOfMemory);
+		clientProcess.getLoanBook().trim(clientProcess.getGrantedMemoryShare()
+			- clientProcess.getGuaranteedMemoryShare());
+		enforceGrantedMemoryShare(clientProcess);
 	}
 
-	private void runMainLoop() {
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public int renewLease(final int clientPID) throws NegotiationException {
 
-		while (true) {
+		final ClientProcess clientProcess = this.clientProcesses.get(Integer.valueOf(clientPID));
+		if (clientProcess == null) {
+			throw new NegotiationException("Cannot find process with ID " + clientPID);
+		}
 
-			reenforceGrantedMemoryShares();
-			redistributeFreeMemory();
+		clientProcess.renewLease(System.currentTimeMillis() + this.clientLease);
 
-			try {
-				Thread.sleep(UPDATE_INTERVAL);
-			} catch (InterruptedException ie) {
-				return;
-			}
+		return this.clientLease;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public int requestCollectionSlot(final int clientPID, final int expectedDuration) {
+
+		final ClientProcess clientProcess = getClientProcess(clientPID);
+		if (clientProcess == null) {
+			Log.error("Cannot find process with ID " + clientPID);
+			return 0;
 		}
+
+		final int delay = this.gcScheduler.schedule(clientPID, clientProcess.getQoSClass(), expectedDuration,
+			System.currentTimeMillis());
+
+		Log.debug(clientProcess + " may collect garbage in " + delay + " ms");
+
+		return delay;
 	}
 
-	private void addToPriorityQueue(final ClientProcess clientProcess) {
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void completeCollection(final int clientPID) {
 
-		if (clientProcess.getType() == ProcessType.USER_PROCESS) {
-			this.userProcesses.add(clientProcess);
-		} else {
-			this.infrastructureProcesses.add(clientProcess);
+		// Looking up the client also renews its lease
+		final ClientProcess clientProcess = getClientProcess(clientPID);
+		if (clientProcess == null) {
+			Log.debug("Process with ID " + clientPID + " completed a collection, but is not registered");
 		}
+
+		this.gcScheduler.complete(clientPID, System.currentTimeMillis());
 	}
 
-	private void removeFromPriorityQueue(final ClientProcess clientProcess) {
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public boolean transferMemory(final int sourcePID, final int targetPID, final int amountOfMemory)
+			throws NegotiationException {
 
-		Queue<ClientProcess> queueToRemoveFrom;
-		if (clientProcess.getType() == ProcessType.USER_PROCESS) {
-			queueToRemoveFrom = this.userProcesses;
-		} else {
-			queueToRemoveFrom = this.infrastructureProcesses;
+		Log.info("Process with ID " + sourcePID + " transfers " + amountOfMemory + " kilobytes of memory to process "
+			+ targetPID);
+
+		final ClientProcess sourceProcess = getClientProcess(sourcePID);
+		if (sourceProcess == null) {
+			throw new NegotiationException("Cannot find process with ID " + sourcePID);
 		}
 
-		if (!queueToRemoveFrom.remove(clientProcess)) {
-			Log.debug("Cloud not find client process " + clientProcess + " to remove it from priority queue");
+		final ClientProcess targetProcess = this.clientProcesses.get(Integer.valueOf(targetPID));
+		if (targetProcess == null) {
+			throw new NegotiationException("Cannot find process with ID " + targetPID);
 		}
-	}
 
-	private static void kill(final ClientProcess client) {
+		if (amountOfMemory <= 0 || sourceProcess == targetProcess) {
+			return false;
+		}
 
-		try {
-			client.kill();
-		} catch (IOException ioe) {
-			Log.error("Cannot kill " + client + ": ", ioe);
+		// Memory which changes groups counts towards the quota of the receiving group
+		final JobGroup targetGroup = targetProcess.getJobGroup();
+		if (targetGroup != null && targetGroup != sourceProcess.getJobGroup()) {
+			synchronized (targetGroup) {
+
+				if (!targetGroup.hasQuotaFor(amountOfMemory)) {
+					Log.info("Transfer to " + targetProcess + " exceeds the quota of " + targetGroup);
+					return false;
+				}
+
+				if (!moveGrantedMemory(sourceProcess, targetProcess, amountOfMemory)) {
+					return false;
+				}
+			}
+		} else if (!moveGrantedMemory(sourceProcess, targetProcess, amountOfMemory)) {
+			return false;
 		}
-	}
 
-	private void shutDown() {
+		sourceProcess.getLoanBook().trim(sourceProcess.getGrantedMemoryShare()
+			- sourceProcess.getGuaranteedMemoryShare());
+		enforceGrantedMemoryShare(sourceProcess);
+		enforceGrantedMemoryShare(targetProcess);
 
-		this.rpcService.shutDown();
-	}
+		notifyGrantedMemoryShareChanged(targetProcess);
 
-	public static void main(final String[] args) {
+		return true;
+	}
 
-		// Do some initial compatibility checks
-		ClientUtils.checkCompatibility();
+	/**
+	 * Moves the given amount of memory from the granted memory share of the source process to the one of the target
+	 * process. The memory stays reserved in the ledger until the target has allocated it.
+	 * 
+	 * @param sourceProcess
+	 *        the client process to take the memory from
+	 * @param targetProcess
+	 *        the client process to give the memory to
+	 * @param amountOfMemory
+	 *        the amount of memory to move in kilobytes
+	 * @return <code>true</code> if the memory has been moved, <code>false</code> if the source process does not hold
+	 *         the memory above its guaranteed share
+	 */
+	private boolean moveGrantedMemory(final ClientProcess sourceProcess, final ClientProcess targetProcess,
+			final int amountOfMemory) {
 
-		Daemon daemon = null;
-		try {
-			daemon = new Daemon(8009);
-		} catch (IOException ioe) {
-			Log.error("Could not initialize memory negotiator daemon: ", ioe);
-			return;
+		if (!sourceProcess.tryDecreaseGrantedMemoryShare(amountOfMemory)) {
+			Log.info(sourceProcess + " does not hold " + amountOfMemory + " kilobytes of transferable memory");
+			return false;
 		}
 
-		daemon.runMainLoop();
+		// Keep the memory reserved while the source releases it and the target has not allocated it yet
+		this.memoryLedger.reserve(amountOfMemory);
+		targetProcess.increaseGrantedMemoryShare(amountOfMemory);
 
-		daemon.shutDown();
+		return true;
 	}
 
 	/**
 	 * {@inheritDoc}
 	 */
 	@Override
-	public synchronized int registerClient(final String clientName, final int clientPID, final int clientRPCPort,
-			final ProcessType type) throws NegotiationException {
-
-		Log.debug("Client registration request from " + clientName + ", PID " + clientPID + ", RPC port "
-			+ clientRPCPort);
+	public void joinJobGroup(final int clientPID, final String groupName, final int quota)
+			throws NegotiationException {
 
-		final Integer pid = Integer.valueOf(clientPID);
+		Log.info("Process with ID " + clientPID + " joins job group " + groupName + " with quota " + quota);
 
-		// Check if we already now this process
-		ClientProcess clientProcess = this.clientProcesses.get(pid);
-		if (clientProcess != null) {
-			Log.warn("Client with PID " + clientPID + " is already registered");
-			return clientProcess.getGrantedMemoryShare();
+		final ClientProcess clientProcess = getClientProcess(clientPID);
+		if (clientProcess == null) {
+			throw new NegotiationException("Cannot find process with ID " + clientPID);
 		}
 
-		// Verify we are actually talking to the right process
-		if (!Utils.verifyPortBinding(clientPID, clientRPCPort)) {
-			throw new NegotiationException("Could not verify binding between process ID " + clientPID
-				+ " and RPC port " + clientRPCPort);
+		if (groupName == null || groupName.isEmpty()) {
+			throw new NegotiationException("Process with ID " + clientPID + " specified no job group");
 		}
 
-		// Create RPC proxy for the client
-		DaemonToClientProtocol rpcProxy = null;
-		try {
-			rpcProxy = this.rpcService.getProxy(new InetSocketAddress(clientRPCPort), DaemonToClientProtocol.class);
-		} catch (IOException ioe) {
-			final String errorMsg = "Unable to create RPC proxy for client " + clientPID;
-			Log.error(errorMsg, ioe);
-			throw new NegotiationException(errorMsg);
+		if (quota < 0) {
+			throw new NegotiationException("Invalid quota " + quota + " for job group " + groupName);
 		}
 
-		clientProcess = new ClientProcess(clientName, clientPID, type, rpcProxy, Math.min(MINIMUM_CLIENT_MEMORY,
-			subtractGraceMargin(Utils.getFreePhysicalMemory())));
+		synchronized (this.jobGroups) {
 
-		this.clientProcesses.put(pid, clientProcess);
-		addToPriorityQueue(clientProcess);
+			// The process may have been removed in the meantime
+			if (this.clientProcesses.get(Integer.valueOf(clientPID)) != clientProcess) {
+				throw new NegotiationException("Cannot find process with ID " + clientPID);
+			}
 
-		Log.info("Successfully registered new client process " + clientProcess + " with "
-			+ clientProcess.getGrantedMemoryShare() + " kilobytes of granted memory");
+			final JobGroup currentGroup = clientProcess.getJobGroup();
+			if (currentGroup != null && !currentGroup.getName().equals(groupName)) {
+				throw new NegotiationException(clientProcess + " already belongs to " + currentGroup);
+			}
 
-		return clientProcess.getGrantedMemoryShare();
+			// The member creating the group sets its quota, later members may only lower it
+			JobGroup jobGroup = this.jobGroups.get(groupName);
+			if (jobGroup == null) {
+				jobGroup = new JobGroup(groupName);
+				jobGroup.setQuota(quota);
+				this.jobGroups.put(groupName, jobGroup);
+			} else if (quota > 0 && (jobGroup.getQuota() == 0 || quota < jobGroup.getQuota())) {
+				Log.info("Lowering the quota of " + jobGroup + " to " + quota + " kilobytes");
+				jobGroup.setQuota(quota);
+			}
+
+			jobGroup.addMember(clientProcess);
+			clientProcess.setJobGroup(jobGroup);
+		}
 	}
 
 	/**
 	 * {@inheritDoc}
 	 */
 	@Override
-	public synchronized boolean requestAdditionalMemory(final int clientPID, final int amountOfMemory)
-			throws IOException {
+	public void setAllocationParameters(final int clientPID, final int weight, final int minimumMemoryShare,
+			final int maximumMemoryShare) throws NegotiationException {
 
-		Log.info("Process with ID " + clientPID + " requests " + amountOfMemory + " kilobytes of additional memory");
+		Log.info("Process with ID " + clientPID + " sets weight " + weight + ", minimum share " + minimumMemoryShare
+			+ " and maximum share " + maximumMemoryShare);
 
-		final Integer pid = Integer.valueOf(clientPID);
-		final ClientProcess clientProcess = this.clientProcesses.get(pid);
+		final ClientProcess clientProcess = getClientProcess(clientPID);
+		if (clientProcess == null) {
+			throw new NegotiationException("Cannot find process with ID " + clientPID);
+		}
+
+		try {
+			clientProcess.setAllocationParameters(weight, minimumMemoryShare, maximumMemoryShare);
+		} catch (IllegalArgumentException iae) {
+			throw new NegotiationException(iae.getMessage());
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void reportGarbageCollectionStatistics(final int clientPID, final float gcTimeFraction,
+			final int allocationRate) {
 
+		final ClientProcess clientProcess = getClientProcess(clientPID);
 		if (clientProcess == null) {
 			Log.error("Cannot find process with ID " + clientPID);
-			return false;
+			return;
 		}
 
-		if (amountOfMemory < subtractGraceMargin(Utils.getFreePhysicalMemory())) {
-			clientProcess.increaseGrantedMemoryShare(amountOfMemory);
-			return true;
+		Log.debug(clientProcess + " spends " + gcTimeFraction + " of its time collecting garbage and allocates "
+			+ allocationRate + " kilobytes per second");
+
+		clientProcess.setGarbageCollectionStatistics(gcTimeFraction, allocationRate);
+	}
+
+	/**
+	 * Looks up the client process with the given ID. Any call from a client shows that it is alive, so the lookup also
+	 * renews the client's lease if it holds one.
+	 * 
+	 * @param clientPID
+	 *        the process ID of the client
+	 * @return the client process or <code>null</code> if no client with the given ID is registered
+	 */
+	private ClientProcess getClientProcess(final int clientPID) {
+
+		final ClientProcess clientProcess = this.clientProcesses.get(Integer.valueOf(clientPID));
+		if (clientProcess != null && clientProcess.holdsLease()) {
+			clientProcess.renewLease(System.currentTimeMillis() + this.clientLease);
 		}
 
-		// Check if we can ask for the memory from an infrastructure process
-		int reclaimedMemory = 0;
-		final Iterator<ClientProcess> it = this.infrastructureProcesses.iterator();
-		while (it.hasNext()) {
-			final ClientProcess process = it.next();
-			System.out.println(process);
+		return clientProcess;
+	}
+
+	/**
+	 * Returns the amount of free memory the daemon can hand out to its clients. The headroom reserved for the growth
+	 * of the memory used outside the client processes is not included.
+	 * 
+	 * @return the amount of free memory in kilobytes or <code>-1</code> if the amount could not be determined
+	 */
+	private int getFreeMemory() {
+
+		final int freeMemory = readFreeMemory();
+		if (freeMemory == -1) {
+			return freeMemory;
 		}
 
-		return false;
+		// Keep the memory free which processes outside the daemon's control are expected to claim
+		return Math.max(0, freeMemory - this.nodeAccountant.getHeadroom());
 	}
 
 	/**
-	 * {@inheritDoc}
+	 * Reads the amount of free memory. If the daemon runs inside a cgroup with a memory limit, the amount is
+	 * additionally capped by the memory still available inside that cgroup.
+	 * 
+	 * @return the amount of free memory in kilobytes or <code>-1</code> if the amount could not be determined
 	 */
-	@Override
-	public synchronized void relinquishMemory(final int clientPID, final int amountOfMemory) throws IOException {
+	private int readFreeMemory() {
 
-		Log.info("Process with ID " + clientPID + " relinquishes " + amountOfMemory
-			+ " kilobytes of additional memory");
+		final int freeMemory = Utils.getFreePhysicalMemory();
+		if (this.cgroup == null) {
+			return freeMemory;
+		}
 
-		final Integer pid = Integer.valueOf(clientPID);
-		final ClientProcess clientProcess = this.clientProcesses.get(pid);
+		final int availableMemory = this.cgroup.getAvailableMemory();
+		if (availableMemory == -1) {
+			return freeMemory;
+		}
 
-		if (clientProcess == null) {
-			Log.error("Cannot find process with ID " + clientPID);
-			return;
+		if (freeMemory == -1) {
+			return availableMemory;
 		}
 
-		clientProcess.decreaseGrantedMemoryShare(amountOfMemory);
+		return Math.min(freeMemory, availableMemory);
+	}
+
+	/**
+	 * Takes a snapshot of the node and client state for the allocation policy.
+	 * 
+	 * @return a snapshot of the node and client state
+	 */
+	private NodeState getNodeState() {
+
+		return getNodeState(subtractGraceMargin(getFreeMemory()));
+	}
+
+	/**
+	 * Takes a snapshot of the node and client state for the allocation policy.
+	 * 
+	 * @param freeMemory
+	 *        the amount of free memory after subtracting the grace margin in kilobytes
+	 * @return a snapshot of the node and client state
+	 */
+	private NodeState getNodeState(final int freeMemory) {
+
+		final List<ClientState> clientStates = new ArrayList<ClientState>(this.clientProcesses.size());
+		for (final ClientProcess clientProcess : this.clientProcesses.values()) {
+			clientStates.add(clientProcess.getState());
+		}
+
+		return new NodeState(freeMemory - this.memoryLedger.getOutstandingGrants(), clientStates);
+	}
+
+	/**
+	 * Creates the allocation policy selected by the configuration, falling back to the proportional policy if the
+	 * selected policy cannot be created.
+	 * 
+	 * @return the allocation policy
+	 */
+	private static AllocationPolicy createAllocationPolicy() {
+
+		final String name = Configuration.getString(ALLOCATION_POLICY_KEY, AllocationPolicies.PROPORTIONAL);
+		try {
+			final AllocationPolicy allocationPolicy = AllocationPolicies.create(name);
+			Log.info("Using allocation policy " + name);
+			return allocationPolicy;
+		} catch (IllegalArgumentException iae) {
+			Log.error(iae.getMessage() + ", using allocation policy " + AllocationPolicies.PROPORTIONAL);
+			return AllocationPolicies.create(AllocationPolicies.PROPORTIONAL);
+		}
 	}
 
-	private static int addGraceMargin(final int amountOfMemory) {
+	private int addGraceMargin(final int amountOfMemory, final QoSClass qosClass) {
 
-		return amountOfMemory + Math.round((float) amountOfMemory * GRACE_MARGIN);
+		return amountOfMemory
+			+ Math.round((float) amountOfMemory * this.allocationPolicy.getGraceMargin() * qosClass.getBurstFactor());
 	}
 
-	private static int subtractGraceMargin(final int amountOfMemory) {
+	private int subtractGraceMargin(final int amountOfMemory) {
 
-		return amountOfMemory - Math.round((float) amountOfMemory * GRACE_MARGIN);
+		return amountOfMemory - Math.round((float) amountOfMemory * this.allocationPolicy.getGraceMargin());
 	}
 }
@@ -0,0 +1,190 @@
+package edu.berkeley.icsi.memngt.daemon;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+
+import com.esotericsoftware.minlog.Log;
+
+/**
+ * An enforcement task asks a single client process which exceeds its granted memory share to relinquish memory and
+ * checks the outcome afterwards. Enforcement tasks of one round run concurrently, so an unresponsive client cannot
+ * delay the enforcement for the other clients.
+ * <p>
+ * This class is thread-safe.
+ * 
+ * @author warneke
+ */
+final class EnforcementTask implements Callable<EnforcementTask.Outcome>, Comparable<EnforcementTask> {
+
+	/**
+	 * The possible outcomes of an enforcement task.
+	 * 
+	 * @author warneke
+	 */
+	enum Outcome {
+
+		/**
+		 * The client process reduced its memory consumption to its granted share.
+		 */
+		COMPLIED,
+
+		/**
+		 * The client process answered, but still exceeds its granted share.
+		 */
+		STILL_EXCEEDING,
+
+		/**
+		 * The client process has been asked to shrink to its granted share gradually.
+		 */
+		SHRINKING,
+
+		/**
+		 * The client process no longer exists.
+		 */
+		TERMINATED,
+
+		/**
+		 * The RPC call to the client process failed.
+		 */
+		FAILED,
+
+		/**
+		 * The client process did not answer within its timeout or the enforcement round's deadline.
+		 */
+		TIMED_OUT
+	}
+
+	/**
+	 * The client process to enforce the granted memory share for.
+	 */
+	private final ClientProcess clientProcess;
+
+	/**
+	 * The granted memory share of the client process in kilobytes.
+	 */
+	private final int grantedMemoryShare;
+
+	/**
+	 * The amount of memory in kilobytes by which the client exceeds its granted share including the grace margin.
+	 */
+	private final int excessMemoryShare;
+
+	/**
+	 * The time at which the task started to run or <code>-1</code> if it has not started yet.
+	 */
+	private volatile long startTime = -1L;
+
+	/**
+	 * The time in milliseconds between two slices if the client process shrinks gradually.
+	 */
+	private final int sliceInterval;
+
+	EnforcementTask(final ClientProcess clientProcess, final int grantedMemoryShare, final int excessMemoryShare,
+			final int sliceInterval) {
+		this.clientProcess = clientProcess;
+		this.grantedMemoryShare = grantedMemoryShare;
+		this.excessMemoryShare = excessMemoryShare;
+		this.sliceInterval = sliceInterval;
+	}
+
+	ClientProcess getClientProcess() {
+		return this.clientProcess;
+	}
+
+	int getExcessMemoryShare() {
+		return this.excessMemoryShare;
+	}
+
+	/**
+	 * Returns the time at which the task started to run.
+	 * 
+	 * @return the time at which the task started to run or <code>-1</code> if it has not started yet
+	 */
+	long getStartTime() {
+		return this.startTime;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Outcome call() {
+
+		this.startTime = System.currentTimeMillis();
+
+		// Large reductions are spread over time for classes which shrink in slices, unless the client already fell
+		// behind such a schedule
+		final int sliceSize = this.clientProcess.getQoSClass().getReclaimSliceSize();
+		final boolean gradual = sliceSize > 0 && this.excessMemoryShare > sliceSize
+			&& !this.clientProcess.isShrinkingGradually();
+
+		Log.info(this.clientProcess + " exceeds its granted memory share by " + this.excessMemoryShare
+			+ " kilobytes, asking it to relinquish memory" + (gradual ? " gradually..." : "..."));
+
+		try {
+			if (gradual) {
+				final int physicalMemorySize = this.clientProcess.getState().getPhysicalMemorySize();
+				this.clientProcess.setReductionSchedule(new ReductionSchedule(this.startTime, physicalMemorySize,
+					sliceSize, this.sliceInterval));
+				try {
+					this.clientProcess.grantedMemoryShareReduced(this.grantedMemoryShare, sliceSize,
+						this.sliceInterval);
+					return Outcome.SHRINKING;
+				} catch (IOException ioe) {
+					// The client may not support gradual reductions, ask it to shrink at once instead
+					Log.warn("Unable to reduce the memory share of " + this.clientProcess
+						+ " gradually, reducing it at once: ", ioe);
+				}
+			}
+
+			this.clientProcess.setReductionSchedule(null);
+			this.clientProcess.grantedMemoryShareChanged(this.grantedMemoryShare);
+		} catch (IOException ioe) {
+			Log.warn("I/O error while enforcing the memory share for " + this.clientProcess + ": ", ioe);
+			return Outcome.FAILED;
+		} catch (InterruptedException ie) {
+			return Outcome.TIMED_OUT;
+		}
+
+		final int physicalMemorySize = this.clientProcess.getPhysicalMemorySize();
+		if (physicalMemorySize == -1) {
+			return Outcome.TERMINATED;
+		}
+
+		final int excessMemoryShare = physicalMemorySize - this.grantedMemoryShare;
+		if (excessMemoryShare > 0) {
+			Log.info(this.clientProcess + " still exceeds its granted memory share by " + excessMemoryShare
+				+ " kilobytes");
+			return Outcome.STILL_EXCEEDING;
+		}
+
+		Log.info(this.clientProcess + " reduced its physical memory consumption to " + physicalMemorySize);
+
+		return Outcome.COMPLIED;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public int compareTo(final EnforcementTask enforcementTask) {
+
+		// Clients of lower quality of service classes come first
+		final int rank = this.clientProcess.getQoSClass().getRank();
+		final int otherRank = enforcementTask.clientProcess.getQoSClass().getRank();
+		if (rank != otherRank) {
+			return rank - otherRank;
+		}
+
+		// Within a class, tasks with the larger excess come first
+		if (this.excessMemoryShare > enforcementTask.excessMemoryShare) {
+			return -1;
+		}
+
+		if (this.excessMemoryShare < enforcementTask.excessMemoryShare) {
+			return 1;
+		}
+
+		return 0;
+	}
+}
@@ -0,0 +1,173 @@
+package edu.berkeley.icsi.memngt.daemon;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import edu.berkeley.icsi.memngt.protocols.QoSClass;
+
+/**
+ * The garbage collection scheduler staggers the forced garbage collections of the client processes, so that their
+ * collections do not all saturate the node's cores at the same moment. The scheduler runs a fixed number of lanes,
+ * which determines how many collections may overlap. A client asking for a slot is assigned to the lane which becomes
+ * free first and told how long to wait. Latency-critical clients are never delayed, their collections go first and
+ * push back the slots handed out later. The delay is capped, so enforcement is never held up indefinitely. If every
+ * lane is booked beyond the maximum delay, the client is not assigned a slot and collects at once. Holding it until
+ * the maximum delay would only make all such clients collect together at that moment.
+ * <p>
+ * Each slot is kept as a reservation of its own, so a client completing its collection early only frees its own
+ * reservation, not the collections it was scheduled around.
+ * <p>
+ * This class is thread-safe.
+ * 
+ * @author warneke
+ */
+final class GCScheduler {
+
+	/**
+	 * Configuration key for the number of garbage collections which may run at the same time.
+	 */
+	private static final String CONCURRENCY_KEY = "gcConcurrency";
+
+	/**
+	 * Configuration key for the maximum time in milliseconds a client is asked to delay its garbage collection.
+	 */
+	private static final String MAXIMUM_DELAY_KEY = "gcMaximumDelay";
+
+	/**
+	 * A slot reserved for the garbage collection of a single client.
+	 * <p>
+	 * This class is not thread-safe.
+	 * 
+	 * @author warneke
+	 */
+	private static final class Reservation {
+
+		private final int pid;
+
+		/**
+		 * The time in milliseconds at which the reservation ends.
+		 */
+		private final long end;
+
+		private Reservation(final int pid, final long end) {
+			this.pid = pid;
+			this.end = end;
+		}
+	}
+
+	/**
+	 * The reservations of each lane.
+	 */
+	private final List<List<Reservation>> lanes;
+
+	/**
+	 * The maximum time in milliseconds a client is asked to delay its garbage collection.
+	 */
+	private final int maximumDelay;
+
+	/**
+	 * Constructs a new garbage collection scheduler.
+	 * 
+	 * @param delayLimit
+	 *        the upper bound in milliseconds for the configured maximum delay, so a client waiting for its slot
+	 *        still responds within the daemon's enforcement timeout
+	 */
+	GCScheduler(final int delayLimit) {
+
+		final int concurrency = Math.max(1, Configuration.getInteger(CONCURRENCY_KEY, Runtime.getRuntime()
+			.availableProcessors() / 4));
+
+		this.lanes = new ArrayList<List<Reservation>>(concurrency);
+		for (int i = 0; i < concurrency; ++i) {
+			this.lanes.add(new ArrayList<Reservation>());
+		}
+
+		this.maximumDelay = Math.max(0, Math.min(delayLimit, Configuration.getInteger(MAXIMUM_DELAY_KEY, 1000)));
+	}
+
+	/**
+	 * Assigns a garbage collection slot to the given client.
+	 * 
+	 * @param pid
+	 *        the process ID of the client
+	 * @param qosClass
+	 *        the quality of service class of the client
+	 * @param expectedDuration
+	 *        the expected duration of the collection in milliseconds
+	 * @param now
+	 *        the current time in milliseconds
+	 * @return the time in milliseconds the client must wait before it starts collecting, <code>0</code> if the client
+	 *         collects at once
+	 */
+	synchronized int schedule(final int pid, final QoSClass qosClass, final int expectedDuration, final long now) {
+
+		List<Reservation> lane = null;
+		long laneBusyUntil = Long.MAX_VALUE;
+		for (final List<Reservation> candidate : this.lanes) {
+
+			final long busyUntil = getBusyUntil(candidate, now);
+			if (busyUntil < laneBusyUntil) {
+				lane = candidate;
+				laneBusyUntil = busyUntil;
+			}
+		}
+
+		final long delay = laneBusyUntil - now;
+		if (delay > this.maximumDelay && qosClass != QoSClass.LATENCY_CRITICAL) {
+			return 0;
+		}
+
+		final int duration = Math.max(1, Math.min(expectedDuration, this.maximumDelay));
+		lane.add(new Reservation(pid, laneBusyUntil + duration));
+
+		return (qosClass == QoSClass.LATENCY_CRITICAL) ? 0 : (int) delay;
+	}
+
+	/**
+	 * Frees the remainder of the slots the given client holds once its collection has completed.
+	 * 
+	 * @param pid
+	 *        the process ID of the client
+	 * @param now
+	 *        the current time in milliseconds
+	 */
+	synchronized void complete(final int pid, final long now) {
+
+		for (final List<Reservation> lane : this.lanes) {
+
+			final Iterator<Reservation> it = lane.iterator();
+			while (it.hasNext()) {
+				if (it.next().pid == pid) {
+					it.remove();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Removes the reservations of the given lane which have ended and returns the time at which the lane becomes free.
+	 * 
+	 * @param lane
+	 *        the lane
+	 * @param now
+	 *        the current time in milliseconds
+	 * @return the time in milliseconds at which the lane becomes free, at least <code>now</code>
+	 */
+	private static long getBusyUntil(final List<Reservation> lane, final long now) {
+
+		long busyUntil = now;
+		final Iterator<Reservation> it = lane.iterator();
+		while (it.hasNext()) {
+
+			final Reservation reservation = it.next();
+			if (reservation.end <= now) {
+				it.remove();
+			} else {
+				busyUntil = Math.max(busyUntil, reservation.end);
+			}
+		}
+
+		return busyUntil;
+	}
+}
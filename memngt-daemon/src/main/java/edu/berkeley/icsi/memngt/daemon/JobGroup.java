@@ -0,0 +1,118 @@
+package edu.berkeley.icsi.memngt.daemon;
+
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+/**
+ * A job group is a set of client processes which belong to the same job, for example a master and its workers. The
+ * members of a group share a quota, and memory moves between them according to their demand before the group
+ * competes with other jobs for node-wide memory. Operations which move memory between the members or check the quota
+ * before granting memory to a member synchronize on the group.
+ * <p>
+ * The quota is set by the member creating the group, later members may only lower it. A group above its quota, for
+ * example after its quota has been lowered or a member has joined with a large share, receives no further memory and
+ * gives up the memory its members do not use. Memory its members use is not taken back.
+ * <p>
+ * This class is thread-safe.
+ * 
+ * @author warneke
+ */
+final class JobGroup {
+
+	/**
+	 * The name of the group.
+	 */
+	private final String name;
+
+	/**
+	 * The members of the group.
+	 */
+	private final Set<ClientProcess> members = new CopyOnWriteArraySet<ClientProcess>();
+
+	/**
+	 * The maximum total granted memory share of the group in kilobytes, <code>0</code> if the group has no quota.
+	 */
+	private volatile int quota = 0;
+
+	JobGroup(final String name) {
+		this.name = name;
+	}
+
+	String getName() {
+		return this.name;
+	}
+
+	Set<ClientProcess> getMembers() {
+		return this.members;
+	}
+
+	void addMember(final ClientProcess clientProcess) {
+		this.members.add(clientProcess);
+	}
+
+	void removeMember(final ClientProcess clientProcess) {
+		this.members.remove(clientProcess);
+	}
+
+	boolean isEmpty() {
+		return this.members.isEmpty();
+	}
+
+	int getQuota() {
+		return this.quota;
+	}
+
+	void setQuota(final int quota) {
+		this.quota = quota;
+	}
+
+	/**
+	 * Returns the total granted memory share of the group's members.
+	 * 
+	 * @return the total granted memory share in kilobytes
+	 */
+	int getGrantedMemoryShare() {
+
+		int grantedMemoryShare = 0;
+		for (final ClientProcess member : this.members) {
+			grantedMemoryShare += member.getGrantedMemoryShare();
+		}
+
+		return grantedMemoryShare;
+	}
+
+	/**
+	 * Checks whether the group can take the given amount of additional memory from the node without exceeding its
+	 * quota.
+	 * 
+	 * @param amountOfMemory
+	 *        the amount of additional memory in kilobytes
+	 * @return <code>true</code> if the group stays within its quota, <code>false</code> otherwise
+	 */
+	boolean hasQuotaFor(final int amountOfMemory) {
+		return amountOfMemory <= getRemainingQuota();
+	}
+
+	/**
+	 * Returns the amount of memory the group can take from the node before it reaches its quota.
+	 * 
+	 * @return the remaining quota in kilobytes or {@link Integer#MAX_VALUE} if the group has no quota
+	 */
+	int getRemainingQuota() {
+
+		final int quota = this.quota;
+		if (quota <= 0) {
+			return Integer.MAX_VALUE;
+		}
+
+		return Math.max(0, quota - getGrantedMemoryShare());
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public String toString() {
+		return "job group " + this.name;
+	}
+}
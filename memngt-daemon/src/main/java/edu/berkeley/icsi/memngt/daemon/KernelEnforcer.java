@@ -0,0 +1,192 @@
+package edu.berkeley.icsi.memngt.daemon;
+
+import java.io.IOException;
+
+import com.esotericsoftware.minlog.Log;
+
+/**
+ * The kernel enforcer places every registered client process in a cgroup v2 child of its own and programs the
+ * client's granted memory share into the cgroup's memory controller. The throttling limit (<code>memory.high</code>)
+ * is set to the granted share plus the grace margin, the hard limit (<code>memory.max</code>) additionally includes
+ * the configured hard limit margin. Clients whose quality of service class is not strictly enforced are only
+ * throttled and never receive a hard limit. While the cooperative negotiation remains the graceful path to enforce
+ * memory shares, the kernel acts as a backstop which throttles and reclaims misbehaving clients without any RPC.
+ * <p>
+ * Note that the kernel does not migrate memory charges when a process moves between cgroups, so memory allocated by a
+ * client before its registration remains charged to its original cgroup.
+ * <p>
+ * This class is thread-safe.
+ * 
+ * @author warneke
+ */
+final class KernelEnforcer {
+
+	/**
+	 * Configuration key to enable kernel-based enforcement.
+	 */
+	private static final String ENABLED_KEY = "kernelEnforcement";
+
+	/**
+	 * Configuration key for the path of the parent cgroup below which the client cgroups are created.
+	 */
+	private static final String CGROUP_ROOT_KEY = "cgroupRoot";
+
+	/**
+	 * Configuration key for the fraction by which the hard limit exceeds the throttling limit.
+	 */
+	private static final String HARD_LIMIT_MARGIN_KEY = "hardLimitMargin";
+
+	/**
+	 * The name of the cgroup created next to the daemon's cgroup if no parent cgroup is configured.
+	 */
+	private static final String DEFAULT_CGROUP_NAME = "memngt";
+
+	/**
+	 * The prefix of the names of the client cgroups.
+	 */
+	private static final String CLIENT_CGROUP_PREFIX = "client-";
+
+	/**
+	 * The parent cgroup below which the client cgroups are created.
+	 */
+	private final Cgroup root;
+
+	/**
+	 * The fraction by which the hard limit exceeds the throttling limit.
+	 */
+	private final float hardLimitMargin;
+
+	private KernelEnforcer(final Cgroup root, final float hardLimitMargin) {
+		this.root = root;
+		this.hardLimitMargin = hardLimitMargin;
+	}
+
+	/**
+	 * Creates a new kernel enforcer according to the daemon's configuration.
+	 * 
+	 * @param daemonCgroup
+	 *        the cgroup the daemon runs in, possibly <code>null</code>
+	 * @return the new kernel enforcer or <code>null</code> if kernel-based enforcement is disabled or not supported on
+	 *         this system
+	 */
+	static KernelEnforcer create(final Cgroup daemonCgroup) {
+
+		if (!Configuration.getBoolean(ENABLED_KEY, false)) {
+			return null;
+		}
+
+		Cgroup root;
+		final String rootPath = Configuration.getString(CGROUP_ROOT_KEY, null);
+		try {
+			if (rootPath != null) {
+				root = Cgroup.getCgroup(rootPath);
+			} else if (daemonCgroup != null) {
+				// The daemon's cgroup cannot have children with processes, so create a sibling
+				final Cgroup parent = daemonCgroup.getParent();
+				root = (parent == null ? daemonCgroup : parent).createChild(DEFAULT_CGROUP_NAME);
+			} else {
+				root = null;
+			}
+
+			if (root == null || !root.hasMemoryController()) {
+				Log.error("Kernel-based enforcement requires a cgroup v2 hierarchy with an enabled memory controller");
+				return null;
+			}
+
+			root.enableMemoryControllerForChildren();
+
+		} catch (IOException ioe) {
+			Log.error("Unable to set up kernel-based enforcement: ", ioe);
+			return null;
+		}
+
+		Log.info("Enforcing granted memory shares through cgroups below " + root);
+
+		return new KernelEnforcer(root, Configuration.getFloat(HARD_LIMIT_MARGIN_KEY, 0.25f));
+	}
+
+	/**
+	 * Returns the parent cgroup below which the client cgroups are created.
+	 * 
+	 * @return the parent cgroup of the client cgroups
+	 */
+	Cgroup getRoot() {
+		return this.root;
+	}
+
+	/**
+	 * Moves the client process with the given ID into a cgroup of its own.
+	 * 
+	 * @param pid
+	 *        the ID of the client process
+	 * @return the cgroup the client process has been moved to or <code>null</code> if the process could not be moved
+	 */
+	Cgroup attach(final int pid) {
+
+		try {
+			final Cgroup cgroup = this.root.createChild(CLIENT_CGROUP_PREFIX + pid);
+			cgroup.addProcess(pid);
+			return cgroup;
+		} catch (IOException ioe) {
+			Log.error("Unable to move process " + pid + " into a cgroup of its own: ", ioe);
+		}
+
+		return null;
+	}
+
+	/**
+	 * Programs the memory limits of the given client process into its cgroup.
+	 * 
+	 * @param clientProcess
+	 *        the client process
+	 * @param throttlingLimit
+	 *        the granted memory share of the client process including the grace margin in kilobytes
+	 */
+	void enforce(final ClientProcess clientProcess, final int throttlingLimit) {
+
+		final Cgroup cgroup = clientProcess.getCgroup();
+		if (cgroup == null) {
+			return;
+		}
+
+		final int hardLimit = throttlingLimit + Math.round((float) throttlingLimit * this.hardLimitMargin);
+
+		try {
+			// Set the throttling limit first, so the kernel starts reclaiming before the hard limit is lowered
+			cgroup.setMemoryHigh(throttlingLimit);
+			if (clientProcess.getQoSClass().isStrictlyEnforced()) {
+				cgroup.setMemoryMax(hardLimit);
+			}
+		} catch (IOException ioe) {
+			Log.warn("Unable to program memory limits for " + clientProcess + ": ", ioe);
+		}
+	}
+
+	/**
+	 * Removes the cgroup of the given client process once the daemon no longer manages the process. The kernel only
+	 * removes cgroups without processes, so if the process is still alive, its cgroup remains and its memory limits
+	 * are lifted instead.
+	 * 
+	 * @param clientProcess
+	 *        the client process
+	 */
+	void detach(final ClientProcess clientProcess) {
+
+		final Cgroup cgroup = clientProcess.getCgroup();
+		if (cgroup == null) {
+			return;
+		}
+
+		if (cgroup.delete()) {
+			return;
+		}
+
+		Log.debug("Unable to remove cgroup " + cgroup + " of " + clientProcess + ", lifting its memory limits");
+
+		try {
+			cgroup.removeMemoryLimits();
+		} catch (IOException ioe) {
+			Log.warn("Unable to lift memory limits of " + clientProcess + ": ", ioe);
+		}
+	}
+}
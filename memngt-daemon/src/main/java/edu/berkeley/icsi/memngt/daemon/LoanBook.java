@@ -0,0 +1,218 @@
+package edu.berkeley.icsi.memngt.daemon;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * The loan book keeps track of the memory loans a client process has borrowed from the daemon. Loans are recalled in
+ * the reverse order they were made, so the memory the client borrowed last is returned first. Recalled loans remain in
+ * the book until the client has returned the memory or their return deadline has passed twice: a loan which is overdue
+ * for the first time is escalated and its deadline extended once.
+ * <p>
+ * This class is thread-safe.
+ * 
+ * @author warneke
+ */
+final class LoanBook {
+
+	/**
+	 * A single memory loan.
+	 * <p>
+	 * This class is not thread-safe.
+	 * 
+	 * @author warneke
+	 */
+	static final class Loan {
+
+		/**
+		 * The ID which tags the loan.
+		 */
+		private final int loanID;
+
+		/**
+		 * The amount of memory borrowed in kilobytes.
+		 */
+		private int amount;
+
+		/**
+		 * The time in milliseconds the client has to return the memory after the loan has been recalled.
+		 */
+		private final int returnDeadline;
+
+		/**
+		 * The time in milliseconds at which the memory must have been returned or <code>-1</code> if the loan has not
+		 * been recalled yet.
+		 */
+		private long dueTime = -1L;
+
+		/**
+		 * Stores whether the loan has been escalated after its first return deadline passed.
+		 */
+		private boolean escalated = false;
+
+		private Loan(final int loanID, final int amount, final int returnDeadline) {
+			this.loanID = loanID;
+			this.amount = amount;
+			this.returnDeadline = returnDeadline;
+		}
+
+		int getLoanID() {
+			return this.loanID;
+		}
+
+		int getAmount() {
+			return this.amount;
+		}
+	}
+
+	/**
+	 * The loans which have not been recalled yet, ordered from the oldest to the most recent loan.
+	 */
+	private final LinkedList<Loan> activeLoans = new LinkedList<Loan>();
+
+	/**
+	 * The loans which have been recalled, but not been returned yet.
+	 */
+	private final List<Loan> recalledLoans = new ArrayList<Loan>();
+
+	/**
+	 * Records a new loan.
+	 * 
+	 * @param loanID
+	 *        the ID which tags the loan
+	 * @param amount
+	 *        the amount of memory borrowed in kilobytes
+	 * @param returnDeadline
+	 *        the time in milliseconds the client has to return the memory after the loan has been recalled
+	 */
+	synchronized void add(final int loanID, final int amount, final int returnDeadline) {
+		this.activeLoans.addLast(new Loan(loanID, amount, returnDeadline));
+	}
+
+	/**
+	 * Returns the amount of memory borrowed through loans which have not been recalled yet.
+	 * 
+	 * @return the amount of borrowed memory in kilobytes
+	 */
+	synchronized int getBorrowedMemory() {
+
+		int borrowedMemory = 0;
+		for (final Loan loan : this.activeLoans) {
+			borrowedMemory += loan.amount;
+		}
+
+		return borrowedMemory;
+	}
+
+	/**
+	 * Recalls the most recent loans until they cover the given amount of memory or no loans are left. Loans are
+	 * recalled as a whole, so the recalled memory may exceed the given amount.
+	 * 
+	 * @param amountOfMemory
+	 *        the amount of memory to recall in kilobytes
+	 * @param now
+	 *        the current time in milliseconds
+	 * @return the recalled loans, the most recent one first
+	 */
+	synchronized List<Loan> recall(final int amountOfMemory, final long now) {
+
+		final List<Loan> loans = new ArrayList<Loan>();
+		int recalledMemory = 0;
+		while (recalledMemory < amountOfMemory && !this.activeLoans.isEmpty()) {
+
+			final Loan loan = this.activeLoans.removeLast();
+			loan.dueTime = now + loan.returnDeadline;
+			this.recalledLoans.add(loan);
+			loans.add(loan);
+			recalledMemory += loan.amount;
+		}
+
+		return loans;
+	}
+
+	/**
+	 * Forgives the most recent loans until the borrowed memory no longer exceeds the given amount. This is necessary
+	 * when the client's granted share shrinks for other reasons than a recall.
+	 * 
+	 * @param maximumBorrowedMemory
+	 *        the maximum amount of borrowed memory in kilobytes
+	 */
+	synchronized void trim(final int maximumBorrowedMemory) {
+
+		int excess = getBorrowedMemory() - Math.max(0, maximumBorrowedMemory);
+		while (excess > 0 && !this.activeLoans.isEmpty()) {
+
+			final Loan loan = this.activeLoans.getLast();
+			if (loan.amount > excess) {
+				loan.amount -= excess;
+				return;
+			}
+
+			this.activeLoans.removeLast();
+			excess -= loan.amount;
+		}
+	}
+
+	/**
+	 * Checks whether the client has recalled loans it has not returned yet.
+	 * 
+	 * @return <code>true</code> if the client has recalled loans it has not returned yet, <code>false</code> otherwise
+	 */
+	synchronized boolean hasRecalledLoans() {
+		return !this.recalledLoans.isEmpty();
+	}
+
+	/**
+	 * Marks all recalled loans as returned.
+	 */
+	synchronized void markReturned() {
+		this.recalledLoans.clear();
+	}
+
+	/**
+	 * Escalates the recalled loans whose return deadline has passed for the first time and extends their deadline by
+	 * another return deadline.
+	 * 
+	 * @param now
+	 *        the current time in milliseconds
+	 * @return the loans which have just been escalated
+	 */
+	synchronized List<Loan> escalateOverdueLoans(final long now) {
+
+		final List<Loan> escalatedLoans = new ArrayList<Loan>();
+		for (final Loan loan : this.recalledLoans) {
+			if (!loan.escalated && now >= loan.dueTime) {
+				loan.escalated = true;
+				loan.dueTime = now + loan.returnDeadline;
+				escalatedLoans.add(loan);
+			}
+		}
+
+		return escalatedLoans;
+	}
+
+	/**
+	 * Removes the escalated loans whose extended return deadline has passed as well.
+	 * 
+	 * @param now
+	 *        the current time in milliseconds
+	 * @return the escalated loans whose extended return deadline has passed
+	 */
+	synchronized List<Loan> removeOverdueLoans(final long now) {
+
+		final List<Loan> overdueLoans = new ArrayList<Loan>();
+		final Iterator<Loan> it = this.recalledLoans.iterator();
+		while (it.hasNext()) {
+
+			final Loan loan = it.next();
+			if (loan.escalated && now >= loan.dueTime) {
+				overdueLoans.add(loan);
+				it.remove();
+			}
+		}
+
+		return overdueLoans;
+	}
+}
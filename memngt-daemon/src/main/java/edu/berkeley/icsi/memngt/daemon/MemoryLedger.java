@@ -0,0 +1,231 @@
+package edu.berkeley.icsi.memngt.daemon;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The memory ledger keeps track of the memory which has been granted to client processes, but which the clients have
+ * not allocated yet. This memory still shows up as free memory in the operating system's statistics, so without the
+ * ledger concurrent requests could be granted the same free memory twice.
+ * <p>
+ * The ledger consists of a baseline, which the daemon's main loop periodically recomputes from the clients' granted
+ * shares and their actual memory consumption, and the grants made since then. Grants and releases are lock-free, only
+ * the refreshes and the removals of clients synchronize on the ledger.
+ * <p>
+ * Memory reclaimed from some clients on behalf of another client is held for the latter until the reclaim has
+ * completed. Held memory is not part of the baseline, so it survives refreshes, and it counts as promised, so it can
+ * neither be offered to other clients nor granted back to the clients it was reclaimed from in the meantime.
+ * <p>
+ * A removed client's unallocated grant is returned right away, unless a refresh has begun since the client was taken
+ * out of the daemon's bookkeeping. The refresh may or may not have counted the client then, so its memory is left to
+ * the next refresh instead of possibly being subtracted twice.
+ * <p>
+ * This class is thread-safe.
+ * 
+ * @author warneke
+ */
+final class MemoryLedger {
+
+	/**
+	 * The amount of granted, but not yet allocated memory in kilobytes as determined by the last refresh.
+	 */
+	private final AtomicInteger baseline = new AtomicInteger(0);
+
+	/**
+	 * The amount of memory in kilobytes granted since the last refresh.
+	 */
+	private final AtomicInteger recentGrants = new AtomicInteger(0);
+
+	/**
+	 * The amount of memory in kilobytes held for pending reclaims.
+	 */
+	private final AtomicInteger heldMemory = new AtomicInteger(0);
+
+	/**
+	 * The number of refreshes begun so far.
+	 */
+	private int refreshes = 0;
+
+	/**
+	 * Stores whether a refresh is in progress.
+	 */
+	private boolean refreshing = false;
+
+	/**
+	 * Returns the amount of granted, but not yet allocated memory.
+	 * 
+	 * @return the amount of granted, but not yet allocated memory in kilobytes
+	 */
+	int getOutstandingGrants() {
+		return this.baseline.get() + this.recentGrants.get() + this.heldMemory.get();
+	}
+
+	/**
+	 * Atomically grants the given amount of memory if it is covered by the free memory not yet promised to other
+	 * clients.
+	 * 
+	 * @param amountOfMemory
+	 *        the amount of memory to grant in kilobytes
+	 * @param freeMemory
+	 *        the amount of free memory as reported by the operating system in kilobytes
+	 * @return <code>true</code> if the memory has been granted, <code>false</code> otherwise
+	 */
+	boolean tryGrant(final int amountOfMemory, final int freeMemory) {
+
+		while (true) {
+
+			final int grants = this.recentGrants.get();
+			if (amountOfMemory > freeMemory - this.baseline.get() - this.heldMemory.get() - grants) {
+				return false;
+			}
+
+			if (this.recentGrants.compareAndSet(grants, grants + amountOfMemory)) {
+				return true;
+			}
+
+			// We had a race, try again
+		}
+	}
+
+	/**
+	 * Atomically grants as much of the given amount of memory as is covered by the free memory not yet promised to
+	 * other clients.
+	 * 
+	 * @param amountOfMemory
+	 *        the maximum amount of memory to grant in kilobytes
+	 * @param freeMemory
+	 *        the amount of free memory as reported by the operating system in kilobytes
+	 * @return the amount of memory actually granted in kilobytes
+	 */
+	int grantUpTo(final int amountOfMemory, final int freeMemory) {
+
+		while (true) {
+
+			final int grants = this.recentGrants.get();
+			final int amountToGrant = Math.min(amountOfMemory, freeMemory - this.baseline.get()
+				- this.heldMemory.get() - grants);
+			if (amountToGrant <= 0) {
+				return 0;
+			}
+
+			if (this.recentGrants.compareAndSet(grants, grants + amountToGrant)) {
+				return amountToGrant;
+			}
+
+			// We had a race, try again
+		}
+	}
+
+	/**
+	 * Reserves the given amount of memory regardless of the free memory. This is used when memory changes hands
+	 * between clients and must not be counted as free memory before the receiver has allocated it.
+	 * 
+	 * @param amountOfMemory
+	 *        the amount of memory to reserve in kilobytes
+	 */
+	void reserve(final int amountOfMemory) {
+		this.recentGrants.addAndGet(amountOfMemory);
+	}
+
+	/**
+	 * Holds the given amount of memory for a pending reclaim regardless of the free memory.
+	 * 
+	 * @param amountOfMemory
+	 *        the amount of memory to hold in kilobytes
+	 */
+	void hold(final int amountOfMemory) {
+		this.heldMemory.addAndGet(amountOfMemory);
+	}
+
+	/**
+	 * Turns the given amount of held memory into a grant.
+	 * 
+	 * @param amountOfMemory
+	 *        the amount of held memory to grant in kilobytes
+	 */
+	void grantHeld(final int amountOfMemory) {
+
+		this.recentGrants.addAndGet(amountOfMemory);
+		this.heldMemory.addAndGet(-amountOfMemory);
+	}
+
+	/**
+	 * Releases the given amount of held memory.
+	 * 
+	 * @param amountOfMemory
+	 *        the amount of held memory to release in kilobytes
+	 */
+	void releaseHeld(final int amountOfMemory) {
+		this.heldMemory.addAndGet(-amountOfMemory);
+	}
+
+	/**
+	 * Returns previously granted memory which the client did not take to the ledger.
+	 * 
+	 * @param amountOfMemory
+	 *        the amount of memory to return in kilobytes
+	 */
+	void release(final int amountOfMemory) {
+		this.recentGrants.addAndGet(-amountOfMemory);
+	}
+
+	/**
+	 * Marks the beginning of a refresh of the baseline. This method must be called before the granted shares and the
+	 * memory consumption of the clients are examined.
+	 * 
+	 * @return the token to pass to {@link #completeRefresh(int, int)}
+	 */
+	synchronized int beginRefresh() {
+
+		++this.refreshes;
+		this.refreshing = true;
+
+		return this.recentGrants.get();
+	}
+
+	/**
+	 * Completes the refresh of the baseline. Grants made while the clients were examined may be counted twice until
+	 * the next refresh, so the ledger errs on the safe side.
+	 * 
+	 * @param token
+	 *        the token returned by {@link #beginRefresh()}
+	 * @param unallocatedGrants
+	 *        the sum of the granted, but not yet allocated memory of all clients in kilobytes
+	 */
+	synchronized void completeRefresh(final int token, final int unallocatedGrants) {
+
+		this.baseline.set(unallocatedGrants);
+		this.recentGrants.addAndGet(-token);
+		this.refreshing = false;
+	}
+
+	/**
+	 * Marks the beginning of the removal of a client. This method must be called before the client is taken out of the
+	 * daemon's bookkeeping.
+	 * 
+	 * @return the token to pass to {@link #completeRemoval(int, int)}
+	 */
+	synchronized int beginRemoval() {
+		return this.refreshing ? -1 : this.refreshes;
+	}
+
+	/**
+	 * Completes the removal of a client and returns its unallocated grant to the ledger, unless a refresh has
+	 * overlapped with the removal.
+	 * 
+	 * @param token
+	 *        the token returned by {@link #beginRemoval()}
+	 * @param amountOfMemory
+	 *        the amount of memory the client was granted, but had not allocated, in kilobytes
+	 * @return <code>true</code> if the memory has been returned, <code>false</code> if it is left to the next refresh
+	 */
+	synchronized boolean completeRemoval(final int token, final int amountOfMemory) {
+
+		if (this.refreshing || token != this.refreshes) {
+			return false;
+		}
+
+		this.recentGrants.addAndGet(-amountOfMemory);
+
+		return true;
+	}
+}
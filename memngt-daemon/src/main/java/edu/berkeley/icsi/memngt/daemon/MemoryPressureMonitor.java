@@ -0,0 +1,359 @@
+package edu.berkeley.icsi.memngt.daemon;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.esotericsoftware.minlog.Log;
+
+/**
+ * The memory pressure monitor watches the kernel's pressure stall information (PSI) in
+ * <code>/proc/pressure/memory</code> and the <code>memory.events</code> counters of the daemon's cgroup and of the root
+ * cgroup below which the clients are enforced. The latter sits next to the daemon's cgroup, and its counters are
+ * hierarchical, so they reveal when any client hits its own hard limit. Whenever the memory stall time within the
+ * configured window crosses the configured threshold or the kernel reports that a watched cgroup hit its limit, the
+ * daemon's main loop is woken up immediately.
+ * <p>
+ * The throttling counter (<code>high</code>) is only watched for the daemon's cgroup. The clients' throttling limits
+ * sit just above their granted shares, so a client running at its share bumps the counter of the root continuously,
+ * which would keep the main loop from ever backing off.
+ * <p>
+ * Java offers no means to <code>poll</code> on the PSI trigger file descriptors, so the monitor samples the cumulative
+ * stall counters in a short interval instead. Reading these counters is cheap and does not require any privileges.
+ * <p>
+ * This class is thread-safe.
+ * 
+ * @author warneke
+ */
+final class MemoryPressureMonitor extends Thread {
+
+	/**
+	 * The file providing the pressure stall information for memory.
+	 */
+	private static final File PSI_FILE = new File("/proc/pressure/memory");
+
+	/**
+	 * Configuration key for the interval in which the stall counters are sampled in milliseconds.
+	 */
+	private static final String SAMPLING_INTERVAL_KEY = "pressureSamplingInterval";
+
+	/**
+	 * Configuration key for the length of the window the stall threshold refers to in milliseconds.
+	 */
+	private static final String STALL_WINDOW_KEY = "pressureStallWindow";
+
+	/**
+	 * Configuration key for the stall time in microseconds within the window which triggers an event.
+	 */
+	private static final String STALL_THRESHOLD_KEY = "pressureStallThreshold";
+
+	/**
+	 * The interval in which the stall counters are sampled in milliseconds.
+	 */
+	private final int samplingInterval;
+
+	/**
+	 * The cumulative stall times observed at the last samples, used as a ring buffer covering the stall window.
+	 */
+	private final long[] stallHistory;
+
+	/**
+	 * The stall time in microseconds within the window which triggers an event.
+	 */
+	private final long stallThreshold;
+
+	/**
+	 * The <code>memory.events</code> files of the watched cgroups, possibly empty.
+	 */
+	private final File[] eventsFiles;
+
+	/**
+	 * Stores for each watched cgroup whether its <code>high</code> counter is taken into account.
+	 */
+	private final boolean[] watchThrottling;
+
+	/**
+	 * The index of the next slot in the stall history to be written.
+	 */
+	private int historyIndex = 0;
+
+	/**
+	 * The number of valid entries in the stall history.
+	 */
+	private int historySize = 0;
+
+	/**
+	 * The sum of the watched limit counters of each watched cgroup at the last sample, <code>-1</code> if unknown.
+	 */
+	private final long[] lastLimitEvents;
+
+	/**
+	 * Stores whether an event has been detected since the main loop last waited for one.
+	 */
+	private boolean eventPending = false;
+
+	private MemoryPressureMonitor(final File[] eventsFiles, final boolean[] watchThrottling,
+			final int samplingInterval, final int stallWindow, final long stallThreshold) {
+		super("Memory Pressure Monitor");
+
+		this.samplingInterval = samplingInterval;
+		this.stallHistory = new long[Math.max(1, stallWindow / samplingInterval) + 1];
+		this.stallThreshold = stallThreshold;
+		this.eventsFiles = eventsFiles;
+		this.watchThrottling = watchThrottling;
+		this.lastLimitEvents = new long[eventsFiles.length];
+		Arrays.fill(this.lastLimitEvents, -1L);
+
+		setDaemon(true);
+	}
+
+	/**
+	 * Creates and starts a new memory pressure monitor.
+	 * 
+	 * @param daemonCgroup
+	 *        the cgroup the daemon runs in, possibly <code>null</code>
+	 * @param enforcementRoot
+	 *        the cgroup below which the client cgroups are created, possibly <code>null</code>
+	 * @return the new memory pressure monitor or <code>null</code> if the kernel provides neither pressure stall
+	 *         information nor cgroup memory events
+	 */
+	static MemoryPressureMonitor start(final Cgroup daemonCgroup, final Cgroup enforcementRoot) {
+
+		final List<File> eventsFiles = new ArrayList<File>(2);
+		final boolean[] watchThrottling = new boolean[2];
+		for (final Cgroup cgroup : new Cgroup[] { daemonCgroup, enforcementRoot }) {
+			if (cgroup != null) {
+				final File eventsFile = cgroup.getFile("memory.events");
+				if (eventsFile.exists()) {
+					// The clients are throttled at their granted shares, so only their hard limits are of interest
+					watchThrottling[eventsFiles.size()] = (cgroup == daemonCgroup);
+					eventsFiles.add(eventsFile);
+				}
+			}
+		}
+
+		final boolean psiAvailable = PSI_FILE.exists();
+		if (!psiAvailable && eventsFiles.isEmpty()) {
+			Log.info("Kernel provides no memory pressure information, falling back to periodic updates");
+			return null;
+		}
+
+		final int samplingInterval = Math.max(1, Configuration.getInteger(SAMPLING_INTERVAL_KEY, 50));
+		final int stallWindow = Configuration.getInteger(STALL_WINDOW_KEY, 1000);
+		final long stallThreshold = Configuration.getInteger(STALL_THRESHOLD_KEY, 100000);
+
+		final MemoryPressureMonitor monitor = new MemoryPressureMonitor(eventsFiles.toArray(new File[eventsFiles
+			.size()]), Arrays.copyOf(watchThrottling, eventsFiles.size()), samplingInterval, stallWindow,
+			stallThreshold);
+		monitor.start();
+
+		return monitor;
+	}
+
+	/**
+	 * Waits until either memory pressure is detected or the given timeout elapses.
+	 * 
+	 * @param timeout
+	 *        the maximum time to wait in milliseconds
+	 * @return <code>true</code> if memory pressure has been detected, <code>false</code> if the timeout elapsed
+	 * @throws InterruptedException
+	 *         thrown if the caller is interrupted while waiting
+	 */
+	synchronized boolean awaitPressure(final long timeout) throws InterruptedException {
+
+		final long deadline = System.currentTimeMillis() + timeout;
+		while (!this.eventPending) {
+			final long now = System.currentTimeMillis();
+			if (now >= deadline) {
+				return false;
+			}
+			wait(deadline - now);
+		}
+
+		this.eventPending = false;
+
+		return true;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void run() {
+
+		while (!isInterrupted()) {
+
+			// Sample both sources on every iteration to keep their baselines up to date
+			final boolean stalled = sampleStallTime();
+			final boolean limitsHit = sampleLimitEvents();
+
+			if (stalled || limitsHit) {
+				synchronized (this) {
+					this.eventPending = true;
+					notifyAll();
+				}
+			}
+
+			try {
+				Thread.sleep(this.samplingInterval);
+			} catch (InterruptedException ie) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Samples the cumulative stall time and checks whether the stall time within the window crossed the threshold.
+	 * 
+	 * @return <code>true</code> if the stall time within the window crossed the threshold, <code>false</code> otherwise
+	 */
+	private boolean sampleStallTime() {
+
+		final long total = readStallTotal();
+		if (total == -1L) {
+			return false;
+		}
+
+		final long[] history = this.stallHistory;
+		final int oldestIndex = (this.historySize < history.length) ? 0 : this.historyIndex;
+		final long oldest = (this.historySize == 0) ? total : history[oldestIndex];
+
+		history[this.historyIndex] = total;
+		this.historyIndex = (this.historyIndex + 1) % history.length;
+		if (this.historySize < history.length) {
+			++this.historySize;
+		}
+
+		if (total - oldest < this.stallThreshold) {
+			return false;
+		}
+
+		// Restart the window, so a single stall does not trigger an event on every sample
+		history[0] = total;
+		this.historyIndex = 1 % history.length;
+		this.historySize = 1;
+
+		return true;
+	}
+
+	/**
+	 * Samples the limit event counters of the watched cgroups and checks whether any of them increased since the last
+	 * sample.
+	 * 
+	 * @return <code>true</code> if a watched cgroup hit its throttling or hard limit since the last sample,
+	 *         <code>false</code> otherwise
+	 */
+	private boolean sampleLimitEvents() {
+
+		boolean limitsHit = false;
+		for (int i = 0; i < this.eventsFiles.length; ++i) {
+
+			final long events = readLimitEvents(this.eventsFiles[i], this.watchThrottling[i]);
+			if (events == -1L) {
+				continue;
+			}
+
+			final long lastEvents = this.lastLimitEvents[i];
+			this.lastLimitEvents[i] = events;
+
+			if (lastEvents != -1L && events > lastEvents) {
+				limitsHit = true;
+			}
+		}
+
+		return limitsHit;
+	}
+
+	/**
+	 * Reads the cumulative time in microseconds in which at least one task stalled on memory.
+	 * 
+	 * @return the cumulative stall time in microseconds or <code>-1</code> if it could not be determined
+	 */
+	private static long readStallTotal() {
+
+		BufferedReader br = null;
+		try {
+			br = new BufferedReader(new FileReader(PSI_FILE));
+			final String line = br.readLine();
+			if (line == null || !line.startsWith("some ")) {
+				return -1L;
+			}
+
+			final int pos = line.indexOf("total=");
+			if (pos == -1) {
+				return -1L;
+			}
+
+			return Long.parseLong(line.substring(pos + 6).trim());
+
+		} catch (FileNotFoundException fnfe) {
+			return -1L;
+		} catch (IOException ioe) {
+			Log.debug("Error reading " + PSI_FILE + ": ", ioe);
+			return -1L;
+		} catch (NumberFormatException nfe) {
+			Log.debug("Unable to parse " + PSI_FILE + ": ", nfe);
+			return -1L;
+		} finally {
+			if (br != null) {
+				try {
+					br.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reads the sum of the <code>max</code> and <code>oom</code> counters and, if requested, the <code>high</code>
+	 * counter from the given <code>memory.events</code> file.
+	 * 
+	 * @param eventsFile
+	 *        the <code>memory.events</code> file to read
+	 * @param includeThrottling
+	 *        <code>true</code> to include the <code>high</code> counter, <code>false</code> otherwise
+	 * @return the sum of the counters or <code>-1</code> if it could not be determined
+	 */
+	private static long readLimitEvents(final File eventsFile, final boolean includeThrottling) {
+
+		long events = 0L;
+
+		BufferedReader br = null;
+		try {
+			br = new BufferedReader(new FileReader(eventsFile));
+			String line = br.readLine();
+			while (line != null) {
+
+				if ((includeThrottling && line.startsWith("high ")) || line.startsWith("max ")
+					|| line.startsWith("oom ")) {
+					events += Long.parseLong(line.substring(line.indexOf(' ') + 1).trim());
+				}
+
+				line = br.readLine();
+			}
+
+		} catch (FileNotFoundException fnfe) {
+			return -1L;
+		} catch (IOException ioe) {
+			Log.debug("Error reading " + eventsFile + ": ", ioe);
+			return -1L;
+		} catch (NumberFormatException nfe) {
+			Log.debug("Unable to parse " + eventsFile + ": ", nfe);
+			return -1L;
+		} finally {
+			if (br != null) {
+				try {
+					br.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+
+		return events;
+	}
+}
@@ -0,0 +1,84 @@
+package edu.berkeley.icsi.memngt.daemon;
+
+import com.esotericsoftware.minlog.Log;
+
+/**
+ * The node accountant keeps track of the memory used outside the registered client processes, i.e. by unregistered
+ * processes, the kernel and memory-backed file systems such as tmpfs. It follows the trend of this unmanaged memory
+ * and determines the headroom the daemon must keep free for its expected growth, so memory handed out to clients is
+ * not consumed by unmanaged memory moments later.
+ * <p>
+ * This class is thread-safe.
+ * 
+ * @author warneke
+ */
+final class NodeAccountant {
+
+	/**
+	 * Configuration key for the time in milliseconds the accountant looks ahead when it forecasts the growth of the
+	 * unmanaged memory, <code>0</code> disables the headroom.
+	 */
+	private static final String HEADROOM_HORIZON_KEY = "headroomHorizon";
+
+	/**
+	 * The minimum change of the headroom in kilobytes which is logged.
+	 */
+	private static final int LOGGING_THRESHOLD = 64 * 1024;
+
+	/**
+	 * The time in milliseconds the accountant looks ahead.
+	 */
+	private final int horizon = Math.max(0, Configuration.getInteger(HEADROOM_HORIZON_KEY, 5000));
+
+	/**
+	 * The history of the unmanaged memory.
+	 */
+	private final UsageHistory history = new UsageHistory();
+
+	/**
+	 * The headroom in kilobytes reserved for the growth of the unmanaged memory.
+	 */
+	private volatile int headroom = 0;
+
+	/**
+	 * Measures the unmanaged memory and updates the headroom.
+	 * 
+	 * @param now
+	 *        the current time in milliseconds
+	 * @param managedMemory
+	 *        the total physical memory size of the registered client processes in kilobytes
+	 */
+	void update(final long now, final int managedMemory) {
+
+		final int totalMemory = Utils.getTotalPhysicalMemory();
+		final int freeMemory = Utils.getFreePhysicalMemory();
+		if (totalMemory == -1 || freeMemory == -1) {
+			return;
+		}
+
+		final int unmanagedMemory = Math.max(0, totalMemory - freeMemory - managedMemory);
+		this.history.record(now, unmanagedMemory, 0);
+
+		if (this.horizon == 0) {
+			return;
+		}
+
+		final int forecast = this.history.forecast(this.horizon);
+		final int headroom = (forecast == -1) ? 0 : Math.max(0, forecast - unmanagedMemory);
+		if (Math.abs(headroom - this.headroom) >= LOGGING_THRESHOLD) {
+			Log.info("Unmanaged memory is " + unmanagedMemory + " kilobytes and changing by "
+				+ this.history.getTrend() + " kilobytes per second, reserving " + headroom + " kilobytes of headroom");
+		}
+
+		this.headroom = headroom;
+	}
+
+	/**
+	 * Returns the headroom reserved for the expected growth of the unmanaged memory.
+	 * 
+	 * @return the headroom in kilobytes
+	 */
+	int getHeadroom() {
+		return this.headroom;
+	}
+}
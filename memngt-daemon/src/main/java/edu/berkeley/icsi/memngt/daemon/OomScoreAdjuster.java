@@ -0,0 +1,123 @@
+package edu.berkeley.icsi.memngt.daemon;
+
+import com.esotericsoftware.minlog.Log;
+
+import edu.berkeley.icsi.memngt.protocols.ProcessType;
+
+/**
+ * The OOM score adjuster keeps the <code>oom_score_adj</code> of the client processes in line with the daemon's view of
+ * them, so that the kernel's OOM killer, should it ever run, picks the victim the daemon would have picked. The score
+ * consists of three parts: a baseline which falls with the rank of the client's quality of service class, a bonus for
+ * infrastructure processes, which are long-running services expensive to restart, and a penalty which grows with the
+ * client's overage relative to its granted memory share. A runaway client therefore overtakes every well-behaved
+ * client, regardless of its class.
+ * <p>
+ * The score never reaches <code>-1000</code>, which would exempt a client from the OOM killer altogether. Lowering a
+ * score below the value a process started with requires <code>CAP_SYS_RESOURCE</code>; without it the daemon can
+ * only raise the scores of the less important clients.
+ * <p>
+ * This class is thread-safe.
+ * 
+ * @author warneke
+ */
+final class OomScoreAdjuster {
+
+	/**
+	 * Configuration key for whether the daemon adjusts the OOM scores of its clients.
+	 */
+	private static final String ENABLED_KEY = "adjustOomScores";
+
+	/**
+	 * Configuration key for the score added per granted memory share a client exceeds its share by.
+	 */
+	private static final String OVERAGE_PENALTY_KEY = "oomOveragePenalty";
+
+	/**
+	 * The lowest score the adjuster assigns, one above the score which disables the OOM killer for a process.
+	 */
+	private static final int MINIMUM_SCORE = -999;
+
+	/**
+	 * The highest score the kernel accepts.
+	 */
+	private static final int MAXIMUM_SCORE = 1000;
+
+	/**
+	 * The capability required to lower a score below the value a process started with.
+	 */
+	private static final int CAP_SYS_RESOURCE = 24;
+
+	/**
+	 * The baseline score of a client whose quality of service class has rank <code>0</code>.
+	 */
+	private static final int BASELINE_SCORE = 300;
+
+	/**
+	 * The amount by which the baseline score falls per rank of the quality of service class.
+	 */
+	private static final int SCORE_PER_RANK = 200;
+
+	/**
+	 * The amount by which the score of an infrastructure process is lowered.
+	 */
+	private static final int INFRASTRUCTURE_BONUS = 200;
+
+	private final boolean enabled;
+
+	private final int overagePenalty;
+
+	/**
+	 * Whether the daemon may assign negative scores.
+	 */
+	private final boolean privileged;
+
+	OomScoreAdjuster() {
+
+		this.enabled = Configuration.getBoolean(ENABLED_KEY, true);
+		this.overagePenalty = Math.max(0, Configuration.getInteger(OVERAGE_PENALTY_KEY, 1000));
+		this.privileged = this.enabled && Utils.hasCapability(CAP_SYS_RESOURCE);
+
+		if (this.enabled && !this.privileged) {
+			Log.warn("Daemon lacks CAP_SYS_RESOURCE, OOM scores are restricted to non-negative values");
+		}
+	}
+
+	/**
+	 * Brings the OOM score of the given client process in line with its current memory usage.
+	 * 
+	 * @param clientProcess
+	 *        the client process whose score shall be adjusted
+	 * @param memoryUsage
+	 *        the memory usage of the client process in kilobytes, including its swapped out pages
+	 */
+	void adjust(final ClientProcess clientProcess, final int memoryUsage) {
+
+		if (!this.enabled) {
+			return;
+		}
+
+		clientProcess.setOomScoreAdj(computeScore(clientProcess, memoryUsage));
+	}
+
+	private int computeScore(final ClientProcess clientProcess, final int memoryUsage) {
+
+		long score = BASELINE_SCORE - SCORE_PER_RANK * clientProcess.getQoSClass().getRank();
+		if (clientProcess.getType() == ProcessType.INFRASTRUCTURE_PROCESS) {
+			score -= INFRASTRUCTURE_BONUS;
+		}
+
+		final int grantedMemoryShare = clientProcess.getGrantedMemoryShare();
+		final int overage = memoryUsage - grantedMemoryShare;
+		if (overage > 0) {
+			score += (long) overage * this.overagePenalty / Math.max(1, grantedMemoryShare);
+		}
+
+		score = Math.max(MINIMUM_SCORE, Math.min(MAXIMUM_SCORE, score));
+		if (!this.privileged) {
+			// Map the full range onto the non-negative scores an unprivileged process may set
+			score = (score - MINIMUM_SCORE) * MAXIMUM_SCORE / (MAXIMUM_SCORE - MINIMUM_SCORE);
+		}
+
+		return (int) score;
+	}
+}
@@ -0,0 +1,276 @@
+package edu.berkeley.icsi.memngt.daemon;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+
+import com.esotericsoftware.minlog.Log;
+
+import edu.berkeley.icsi.memngt.utils.ClientUtils;
+
+/**
+ * The process tree keeps track of the descendants of a client process, so the memory of helper processes the client
+ * forks can be attributed to the client. If the kernel provides the <code>/proc/&lt;pid&gt;/task/&lt;tid&gt;/children
+ * </code> files, the tree is walked from the client downwards, which only touches the processes in the tree.
+ * Otherwise, the parent of every process on the node has to be looked up. Either way, the tree is only rebuilt in the
+ * configured interval and in between merely loses the descendants which have terminated.
+ * <p>
+ * Descendants which are registered clients themselves, e.g. worker processes forked by a node manager, are accounted
+ * for on their own, so they and their subtrees are left out of the tree.
+ * <p>
+ * This class is thread-safe.
+ * 
+ * @author warneke
+ */
+final class ProcessTree {
+
+	/**
+	 * Configuration key for the minimum time in milliseconds between two scans of all processes on the node if the
+	 * kernel does not provide the children files.
+	 */
+	private static final String SCAN_INTERVAL_KEY = "descendantScanInterval";
+
+	/**
+	 * Configuration key for the minimum time in milliseconds between two walks of the tree if the kernel provides the
+	 * children files.
+	 */
+	private static final String WALK_INTERVAL_KEY = "descendantWalkInterval";
+
+	/**
+	 * Stores whether the kernel provides the children files.
+	 */
+	private static final boolean CHILDREN_FILES_AVAILABLE;
+
+	static {
+		final int pid = ClientUtils.getPID();
+		CHILDREN_FILES_AVAILABLE = new File("/proc/" + pid + "/task/" + pid + "/children").exists();
+	}
+
+	/**
+	 * The minimum time in milliseconds between two rebuilds of the tree.
+	 */
+	private static final long REBUILD_INTERVAL = CHILDREN_FILES_AVAILABLE ? Math.max(0, Configuration.getInteger(
+		WALK_INTERVAL_KEY, 1000)) : Math.max(0, Configuration.getInteger(SCAN_INTERVAL_KEY, 5000));
+
+	/**
+	 * The process ID of the client process at the root of the tree.
+	 */
+	private final int rootPID;
+
+	/**
+	 * The process IDs of all registered client processes.
+	 */
+	private final Set<Integer> registeredPIDs;
+
+	/**
+	 * The process IDs of the known descendants of the client process.
+	 */
+	private final Set<Integer> descendants = new HashSet<Integer>();
+
+	/**
+	 * The time of the last rebuild of the tree in milliseconds, <code>0</code> to rebuild it on the next update.
+	 */
+	private long lastRebuild = 0L;
+
+	/**
+	 * Constructs a new process tree.
+	 * 
+	 * @param rootPID
+	 *        the process ID of the client process at the root of the tree
+	 * @param registeredPIDs
+	 *        a live view of the process IDs of all registered client processes
+	 */
+	ProcessTree(final int rootPID, final Set<Integer> registeredPIDs) {
+		this.rootPID = rootPID;
+		this.registeredPIDs = registeredPIDs;
+	}
+
+	/**
+	 * Updates the tree and returns the total physical memory size of the client's descendants.
+	 * 
+	 * @return the total resident set size of the client's descendants in kilobytes
+	 */
+	synchronized int getPhysicalMemorySizeOfDescendants() {
+
+		update();
+
+		int physicalMemorySize = 0;
+		final Iterator<Integer> it = this.descendants.iterator();
+		while (it.hasNext()) {
+
+			final Integer descendant = it.next();
+			if (this.registeredPIDs.contains(descendant)) {
+				// The descendant registered since the last rebuild, its own descendants must go as well
+				it.remove();
+				this.lastRebuild = 0L;
+				continue;
+			}
+
+			final int residentSetSize = ClientUtils.getPhysicalMemorySize(descendant.intValue());
+			if (residentSetSize == -1) {
+				// The descendant has terminated
+				it.remove();
+				continue;
+			}
+
+			physicalMemorySize += residentSetSize;
+		}
+
+		return physicalMemorySize;
+	}
+
+	private void update() {
+
+		final long now = System.currentTimeMillis();
+		if (this.lastRebuild != 0L && now - this.lastRebuild < REBUILD_INTERVAL) {
+			return;
+		}
+		this.lastRebuild = now;
+
+		final Map<Integer, List<Integer>> children = CHILDREN_FILES_AVAILABLE ? null : scanAllProcesses();
+
+		this.descendants.clear();
+		final Queue<Integer> queue = new ArrayDeque<Integer>();
+		queue.add(Integer.valueOf(this.rootPID));
+		while (!queue.isEmpty()) {
+
+			final Integer pid = queue.poll();
+			final List<Integer> list = (children == null) ? readChildren(pid.intValue()) : children.get(pid);
+			if (list == null) {
+				continue;
+			}
+
+			for (final Integer child : list) {
+				// Registered clients are accounted for on their own, including their descendants
+				if (!this.registeredPIDs.contains(child) && this.descendants.add(child)) {
+					queue.add(child);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reads the children of all threads of the given process from the children files.
+	 * 
+	 * @param pid
+	 *        the process ID
+	 * @return the process IDs of the process's children
+	 */
+	private static List<Integer> readChildren(final int pid) {
+
+		final List<Integer> children = new ArrayList<Integer>();
+		final String[] tasks = new File("/proc/" + pid + "/task").list();
+		if (tasks == null) {
+			return children;
+		}
+
+		for (final String task : tasks) {
+
+			final String line = readFirstLine("/proc/" + pid + "/task/" + task + "/children");
+			if (line == null || line.isEmpty()) {
+				continue;
+			}
+
+			for (final String child : line.split(" ")) {
+				try {
+					children.add(Integer.valueOf(child));
+				} catch (NumberFormatException nfe) {
+					Log.debug("Unable to parse child process ID " + child);
+				}
+			}
+		}
+
+		return children;
+	}
+
+	/**
+	 * Determines the children of all processes on the node from their <code>stat</code> files.
+	 * 
+	 * @return the process IDs of the children, indexed by the process ID of their parent
+	 */
+	private static Map<Integer, List<Integer>> scanAllProcesses() {
+
+		final Map<Integer, List<Integer>> children = new HashMap<Integer, List<Integer>>();
+		final String[] entries = new File("/proc").list();
+		if (entries == null) {
+			return children;
+		}
+
+		for (final String entry : entries) {
+
+			if (entry.isEmpty() || !Character.isDigit(entry.charAt(0))) {
+				continue;
+			}
+
+			final String line = readFirstLine("/proc/" + entry + "/stat");
+			if (line == null) {
+				continue;
+			}
+
+			// The command name may contain spaces, the parent's ID is the second field after it
+			final String[] fields = line.substring(line.lastIndexOf(')') + 1).trim().split(" ");
+			if (fields.length < 2) {
+				continue;
+			}
+
+			try {
+				final Integer parent = Integer.valueOf(fields[1]);
+				List<Integer> list = children.get(parent);
+				if (list == null) {
+					list = new ArrayList<Integer>();
+					children.put(parent, list);
+				}
+				list.add(Integer.valueOf(entry));
+			} catch (NumberFormatException nfe) {
+				Log.debug("Unable to parse stat file of process " + entry);
+			}
+		}
+
+		return children;
+	}
+
+	/**
+	 * Reads the first line of the given file.
+	 * 
+	 * @param filename
+	 *        the name of the file to read
+	 * @return the first line of the file or <code>null</code> if the file could not be read
+	 */
+	private static String readFirstLine(final String filename) {
+
+		BufferedReader br = null;
+		try {
+			br = new BufferedReader(new FileReader(filename));
+			final String line = br.readLine();
+			if (line == null) {
+				return null;
+			}
+
+			return line.trim();
+
+		} catch (FileNotFoundException fnfe) {
+			return null;
+		} catch (IOException ioe) {
+			// The process may have terminated while its files were read
+			return null;
+		} finally {
+			if (br != null) {
+				try {
+					br.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,192 @@
+package edu.berkeley.icsi.memngt.daemon;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+
+import com.esotericsoftware.minlog.Log;
+
+/**
+ * The profile store remembers the typical peak and steady-state memory usage of the applications which registered
+ * with the daemon, keyed by the client name. It allows new registrations to start near the size the application
+ * needed in previous runs instead of negotiating upward from a fixed initial share. The profiles are kept in a
+ * properties file, so they survive restarts of the daemon.
+ * <p>
+ * Observations are blended into the existing profile with an exponentially weighted moving average, so a single
+ * unusual run does not dominate the profile.
+ * <p>
+ * This class is thread-safe.
+ * 
+ * @author warneke
+ */
+final class ProfileStore {
+
+	/**
+	 * Configuration key for the path of the profile file, an empty path disables the profile store.
+	 */
+	private static final String PROFILE_FILE_KEY = "profileFile";
+
+	/**
+	 * The weight of a new observation when it is blended into an existing profile.
+	 */
+	private static final double OBSERVATION_WEIGHT = 0.5;
+
+	/**
+	 * The suffix of the keys storing the peak usage.
+	 */
+	private static final String PEAK_SUFFIX = ".peak";
+
+	/**
+	 * The suffix of the keys storing the steady-state usage.
+	 */
+	private static final String STEADY_SUFFIX = ".steady";
+
+	/**
+	 * The file the profiles are stored in.
+	 */
+	private final File profileFile;
+
+	/**
+	 * The profiles, stored as sizes in kilobytes.
+	 */
+	private final Properties profiles = new Properties();
+
+	private ProfileStore(final File profileFile) {
+		this.profileFile = profileFile;
+	}
+
+	/**
+	 * Creates a new profile store according to the daemon's configuration and loads the existing profiles.
+	 * 
+	 * @return the new profile store or <code>null</code> if the profile store is disabled
+	 */
+	static ProfileStore create() {
+
+		final String defaultPath = System.getProperty("user.home") + File.separator + ".memngt-profiles";
+		final String path = Configuration.getString(PROFILE_FILE_KEY, defaultPath);
+		if (path.isEmpty()) {
+			return null;
+		}
+
+		final ProfileStore profileStore = new ProfileStore(new File(path));
+		profileStore.load();
+
+		return profileStore;
+	}
+
+	/**
+	 * Returns the peak memory usage learned for the application with the given name.
+	 * 
+	 * @param name
+	 *        the name of the client
+	 * @return the learned peak usage in kilobytes or <code>-1</code> if no profile exists for the application
+	 */
+	synchronized int getPeakUsage(final String name) {
+		return getValue(name + PEAK_SUFFIX);
+	}
+
+	/**
+	 * Returns the steady-state memory usage learned for the application with the given name.
+	 * 
+	 * @param name
+	 *        the name of the client
+	 * @return the learned steady-state usage in kilobytes or <code>-1</code> if no profile exists for the application
+	 */
+	synchronized int getSteadyStateUsage(final String name) {
+		return getValue(name + STEADY_SUFFIX);
+	}
+
+	/**
+	 * Blends the usage observed during one run of the application with the given name into its profile and writes
+	 * the profiles to disk.
+	 * 
+	 * @param name
+	 *        the name of the client
+	 * @param peakUsage
+	 *        the peak usage observed in kilobytes
+	 * @param steadyStateUsage
+	 *        the steady-state usage observed in kilobytes
+	 */
+	synchronized void recordRun(final String name, final int peakUsage, final int steadyStateUsage) {
+
+		blend(name + PEAK_SUFFIX, peakUsage);
+		blend(name + STEADY_SUFFIX, steadyStateUsage);
+
+		store();
+	}
+
+	private void blend(final String key, final int observation) {
+
+		final int previous = getValue(key);
+		final long value = (previous == -1) ? observation : Math.round(OBSERVATION_WEIGHT * observation
+			+ (1.0 - OBSERVATION_WEIGHT) * previous);
+
+		this.profiles.setProperty(key, Long.toString(value));
+	}
+
+	private int getValue(final String key) {
+
+		final String value = this.profiles.getProperty(key);
+		if (value == null) {
+			return -1;
+		}
+
+		try {
+			return Integer.parseInt(value);
+		} catch (NumberFormatException nfe) {
+			Log.warn("Ignoring malformed profile entry " + key + "=" + value);
+			return -1;
+		}
+	}
+
+	private void load() {
+
+		InputStream inputStream = null;
+		try {
+			inputStream = new FileInputStream(this.profileFile);
+			this.profiles.load(inputStream);
+			Log.info("Loaded application profiles from " + this.profileFile);
+		} catch (FileNotFoundException fnfe) {
+			// No profiles recorded yet
+		} catch (IOException ioe) {
+			Log.warn("Unable to load application profiles from " + this.profileFile + ": ", ioe);
+		} finally {
+			if (inputStream != null) {
+				try {
+					inputStream.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+	}
+
+	private void store() {
+
+		// Write to a temporary file first, so a crash cannot leave a truncated profile file behind
+		final File tmpFile = new File(this.profileFile.getPath() + ".tmp");
+		OutputStream outputStream = null;
+		try {
+			outputStream = new FileOutputStream(tmpFile);
+			this.profiles.store(outputStream, "Application profiles of the memory negotiator daemon in kilobytes");
+		} catch (IOException ioe) {
+			Log.warn("Unable to store application profiles in " + this.profileFile + ": ", ioe);
+			return;
+		} finally {
+			if (outputStream != null) {
+				try {
+					outputStream.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+
+		if (!tmpFile.renameTo(this.profileFile)) {
+			Log.warn("Unable to replace application profiles in " + this.profileFile);
+		}
+	}
+}
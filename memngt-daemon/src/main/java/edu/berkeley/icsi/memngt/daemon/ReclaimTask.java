@@ -0,0 +1,90 @@
+package edu.berkeley.icsi.memngt.daemon;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import com.esotericsoftware.minlog.Log;
+
+/**
+ * A reclaim task asks an infrastructure process to shrink to its reduced granted memory share on behalf of another
+ * client process which requested additional memory. The task reports the amount of memory the process actually
+ * released, as measured by the operating system, rather than the amount the process promised to release.
+ * <p>
+ * If the reduction stems from recalled memory loans, the process is told which loans it must return.
+ * <p>
+ * This class is thread-safe.
+ * 
+ * @author warneke
+ */
+final class ReclaimTask implements Callable<Integer> {
+
+	/**
+	 * The infrastructure process to reclaim memory from.
+	 */
+	private final ClientProcess clientProcess;
+
+	/**
+	 * The reduced granted memory share of the infrastructure process in kilobytes.
+	 */
+	private final int grantedMemoryShare;
+
+	/**
+	 * The memory loans recalled from the infrastructure process, possibly empty.
+	 */
+	private final List<LoanBook.Loan> recalledLoans;
+
+	/**
+	 * Stores whether the recalled loans account for the entire reduction of the granted memory share.
+	 */
+	private final boolean coveredByLoans;
+
+	/**
+	 * The amount of memory in kilobytes by which the granted memory share of the infrastructure process was reduced.
+	 */
+	private final int reducedMemory;
+
+	ReclaimTask(final ClientProcess clientProcess, final int grantedMemoryShare,
+			final List<LoanBook.Loan> recalledLoans, final boolean coveredByLoans, final int reducedMemory) {
+		this.clientProcess = clientProcess;
+		this.grantedMemoryShare = grantedMemoryShare;
+		this.recalledLoans = recalledLoans;
+		this.coveredByLoans = coveredByLoans;
+		this.reducedMemory = reducedMemory;
+	}
+
+	ClientProcess getClientProcess() {
+		return this.clientProcess;
+	}
+
+	int getReducedMemory() {
+		return this.reducedMemory;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Integer call() throws IOException, InterruptedException {
+
+		final int sizeBefore = this.clientProcess.getPhysicalMemorySize();
+		if (sizeBefore == -1) {
+			return Integer.valueOf(0);
+		}
+
+		for (final LoanBook.Loan loan : this.recalledLoans) {
+			this.clientProcess.memoryLoanRecalled(loan.getLoanID(), this.grantedMemoryShare);
+		}
+
+		if (this.recalledLoans.isEmpty() || !this.coveredByLoans) {
+			this.clientProcess.grantedMemoryShareChanged(this.grantedMemoryShare);
+		}
+
+		final int sizeAfter = this.clientProcess.getPhysicalMemorySize();
+		final int releasedMemory = (sizeAfter == -1) ? sizeBefore : Math.max(0, sizeBefore - sizeAfter);
+
+		Log.info(this.clientProcess + " released " + releasedMemory + " kilobytes of memory");
+
+		return Integer.valueOf(releasedMemory);
+	}
+}
@@ -0,0 +1,64 @@
+package edu.berkeley.icsi.memngt.daemon;
+
+/**
+ * A reduction schedule describes how a client process which exceeds its granted memory share is expected to shrink
+ * over time. Starting from its physical memory size when the schedule was planned, the client gives up one slice of
+ * memory per slice interval. Until the schedule reaches the granted share, the daemon enforces the schedule's ceiling
+ * rather than the granted share itself.
+ * <p>
+ * This class is thread-safe.
+ * 
+ * @author warneke
+ */
+final class ReductionSchedule {
+
+	/**
+	 * The time at which the schedule was planned in milliseconds.
+	 */
+	private final long startTime;
+
+	/**
+	 * The physical memory size of the client in kilobytes when the schedule was planned.
+	 */
+	private final int startSize;
+
+	/**
+	 * The amount of memory in kilobytes the client gives up per slice.
+	 */
+	private final int sliceSize;
+
+	/**
+	 * The time in milliseconds between two slices.
+	 */
+	private final int sliceInterval;
+
+	ReductionSchedule(final long startTime, final int startSize, final int sliceSize, final int sliceInterval) {
+		this.startTime = startTime;
+		this.startSize = startSize;
+		this.sliceSize = sliceSize;
+		this.sliceInterval = sliceInterval;
+	}
+
+	int getSliceSize() {
+		return this.sliceSize;
+	}
+
+	int getSliceInterval() {
+		return this.sliceInterval;
+	}
+
+	/**
+	 * Returns the memory size the client is expected to have shrunk to at the given time. The first slice is due at
+	 * the end of the first interval.
+	 * 
+	 * @param now
+	 *        the current time in milliseconds
+	 * @return the expected memory size in kilobytes
+	 */
+	int getCeiling(final long now) {
+
+		final long slices = Math.max(0L, now - this.startTime) / this.sliceInterval;
+
+		return (int) Math.max(0L, this.startSize - slices * this.sliceSize);
+	}
+}
@@ -0,0 +1,267 @@
+package edu.berkeley.icsi.memngt.daemon;
+
+import java.util.Arrays;
+
+/**
+ * The usage history keeps the most recent samples of a client's physical memory size and granted memory share in a
+ * fixed-size ring buffer and forecasts the physical memory size with Holt's linear trend method, i.e. double
+ * exponential smoothing. The main loop samples the clients in varying intervals, so the trend is kept per millisecond
+ * rather than per sample.
+ * <p>
+ * A client only counts as declining once its trend has stayed below the configured rate of decline for a configured
+ * number of consecutive samples, so the jitter of the physical memory size is not mistaken for a decline.
+ * <p>
+ * This class is thread-safe.
+ * 
+ * @author warneke
+ */
+final class UsageHistory {
+
+	/**
+	 * Configuration key for the number of samples kept per client.
+	 */
+	private static final String HISTORY_SIZE_KEY = "usageHistorySize";
+
+	/**
+	 * Configuration key for the smoothing factor of the level.
+	 */
+	private static final String LEVEL_SMOOTHING_KEY = "forecastLevelSmoothing";
+
+	/**
+	 * Configuration key for the smoothing factor of the trend.
+	 */
+	private static final String TREND_SMOOTHING_KEY = "forecastTrendSmoothing";
+
+	/**
+	 * Configuration key for the rate of decline in kilobytes per second the trend must fall below for a client to
+	 * count as declining.
+	 */
+	private static final String DECLINE_RATE_KEY = "forecastDeclineRate";
+
+	/**
+	 * Configuration key for the number of consecutive samples the trend must stay below the rate of decline for.
+	 */
+	private static final String DECLINE_SAMPLES_KEY = "forecastDeclineSamples";
+
+	/**
+	 * The number of samples required before a forecast is made.
+	 */
+	private static final int MINIMUM_SAMPLES = 3;
+
+	private static final int HISTORY_SIZE = Math.max(MINIMUM_SAMPLES, Configuration.getInteger(HISTORY_SIZE_KEY, 64));
+
+	private static final double LEVEL_SMOOTHING = Configuration.getFloat(LEVEL_SMOOTHING_KEY, 0.5f);
+
+	private static final double TREND_SMOOTHING = Configuration.getFloat(TREND_SMOOTHING_KEY, 0.3f);
+
+	private static final int DECLINE_RATE = Math.max(1, Configuration.getInteger(DECLINE_RATE_KEY, 1024));
+
+	private static final int DECLINE_SAMPLES = Math.max(1, Configuration.getInteger(DECLINE_SAMPLES_KEY, 5));
+
+	/**
+	 * The times of the samples in milliseconds.
+	 */
+	private final long[] sampleTimes = new long[HISTORY_SIZE];
+
+	/**
+	 * The sampled physical memory sizes in kilobytes.
+	 */
+	private final int[] physicalMemorySizes = new int[HISTORY_SIZE];
+
+	/**
+	 * The sampled granted memory shares in kilobytes.
+	 */
+	private final int[] grantedMemoryShares = new int[HISTORY_SIZE];
+
+	/**
+	 * The index of the next slot to be written.
+	 */
+	private int nextIndex = 0;
+
+	/**
+	 * The number of samples recorded so far.
+	 */
+	private long numberOfSamples = 0L;
+
+	/**
+	 * The largest physical memory size ever recorded in kilobytes.
+	 */
+	private int peakPhysicalMemorySize = 0;
+
+	/**
+	 * The smoothed physical memory size in kilobytes.
+	 */
+	private double level;
+
+	/**
+	 * The smoothed change of the physical memory size in kilobytes per millisecond.
+	 */
+	private double trend;
+
+	/**
+	 * The number of consecutive samples up to the most recent one whose trend was below the rate of decline.
+	 */
+	private int decliningSamples = 0;
+
+	/**
+	 * Records a new sample and updates the forecast.
+	 * 
+	 * @param sampleTime
+	 *        the time of the sample in milliseconds
+	 * @param physicalMemorySize
+	 *        the physical memory size of the client in kilobytes
+	 * @param grantedMemoryShare
+	 *        the granted memory share of the client in kilobytes
+	 */
+	synchronized void record(final long sampleTime, final int physicalMemorySize, final int grantedMemoryShare) {
+
+		if (this.numberOfSamples == 0L) {
+			this.level = physicalMemorySize;
+			this.trend = 0.0;
+		} else {
+
+			final long elapsedTime = sampleTime - this.sampleTimes[getIndex(0)];
+			if (elapsedTime <= 0L) {
+				// Samples taken in the same millisecond carry no information on the trend
+				return;
+			}
+
+			final double previousLevel = this.level;
+			this.level = LEVEL_SMOOTHING * physicalMemorySize + (1.0 - LEVEL_SMOOTHING)
+				* (previousLevel + this.trend * elapsedTime);
+			this.trend = TREND_SMOOTHING * ((this.level - previousLevel) / elapsedTime) + (1.0 - TREND_SMOOTHING)
+				* this.trend;
+
+			if (this.trend * 1000.0 <= -DECLINE_RATE) {
+				++this.decliningSamples;
+			} else {
+				this.decliningSamples = 0;
+			}
+		}
+
+		this.peakPhysicalMemorySize = Math.max(this.peakPhysicalMemorySize, physicalMemorySize);
+		this.sampleTimes[this.nextIndex] = sampleTime;
+		this.physicalMemorySizes[this.nextIndex] = physicalMemorySize;
+		this.grantedMemoryShares[this.nextIndex] = grantedMemoryShare;
+		this.nextIndex = (this.nextIndex + 1) % HISTORY_SIZE;
+		++this.numberOfSamples;
+	}
+
+	/**
+	 * Checks whether enough samples have been recorded to make a forecast.
+	 * 
+	 * @return <code>true</code> if a forecast can be made, <code>false</code> otherwise
+	 */
+	synchronized boolean canForecast() {
+		return this.numberOfSamples >= MINIMUM_SAMPLES;
+	}
+
+	/**
+	 * Forecasts the physical memory size of the client.
+	 * 
+	 * @param horizon
+	 *        the time from the last sample to forecast in milliseconds
+	 * @return the forecast physical memory size in kilobytes or <code>-1</code> if too few samples have been recorded
+	 */
+	synchronized int forecast(final long horizon) {
+
+		if (this.numberOfSamples < MINIMUM_SAMPLES) {
+			return -1;
+		}
+
+		final double forecast = this.level + this.trend * horizon;
+
+		return (int) Math.max(0.0, Math.min(forecast, Integer.MAX_VALUE));
+	}
+
+	/**
+	 * Returns the smoothed change of the physical memory size.
+	 * 
+	 * @return the smoothed change of the physical memory size in kilobytes per second
+	 */
+	synchronized int getTrend() {
+		return (int) Math.round(this.trend * 1000.0);
+	}
+
+	/**
+	 * Checks whether the client's physical memory size has been declining faster than the configured rate for the
+	 * configured number of consecutive samples.
+	 * 
+	 * @return <code>true</code> if the client is declining, <code>false</code> otherwise
+	 */
+	synchronized boolean isDeclining() {
+		return this.numberOfSamples >= MINIMUM_SAMPLES && this.decliningSamples >= DECLINE_SAMPLES;
+	}
+
+	/**
+	 * Returns the largest physical memory size ever recorded.
+	 * 
+	 * @return the largest physical memory size in kilobytes
+	 */
+	synchronized int getPeakPhysicalMemorySize() {
+		return this.peakPhysicalMemorySize;
+	}
+
+	/**
+	 * Returns the median of the physical memory sizes currently kept, which describes the client's steady-state usage
+	 * better than the mean as it ignores short spikes.
+	 * 
+	 * @return the median physical memory size in kilobytes or <code>-1</code> if no samples have been recorded
+	 */
+	synchronized int getSteadyStatePhysicalMemorySize() {
+
+		final int size = size();
+		if (size == 0) {
+			return -1;
+		}
+
+		final int[] sizes = new int[size];
+		for (int i = 0; i < size; ++i) {
+			sizes[i] = this.physicalMemorySizes[getIndex(i)];
+		}
+
+		Arrays.sort(sizes);
+
+		return sizes[size / 2];
+	}
+
+	/**
+	 * Returns the number of samples currently kept.
+	 * 
+	 * @return the number of samples currently kept
+	 */
+	synchronized int size() {
+		return (int) Math.min(this.numberOfSamples, HISTORY_SIZE);
+	}
+
+	/**
+	 * Returns the physical memory size of the sample with the given age.
+	 * 
+	 * @param age
+	 *        the age of the sample, <code>0</code> denotes the most recent one
+	 * @return the physical memory size in kilobytes
+	 */
+	synchronized int getPhysicalMemorySize(final int age) {
+		return this.physicalMemorySizes[getIndex(age)];
+	}
+
+	/**
+	 * Returns the granted memory share of the sample with the given age.
+	 * 
+	 * @param age
+	 *        the age of the sample, <code>0</code> denotes the most recent one
+	 * @return the granted memory share in kilobytes
+	 */
+	synchronized int getGrantedMemoryShare(final int age) {
+		return this.grantedMemoryShares[getIndex(age)];
+	}
+
+	private int getIndex(final int age) {
+
+		if (age < 0 || age >= size()) {
+			throw new IndexOutOfBoundsException("No sample with age " + age);
+		}
+
+		return (this.nextIndex - 1 - age + HISTORY_SIZE) % HISTORY_SIZE;
+	}
+}
@@ -1,7 +1,9 @@
 package edu.berkeley.icsi.memngt.daemon;
 
 import java.io.BufferedReader;
+import java.io.FileNotFoundException;
 import java.io.FileReader;
+import java.io.FileWriter;
 import java.io.IOException;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -12,6 +14,11 @@ class Utils {
 
 	private static final Pattern MEMINFO_PATTERN = Pattern.compile("^\\w+:\\s*(\\d+)\\skB$");
 
+	/**
+	 * The amount of page cache in kilobytes which is kept for file system I/O and not handed out to client processes.
+	 */
+	private static final int PAGE_CACHE_RESERVE = Configuration.getInteger("pageCacheReserve", 128 * 1024);
+
 	private Utils() {
 	}
 
@@ -23,15 +30,18 @@ class Utils {
 	}
 
 	/**
-	 * Returns the amount of free physical memory (including the memory that is currently used by the kernel for buffers
-	 * and caching) in kilobytes.
+	 * Returns the amount of physical memory which can be handed out to client processes in kilobytes. The amount is
+	 * based on the kernel's estimate of available memory (<code>MemAvailable</code>), which only counts page cache and
+	 * slab memory the kernel can actually reclaim. Dirty pages are not considered available as they have to be written
+	 * back first, and the configured page cache reserve is kept for file system I/O. On kernels which do not report
+	 * <code>MemAvailable</code>, the estimate is derived from <code>MemFree</code>, the page cache excluding shared
+	 * memory and dirty pages, and half of the reclaimable slab memory.
 	 * 
 	 * @return the amount of free physical memory in kilobytes or <code>-1</code> if the amount could not be determined
 	 */
 	static int getFreePhysicalMemory() {
 
-		int freeMemory = 0;
-		int matches = 0;
+		int memFree = -1, memAvailable = -1, cached = -1, buffers = -1, shmem = -1, dirty = -1, sReclaimable = -1;
 
 		BufferedReader br = null;
 		try {
@@ -40,31 +50,279 @@ class Utils {
 			while (line != null) {
 
 				if (line.startsWith("MemFree:")) {
-					final int val = extractMeminfoValue(line);
-					if (val == -1) {
-						return -1;
-					}
-					freeMemory += val;
-					++matches;
+					memFree = extractMeminfoValue(line);
+				} else if (line.startsWith("MemAvailable:")) {
+					memAvailable = extractMeminfoValue(line);
 				} else if (line.startsWith("Cached:")) {
-					final int val = extractMeminfoValue(line);
-					if (val == -1) {
-						return -1;
-					}
-					freeMemory += val;
-					++matches;
+					cached = extractMeminfoValue(line);
 				} else if (line.startsWith("Buffers:")) {
-					final int val = extractMeminfoValue(line);
-					if (val == -1) {
-						return -1;
-					}
-					freeMemory += val;
-					++matches;
+					buffers = extractMeminfoValue(line);
+				} else if (line.startsWith("Shmem:")) {
+					shmem = extractMeminfoValue(line);
+				} else if (line.startsWith("Dirty:")) {
+					dirty = extractMeminfoValue(line);
+				} else if (line.startsWith("SReclaimable:")) {
+					sReclaimable = extractMeminfoValue(line);
+				}
+
+				line = br.readLine();
+			}
+
+		} catch (IOException ioe) {
+			Log.error("Error reading /proc/meminfo: ", ioe);
+			return -1;
+		} finally {
+			if (br != null) {
+				try {
+					br.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+
+		if (memFree == -1 || cached == -1 || buffers == -1) {
+			return -1;
+		}
+
+		// Older kernels do not report all of these values
+		shmem = Math.max(0, shmem);
+		dirty = Math.max(0, dirty);
+		sReclaimable = Math.max(0, sReclaimable);
+
+		// Page cache which can be dropped without writing it back first
+		final int reclaimablePageCache = Math.max(0, cached + buffers - shmem - dirty);
+
+		int availableMemory;
+		if (memAvailable != -1) {
+			availableMemory = memAvailable - dirty;
+		} else {
+			availableMemory = memFree + reclaimablePageCache + sReclaimable / 2;
+		}
+
+		availableMemory -= Math.min(PAGE_CACHE_RESERVE, reclaimablePageCache);
+
+		return Math.max(0, availableMemory);
+	}
+
+	/**
+	 * Returns the start time of the process with the given ID, as reported in field 22 of
+	 * <code>/proc/&lt;pid&gt;/stat</code>. Together with the process ID, the start time identifies a process uniquely,
+	 * even after its ID has been reused.
+	 * 
+	 * @param pid
+	 *        the ID of the process
+	 * @return the start time of the process in clock ticks since the system booted or <code>-1</code> if the process
+	 *         does not exist
+	 */
+	static long getProcessStartTime(final int pid) {
+
+		final String[] fields = readStatFields(pid);
+		if (fields == null) {
+			return -1L;
+		}
+
+		try {
+			return Long.parseLong(fields[19]);
+		} catch (NumberFormatException nfe) {
+			Log.error("Unable to parse start time of process " + pid + ": ", nfe);
+			return -1L;
+		}
+	}
+
+	/**
+	 * Reads the fields of <code>/proc/&lt;pid&gt;/stat</code> which follow the command name. The command name may
+	 * contain spaces, so the fields are counted from its closing parenthesis, i.e. the first returned field is field 3.
+	 * 
+	 * @param pid
+	 *        the ID of the process
+	 * @return the fields following the command name or <code>null</code> if the process does not exist or the file
+	 *         has an unexpected format
+	 */
+	private static String[] readStatFields(final int pid) {
+
+		final String filename = "/proc/" + pid + "/stat";
+
+		BufferedReader br = null;
+		try {
+			br = new BufferedReader(new FileReader(filename));
+			final String line = br.readLine();
+			if (line == null) {
+				return null;
+			}
+
+			final String[] fields = line.substring(line.lastIndexOf(')') + 1).trim().split(" ");
+			if (fields.length < 20) {
+				Log.error("Output of " + filename + " has unexpected format");
+				return null;
+			}
+
+			return fields;
+
+		} catch (FileNotFoundException fnfe) {
+			return null;
+		} catch (IOException ioe) {
+			// The process may have terminated while the file was read
+			return null;
+		} finally {
+			if (br != null) {
+				try {
+					br.close();
+				} catch (IOException e) {
 				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the amount of swap space used by the process with the given ID (<code>VmSwap</code> in
+	 * <code>/proc/&lt;pid&gt;/status</code>).
+	 * 
+	 * @param pid
+	 *        the ID of the process
+	 * @return the amount of swap space used in kilobytes or <code>-1</code> if the amount could not be determined
+	 */
+	static int getSwapSize(final int pid) {
 
-				// We got all the numbers we are interested in
-				if (matches == 3) {
-					break;
+		BufferedReader br = null;
+		try {
+			br = new BufferedReader(new FileReader("/proc/" + pid + "/status"));
+			String line = br.readLine();
+			while (line != null) {
+
+				if (line.startsWith("VmSwap:")) {
+					return extractMeminfoValue(line);
+				}
+
+				line = br.readLine();
+			}
+
+		} catch (IOException ioe) {
+			// The process may have terminated while the file was read
+		} finally {
+			if (br != null) {
+				try {
+					br.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Checks whether the daemon holds the given capability in its effective set (<code>CapEff</code> in
+	 * <code>/proc/self/status</code>).
+	 * 
+	 * @param capability
+	 *        the number of the capability, e.g. <code>24</code> for <code>CAP_SYS_RESOURCE</code>
+	 * @return <code>true</code> if the daemon holds the capability, <code>false</code> if it does not or the
+	 *         capabilities could not be determined
+	 */
+	static boolean hasCapability(final int capability) {
+
+		BufferedReader br = null;
+		try {
+			br = new BufferedReader(new FileReader("/proc/self/status"));
+			String line = br.readLine();
+			while (line != null) {
+
+				if (line.startsWith("CapEff:")) {
+					final long capabilities = Long.parseLong(line.substring("CapEff:".length()).trim(), 16);
+					return (capabilities & (1L << capability)) != 0L;
+				}
+
+				line = br.readLine();
+			}
+
+		} catch (IOException ioe) {
+			Log.warn("Unable to determine the capabilities of the daemon: ", ioe);
+		} catch (NumberFormatException nfe) {
+			Log.warn("Unable to parse the capabilities of the daemon: ", nfe);
+		} finally {
+			if (br != null) {
+				try {
+					br.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Sets the <code>oom_score_adj</code> of the process with the given ID, which biases the kernel's choice of the
+	 * process to kill when the node runs out of memory.
+	 * 
+	 * @param pid
+	 *        the ID of the process
+	 * @param score
+	 *        the score between <code>-1000</code> and <code>1000</code>
+	 * @return <code>true</code> if the score has been set, <code>false</code> otherwise
+	 */
+	static boolean setOomScoreAdj(final int pid, final int score) {
+
+		FileWriter fw = null;
+		try {
+			fw = new FileWriter("/proc/" + pid + "/oom_score_adj");
+			fw.write(Integer.toString(score));
+			fw.flush();
+		} catch (IOException ioe) {
+			// Lowering the score requires CAP_SYS_RESOURCE, also the process may have terminated
+			Log.debug("Unable to set OOM score of process " + pid + " to " + score + ": " + ioe.getMessage());
+			return false;
+		} finally {
+			if (fw != null) {
+				try {
+					fw.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Returns the number of major page faults the process with the given ID has caused so far, as reported in field 12
+	 * of <code>/proc/&lt;pid&gt;/stat</code>.
+	 * 
+	 * @param pid
+	 *        the ID of the process
+	 * @return the number of major page faults or <code>-1</code> if the number could not be determined
+	 */
+	static long getMajorFaults(final int pid) {
+
+		final String[] fields = readStatFields(pid);
+		if (fields == null) {
+			return -1L;
+		}
+
+		try {
+			return Long.parseLong(fields[9]);
+		} catch (NumberFormatException nfe) {
+			Log.error("Unable to parse major faults of process " + pid + ": ", nfe);
+			return -1L;
+		}
+	}
+
+	/**
+	 * Returns the total amount of physical memory of the node as reported by the kernel (<code>MemTotal</code>).
+	 * 
+	 * @return the total amount of physical memory in kilobytes or <code>-1</code> if the amount could not be
+	 *         determined
+	 */
+	static int getTotalPhysicalMemory() {
+
+		BufferedReader br = null;
+		try {
+			br = new BufferedReader(new FileReader("/proc/meminfo"));
+			String line = br.readLine();
+			while (line != null) {
+
+				if (line.startsWith("MemTotal:")) {
+					return extractMeminfoValue(line);
 				}
 
 				line = br.readLine();
@@ -72,7 +330,6 @@ class Utils {
 
 		} catch (IOException ioe) {
 			Log.error("Error reading /proc/meminfo: ", ioe);
-			return -1;
 		} finally {
 			if (br != null) {
 				try {
@@ -82,7 +339,7 @@ class Utils {
 			}
 		}
 
-		return freeMemory;
+		return -1;
 	}
 
 	private static int extractMeminfoValue(final String line) {
@@ -0,0 +1,217 @@
+package edu.berkeley.icsi.memngt.daemon.policies;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import edu.berkeley.icsi.memngt.protocols.ProcessType;
+import edu.berkeley.icsi.memngt.protocols.QoSClass;
+
+/**
+ * Base class for the allocation policies shipped with the daemon. It grants requests from spare memory whenever
+ * possible and otherwise reclaims the missing memory from the clients the concrete policy selects, following the
+ * preemption order of the clients' quality of service classes. A request which cannot be covered even by reclaiming
+ * from all selected clients is rejected without reclaiming anything.
+ * <p>
+ * This class is thread-safe.
+ * 
+ * @author warneke
+ */
+public abstract class AbstractAllocationPolicy implements AllocationPolicy {
+
+	/**
+	 * The fraction by which a client process may exceed its granted memory share before the daemon interferes.
+	 */
+	private static final float GRACE_MARGIN = 0.1f;
+
+	/**
+	 * The maximum memory share in kilobytes a client process initially receives.
+	 */
+	private static final int MINIMUM_CLIENT_MEMORY = 8 * 1024 * 1024;
+
+	/**
+	 * Orders clients by the rank of their quality of service class, lowest rank first. Within a class, clients which
+	 * rarely fault come first, their memory is cold and they lose the least by giving it up.
+	 */
+	private static final Comparator<ClientState> PREEMPTION_ORDER = new Comparator<ClientState>() {
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public int compare(final ClientState o1, final ClientState o2) {
+
+			final int diff = o1.getQoSClass().getRank() - o2.getQoSClass().getRank();
+			if (diff != 0) {
+				return diff;
+			}
+
+			final int majorFaultRate1 = o1.getPagingStatistics().getMajorFaultRate();
+			final int majorFaultRate2 = o2.getPagingStatistics().getMajorFaultRate();
+
+			return (majorFaultRate1 < majorFaultRate2) ? -1 : ((majorFaultRate1 == majorFaultRate2) ? 0 : 1);
+		}
+	};
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public float getGraceMargin() {
+
+		return GRACE_MARGIN;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public boolean requiresBids() {
+
+		return false;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public int getInitialMemoryShare(final NodeState nodeState, final String name, final ProcessType type,
+			final QoSClass qosClass, final int learnedMemoryShare) {
+
+		// Start known applications at the size they settled at before, the forecast covers their peaks
+		final int initialMemoryShare = (learnedMemoryShare > 0) ? learnedMemoryShare : MINIMUM_CLIENT_MEMORY;
+
+		return Math.max(0, Math.min(initialMemoryShare, nodeState.getSpareMemory()));
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public AllocationDecision decideOnRequest(final NodeState nodeState, final ClientState requester,
+			final int amountOfMemory) {
+
+		final AllocationDecision decision = new AllocationDecision();
+		final int spareMemory = Math.max(0, nodeState.getSpareMemory());
+		if (amountOfMemory <= spareMemory) {
+			decision.grant(requester.getPID(), amountOfMemory);
+			return decision;
+		}
+
+		final int missingMemory = amountOfMemory - spareMemory;
+		if (reclaim(decision, getReclaimCandidates(nodeState, requester), requester, missingMemory) < missingMemory) {
+			// Reclaiming is pointless if it cannot cover the request
+			return new AllocationDecision();
+		}
+
+		return decision;
+	}
+
+	/**
+	 * Returns the client processes which shall give up memory for the given requester, in the order in which they
+	 * shall be approached.
+	 * 
+	 * @param nodeState
+	 *        the current state of the node
+	 * @param requester
+	 *        the state of the requesting client
+	 * @return the client processes to reclaim memory from, in order
+	 */
+	protected abstract List<ClientState> getReclaimCandidates(NodeState nodeState, ClientState requester);
+
+	/**
+	 * Adds reclaims to the given decision until the given amount of memory is covered. Candidates of lower quality of
+	 * service classes are approached first, candidates of the same class in the given order. Candidates the
+	 * beneficiary may not preempt and candidates the decision grants memory to are skipped. Each candidate gives up at
+	 * most the memory beyond its guaranteed share, including what the decision already reclaims from it.
+	 * 
+	 * @param decision
+	 *        the decision to add the reclaims to
+	 * @param candidates
+	 *        the client processes to reclaim memory from, in order
+	 * @param beneficiary
+	 *        the client process on whose behalf memory is reclaimed, never reclaimed from itself
+	 * @param amountOfMemory
+	 *        the amount of memory to reclaim
+	 * @return the amount of memory covered by the added reclaims
+	 */
+	protected static int reclaim(final AllocationDecision decision, final List<ClientState> candidates,
+			final ClientState beneficiary, final int amountOfMemory) {
+
+		return reclaim(decision, candidates, beneficiary, amountOfMemory, false);
+	}
+
+	/**
+	 * Adds reclaims to the given decision until the given amount of memory is covered, like
+	 * {@link #reclaim(AllocationDecision, List, ClientState, int)}, but optionally also from candidates of the
+	 * beneficiary's own quality of service class. This allows policies to move memory between peers.
+	 * 
+	 * @param decision
+	 *        the decision to add the reclaims to
+	 * @param candidates
+	 *        the client processes to reclaim memory from, in order
+	 * @param beneficiary
+	 *        the client process on whose behalf memory is reclaimed, never reclaimed from itself
+	 * @param amountOfMemory
+	 *        the amount of memory to reclaim
+	 * @param includePeers
+	 *        <code>true</code> to also reclaim from candidates of the beneficiary's class, <code>false</code> otherwise
+	 * @return the amount of memory covered by the added reclaims
+	 */
+	protected static int reclaim(final AllocationDecision decision, final List<ClientState> candidates,
+			final ClientState beneficiary, final int amountOfMemory, final boolean includePeers) {
+
+		// The sort is stable, so the policy's order is preserved within each class
+		final List<ClientState> orderedCandidates = new ArrayList<ClientState>(candidates);
+		Collections.sort(orderedCandidates, PREEMPTION_ORDER);
+
+		int remainingMemory = amountOfMemory;
+		for (final ClientState candidate : orderedCandidates) {
+
+			if (remainingMemory <= 0) {
+				break;
+			}
+
+			if (candidate.getPID() == beneficiary.getPID()) {
+				continue;
+			}
+
+			final QoSClass qosClass = candidate.getQoSClass();
+			if (!beneficiary.getQoSClass().mayPreempt(qosClass)
+				&& !(includePeers && beneficiary.getQoSClass() == qosClass)) {
+				continue;
+			}
+
+			if (decision.getGrant(candidate.getPID()) > 0) {
+				continue;
+			}
+
+			// Earlier reclaims of the same decision have already taken part of the candidate's memory
+			final int memoryToReclaim = Math.min(candidate.getReclaimableMemory()
+				- decision.getReclaim(candidate.getPID()), remainingMemory);
+			if (memoryToReclaim <= 0) {
+				continue;
+			}
+
+			decision.reclaim(candidate.getPID(), memoryToReclaim);
+			remainingMemory -= memoryToReclaim;
+		}
+
+		return amountOfMemory - Math.max(0, remainingMemory);
+	}
+
+	/**
+	 * Checks whether the given client process wants to be offered additional memory.
+	 * 
+	 * @param clientState
+	 *        the state of the client process
+	 * @return <code>true</code> if the client process accepts offers and has not reached its maximum share yet,
+	 *         <code>false</code> otherwise
+	 */
+	protected static boolean wantsMemory(final ClientState clientState) {
+
+		return clientState.isAcceptingOffers()
+			&& clientState.getGrantedMemoryShare() < clientState.getMaximumMemoryShare();
+	}
+}
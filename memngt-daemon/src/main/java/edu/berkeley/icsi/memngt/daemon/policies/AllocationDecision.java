@@ -0,0 +1,129 @@
+package edu.berkeley.icsi.memngt.daemon.policies;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * An allocation decision lists the amounts of memory an allocation policy wants the daemon to grant to and to reclaim
+ * from individual client processes. The daemon processes grants and reclaims in the order in which they were added to
+ * the decision. All memory values are in kilobytes.
+ * <p>
+ * This class is not thread-safe.
+ * 
+ * @author warneke
+ */
+public final class AllocationDecision {
+
+	/**
+	 * The amounts of memory to grant, indexed by process ID.
+	 */
+	private final Map<Integer, Integer> grants = new LinkedHashMap<Integer, Integer>();
+
+	/**
+	 * The amounts of memory to reclaim, indexed by process ID.
+	 */
+	private final Map<Integer, Integer> reclaims = new LinkedHashMap<Integer, Integer>();
+
+	/**
+	 * Adds a grant of the given amount of memory to the client process with the given ID.
+	 * 
+	 * @param pid
+	 *        the ID of the client process
+	 * @param amountOfMemory
+	 *        the amount of memory to grant
+	 */
+	public void grant(final int pid, final int amountOfMemory) {
+		add(this.grants, pid, amountOfMemory);
+	}
+
+	/**
+	 * Adds a reclaim of the given amount of memory from the client process with the given ID.
+	 * 
+	 * @param pid
+	 *        the ID of the client process
+	 * @param amountOfMemory
+	 *        the amount of memory to reclaim
+	 */
+	public void reclaim(final int pid, final int amountOfMemory) {
+		add(this.reclaims, pid, amountOfMemory);
+	}
+
+	/**
+	 * Returns the amounts of memory to grant, indexed by process ID.
+	 * 
+	 * @return the amounts of memory to grant
+	 */
+	public Map<Integer, Integer> getGrants() {
+		return Collections.unmodifiableMap(this.grants);
+	}
+
+	/**
+	 * Returns the amounts of memory to reclaim, indexed by process ID.
+	 * 
+	 * @return the amounts of memory to reclaim
+	 */
+	public Map<Integer, Integer> getReclaims() {
+		return Collections.unmodifiableMap(this.reclaims);
+	}
+
+	/**
+	 * Returns the amount of memory to grant to the client process with the given ID.
+	 * 
+	 * @param pid
+	 *        the ID of the client process
+	 * @return the amount of memory to grant, <code>0</code> if the decision contains no grant for the client
+	 */
+	public int getGrant(final int pid) {
+
+		final Integer grant = this.grants.get(Integer.valueOf(pid));
+		if (grant == null) {
+			return 0;
+		}
+
+		return grant.intValue();
+	}
+
+	/**
+	 * Returns the amount of memory to reclaim from the client process with the given ID.
+	 * 
+	 * @param pid
+	 *        the ID of the client process
+	 * @return the amount of memory to reclaim, <code>0</code> if the decision contains no reclaim from the client
+	 */
+	public int getReclaim(final int pid) {
+
+		final Integer reclaim = this.reclaims.get(Integer.valueOf(pid));
+		if (reclaim == null) {
+			return 0;
+		}
+
+		return reclaim.intValue();
+	}
+
+	/**
+	 * Returns the total amount of memory to reclaim.
+	 * 
+	 * @return the total amount of memory to reclaim
+	 */
+	public int getTotalReclaims() {
+
+		int total = 0;
+		for (final Integer amount : this.reclaims.values()) {
+			total += amount.intValue();
+		}
+
+		return total;
+	}
+
+	private static void add(final Map<Integer, Integer> map, final int pid, final int amountOfMemory) {
+
+		if (amountOfMemory <= 0) {
+			return;
+		}
+
+		final Integer key = Integer.valueOf(pid);
+		final Integer previous = map.get(key);
+		map.put(key, Integer.valueOf(previous == null ? amountOfMemory : previous.intValue() + amountOfMemory));
+	}
+}
@@ -0,0 +1,88 @@
+package edu.berkeley.icsi.memngt.daemon.policies;
+
+/**
+ * This class creates allocation policies by name.
+ * <p>
+ * This class is thread-safe.
+ * 
+ * @author warneke
+ */
+public final class AllocationPolicies {
+
+	/**
+	 * The name of the policy implementing the daemon's original first-fit strategy.
+	 */
+	public static final String FIRST_FIT = "first-fit";
+
+	/**
+	 * The name of the policy dividing spare memory by weighted max-min fairness.
+	 */
+	public static final String PROPORTIONAL = "proportional";
+
+	/**
+	 * The name of the preemptive, priority-based policy.
+	 */
+	public static final String PRIORITY = "priority";
+
+	/**
+	 * The name of the policy maximizing the total utility the clients bid for.
+	 */
+	public static final String MARKET = "market";
+
+	/**
+	 * The name of the policy moving memory toward the clients with the highest garbage collection overhead.
+	 */
+	public static final String GC_OVERHEAD = "gc-overhead";
+
+	/**
+	 * Private constructor to prevent instantiation.
+	 */
+	private AllocationPolicies() {
+	}
+
+	/**
+	 * Creates the allocation policy with the given name. Apart from the names of the policies shipped with the daemon,
+	 * the fully qualified name of any class implementing {@link AllocationPolicy} with a public no-argument constructor
+	 * is accepted.
+	 * 
+	 * @param name
+	 *        the name of the policy
+	 * @return the allocation policy
+	 * @throws IllegalArgumentException
+	 *         thrown if no policy with the given name can be created
+	 */
+	public static AllocationPolicy create(final String name) {
+
+		if (FIRST_FIT.equals(name)) {
+			return new FirstFitPolicy();
+		}
+
+		if (PROPORTIONAL.equals(name)) {
+			return new ProportionalPolicy();
+		}
+
+		if (PRIORITY.equals(name)) {
+			return new PriorityPolicy();
+		}
+
+		if (MARKET.equals(name)) {
+			return new MarketPolicy();
+		}
+
+		if (GC_OVERHEAD.equals(name)) {
+			return new GCOverheadPolicy();
+		}
+
+		try {
+			return Class.forName(name).asSubclass(AllocationPolicy.class).newInstance();
+		} catch (ClassNotFoundException cnfe) {
+			throw new IllegalArgumentException("Unknown allocation policy " + name);
+		} catch (ClassCastException cce) {
+			throw new IllegalArgumentException(name + " does not implement " + AllocationPolicy.class.getName());
+		} catch (InstantiationException ie) {
+			throw new IllegalArgumentException("Cannot instantiate allocation policy " + name);
+		} catch (IllegalAccessException iae) {
+			throw new IllegalArgumentException("Cannot instantiate allocation policy " + name);
+		}
+	}
+}
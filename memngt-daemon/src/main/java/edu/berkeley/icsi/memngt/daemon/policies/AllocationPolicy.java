@@ -0,0 +1,82 @@
+package edu.berkeley.icsi.memngt.daemon.policies;
+
+import edu.berkeley.icsi.memngt.protocols.ProcessType;
+import edu.berkeley.icsi.memngt.protocols.QoSClass;
+
+/**
+ * An allocation policy decides how the memory negotiator daemon divides the node's memory among its client processes.
+ * The daemon hands the policy a snapshot of the node and client state and carries out the returned decisions.
+ * Implementations must provide a public no-argument constructor so they can be selected through the daemon's
+ * configuration. All memory values are in kilobytes.
+ * <p>
+ * Implementations of this interface must be thread-safe as the daemon consults the policy from multiple threads.
+ * 
+ * @author warneke
+ */
+public interface AllocationPolicy {
+
+	/**
+	 * Returns the fraction by which a client process may exceed its granted memory share before the daemon
+	 * interferes. The same fraction of the free memory is kept back as a safety margin.
+	 * 
+	 * @return the grace margin as a fraction of the granted memory share
+	 */
+	float getGraceMargin();
+
+	/**
+	 * Checks whether the daemon shall ask the clients which accept offers for their utility curves before it calls
+	 * {@link #redistribute(NodeState)}.
+	 * 
+	 * @return <code>true</code> if the policy bases its redistribution on the clients' bids, <code>false</code>
+	 *         otherwise
+	 */
+	boolean requiresBids();
+
+	/**
+	 * Determines the memory share a newly registering client process initially receives.
+	 * 
+	 * @param nodeState
+	 *        the current state of the node
+	 * @param name
+	 *        the name of the registering client
+	 * @param type
+	 *        the type of the registering client
+	 * @param qosClass
+	 *        the quality of service class of the registering client
+	 * @param learnedMemoryShare
+	 *        the steady-state memory usage of the application in previous runs or <code>-1</code> if the daemon has no
+	 *        profile of the application
+	 * @return the initial memory share of the client
+	 */
+	int getInitialMemoryShare(NodeState nodeState, String name, ProcessType type, QoSClass qosClass,
+			int learnedMemoryShare);
+
+	/**
+	 * Decides on a client's request for additional memory. To approve the request from spare memory, the decision must
+	 * grant the requested amount to the requesting client. To approve the request at the expense of other clients, the
+	 * decision must list the memory to reclaim from them; the daemon then grants the request if the spare memory plus
+	 * the memory the other clients actually released covers it. Memory may only be reclaimed from clients whose
+	 * quality of service class the requester may preempt, see {@link QoSClass#mayPreempt(QoSClass)}. An empty
+	 * decision rejects the request.
+	 * 
+	 * @param nodeState
+	 *        the current state of the node
+	 * @param requester
+	 *        the state of the requesting client
+	 * @param amountOfMemory
+	 *        the requested amount of additional memory
+	 * @return the decision on the request
+	 */
+	AllocationDecision decideOnRequest(NodeState nodeState, ClientState requester, int amountOfMemory);
+
+	/**
+	 * Decides how to redistribute the node's memory. The daemon calls this method periodically. Grants are offered to
+	 * the respective clients, which may accept them in part; only clients which accept offers may receive grants.
+	 * Reclaims reduce the granted shares of the respective clients.
+	 * 
+	 * @param nodeState
+	 *        the current state of the node
+	 * @return the redistribution decision
+	 */
+	AllocationDecision redistribute(NodeState nodeState);
+}
@@ -0,0 +1,215 @@
+package edu.berkeley.icsi.memngt.daemon.policies;
+
+import edu.berkeley.icsi.memngt.protocols.ProcessType;
+import edu.berkeley.icsi.memngt.protocols.QoSClass;
+import edu.berkeley.icsi.memngt.protocols.UtilityCurve;
+
+/**
+ * An immutable snapshot of the state of a client process which allocation policies base their decisions on. All
+ * memory values are in kilobytes.
+ * <p>
+ * This class is thread-safe.
+ * 
+ * @author warneke
+ */
+public final class ClientState {
+
+	private final int pid;
+
+	private final String name;
+
+	private final ProcessType type;
+
+	private final QoSClass qosClass;
+
+	private final int priority;
+
+	private final int weight;
+
+	private final int guaranteedMemoryShare;
+
+	private final int grantedMemoryShare;
+
+	private final int minimumMemoryShare;
+
+	private final int maximumMemoryShare;
+
+	private final int physicalMemorySize;
+
+	private final boolean acceptingOffers;
+
+	private final UtilityCurve utilityCurve;
+
+	private final float gcTimeFraction;
+
+	private final int allocationRate;
+
+	private final PagingStatistics pagingStatistics;
+
+	/**
+	 * Constructs a new client state.
+	 * 
+	 * @param pid
+	 *        the process ID of the client
+	 * @param name
+	 *        the name of the client
+	 * @param type
+	 *        the type of the client
+	 * @param qosClass
+	 *        the quality of service class of the client
+	 * @param priority
+	 *        the priority of the client, higher values indicate more important clients
+	 * @param weight
+	 *        the weight of the client when spare memory is divided
+	 * @param guaranteedMemoryShare
+	 *        the memory share the client can never lose
+	 * @param grantedMemoryShare
+	 *        the memory share currently granted to the client
+	 * @param minimumMemoryShare
+	 *        the memory share the client receives before spare memory is divided
+	 * @param maximumMemoryShare
+	 *        the memory share beyond which the client does not want any more memory
+	 * @param physicalMemorySize
+	 *        the physical memory size of the client as last observed by the daemon
+	 * @param acceptingOffers
+	 *        <code>true</code> if the client accepts offers of additional memory, <code>false</code> otherwise
+	 * @param utilityCurve
+	 *        the utility the client expects from its memory share as last submitted or <code>null</code> if the
+	 *        client never submitted a utility curve
+	 * @param gcTimeFraction
+	 *        the fraction of time the client recently spent collecting garbage, <code>0</code> if unknown
+	 * @param allocationRate
+	 *        the rate at which the client recently allocated memory in kilobytes per second, <code>0</code> if unknown
+	 * @param pagingStatistics
+	 *        how much the client recently paged, {@link PagingStatistics#UNKNOWN} if it has not been measured yet
+	 */
+	public ClientState(final int pid, final String name, final ProcessType type, final QoSClass qosClass,
+			final int priority, final int weight, final int guaranteedMemoryShare, final int grantedMemoryShare,
+			final int minimumMemoryShare, final int maximumMemoryShare, final int physicalMemorySize,
+			final boolean acceptingOffers, final UtilityCurve utilityCurve, final float gcTimeFraction,
+			final int allocationRate, final PagingStatistics pagingStatistics) {
+
+		this.pid = pid;
+		this.name = name;
+		this.type = type;
+		this.qosClass = qosClass;
+		this.priority = priority;
+		this.weight = weight;
+		this.guaranteedMemoryShare = guaranteedMemoryShare;
+		this.grantedMemoryShare = grantedMemoryShare;
+		this.minimumMemoryShare = minimumMemoryShare;
+		this.maximumMemoryShare = maximumMemoryShare;
+		this.physicalMemorySize = physicalMemorySize;
+		this.acceptingOffers = acceptingOffers;
+		this.utilityCurve = utilityCurve;
+		this.gcTimeFraction = gcTimeFraction;
+		this.allocationRate = allocationRate;
+		this.pagingStatistics = pagingStatistics;
+	}
+
+	public int getPID() {
+		return this.pid;
+	}
+
+	public String getName() {
+		return this.name;
+	}
+
+	public ProcessType getType() {
+		return this.type;
+	}
+
+	public QoSClass getQoSClass() {
+		return this.qosClass;
+	}
+
+	public int getPriority() {
+		return this.priority;
+	}
+
+	public int getWeight() {
+		return this.weight;
+	}
+
+	public int getGuaranteedMemoryShare() {
+		return this.guaranteedMemoryShare;
+	}
+
+	public int getGrantedMemoryShare() {
+		return this.grantedMemoryShare;
+	}
+
+	public int getMinimumMemoryShare() {
+		return this.minimumMemoryShare;
+	}
+
+	public int getMaximumMemoryShare() {
+		return this.maximumMemoryShare;
+	}
+
+	public int getPhysicalMemorySize() {
+		return this.physicalMemorySize;
+	}
+
+	/**
+	 * Returns the amount of memory which can be reclaimed from the client without touching its guaranteed share.
+	 * 
+	 * @return the amount of reclaimable memory in kilobytes
+	 */
+	public int getReclaimableMemory() {
+		return Math.max(0, this.grantedMemoryShare - this.guaranteedMemoryShare);
+	}
+
+	/**
+	 * Checks whether the client accepts offers of additional memory.
+	 * 
+	 * @return <code>true</code> if the client accepts offers of additional memory, <code>false</code> otherwise
+	 */
+	public boolean isAcceptingOffers() {
+		return this.acceptingOffers;
+	}
+
+	/**
+	 * Returns the utility the client expects from its memory share as last submitted.
+	 * 
+	 * @return the utility curve of the client or <code>null</code> if the client never submitted one
+	 */
+	public UtilityCurve getUtilityCurve() {
+		return this.utilityCurve;
+	}
+
+	/**
+	 * Returns the fraction of time the client recently spent collecting garbage.
+	 * 
+	 * @return the fraction of time spent collecting garbage between 0 and 1, <code>0</code> if unknown
+	 */
+	public float getGCTimeFraction() {
+		return this.gcTimeFraction;
+	}
+
+	/**
+	 * Returns the rate at which the client recently allocated memory.
+	 * 
+	 * @return the allocation rate in kilobytes per second, <code>0</code> if unknown
+	 */
+	public int getAllocationRate() {
+		return this.allocationRate;
+	}
+
+	/**
+	 * Returns how much the client recently paged.
+	 * 
+	 * @return the paging statistics of the client, {@link PagingStatistics#UNKNOWN} if it has not been measured yet
+	 */
+	public PagingStatistics getPagingStatistics() {
+		return this.pagingStatistics;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public String toString() {
+		return this.name + " (" + this.pid + ")";
+	}
+}
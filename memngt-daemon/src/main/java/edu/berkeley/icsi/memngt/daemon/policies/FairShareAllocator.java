@@ -0,0 +1,184 @@
+package edu.berkeley.icsi.memngt.daemon.policies;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The fair share allocator divides memory among a set of client processes according to weighted max-min fairness.
+ * Every client first receives its minimum memory share. The remaining memory is split in proportion to the clients'
+ * weights, whereby no client receives more than its maximum memory share. Memory a client does not want is
+ * redistributed among the others in proportion to their weights.
+ * <p>
+ * The computed target shares are cached. They are only recomputed if clients joined, left or changed their allocation
+ * parameters, or if the amount of memory to distribute changed noticeably.
+ * <p>
+ * This class is thread-safe.
+ * 
+ * @author warneke
+ */
+final class FairShareAllocator {
+
+	/**
+	 * The change of the memory to distribute in kilobytes which triggers a recomputation of the target shares.
+	 */
+	private static final int RECOMPUTATION_THRESHOLD = 4 * 1024;
+
+	/**
+	 * Orders demands by the amount of memory the clients want beyond their minimum share relative to their weight.
+	 */
+	private static final Comparator<Demand> SATURATION_ORDER = new Comparator<Demand>() {
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public int compare(final Demand o1, final Demand o2) {
+
+			final double s1 = o1.headroom / (double) o1.weight;
+			final double s2 = o2.headroom / (double) o2.weight;
+
+			if (s1 < s2) {
+				return -1;
+			}
+
+			if (s1 > s2) {
+				return 1;
+			}
+
+			return 0;
+		}
+	};
+
+	/**
+	 * The allocation parameters of a client process as far as they are relevant for the division of the memory.
+	 * 
+	 * @author warneke
+	 */
+	private static final class Demand {
+
+		private final int pid;
+
+		private final int weight;
+
+		private final int minimumMemoryShare;
+
+		/**
+		 * The amount of memory in kilobytes the client wants beyond its minimum share.
+		 */
+		private final long headroom;
+
+		private long share;
+
+		private Demand(final ClientState clientState) {
+			this.pid = clientState.getPID();
+			this.weight = Math.max(1, clientState.getWeight());
+			this.minimumMemoryShare = Math.max(0, clientState.getMinimumMemoryShare());
+			this.headroom = Math.max(0L, (long) clientState.getMaximumMemoryShare() - (long) this.minimumMemoryShare);
+		}
+
+		private boolean hasSameParameters(final Demand demand) {
+			return this.weight == demand.weight && this.minimumMemoryShare == demand.minimumMemoryShare
+				&& this.headroom == demand.headroom;
+		}
+	}
+
+	/**
+	 * The demands the cached target shares were computed for, indexed by process ID.
+	 */
+	private final Map<Integer, Demand> demands = new HashMap<Integer, Demand>();
+
+	/**
+	 * The target shares computed by the last recomputation, indexed by process ID.
+	 */
+	private final Map<Integer, Integer> targetShares = new HashMap<Integer, Integer>();
+
+	/**
+	 * The amount of memory distributed by the last recomputation in kilobytes.
+	 */
+	private int distributedMemory = -1;
+
+	/**
+	 * Returns the target memory share of each of the given client processes.
+	 * 
+	 * @param clientStates
+	 *        the client processes to divide the memory among
+	 * @param memoryToDistribute
+	 *        the total amount of memory to divide in kilobytes
+	 * @return the target memory share in kilobytes of each client process, indexed by process ID
+	 */
+	synchronized Map<Integer, Integer> getTargetShares(final Collection<ClientState> clientStates,
+			final int memoryToDistribute) {
+
+		final List<Demand> currentDemands = new ArrayList<Demand>(clientStates.size());
+		boolean outdated = (clientStates.size() != this.demands.size())
+			|| Math.abs(memoryToDistribute - this.distributedMemory) >= RECOMPUTATION_THRESHOLD;
+
+		for (final ClientState clientState : clientStates) {
+			final Demand demand = new Demand(clientState);
+			if (!outdated) {
+				final Demand cachedDemand = this.demands.get(Integer.valueOf(demand.pid));
+				outdated = (cachedDemand == null || !cachedDemand.hasSameParameters(demand));
+			}
+			currentDemands.add(demand);
+		}
+
+		if (outdated) {
+
+			this.demands.clear();
+			for (final Demand demand : currentDemands) {
+				this.demands.put(Integer.valueOf(demand.pid), demand);
+			}
+
+			this.targetShares.clear();
+			allocate(currentDemands, memoryToDistribute, this.targetShares);
+			this.distributedMemory = memoryToDistribute;
+		}
+
+		return Collections.unmodifiableMap(new HashMap<Integer, Integer>(this.targetShares));
+	}
+
+	/**
+	 * Divides the given amount of memory among the given demands according to weighted max-min fairness.
+	 * 
+	 * @param demands
+	 *        the demands to divide the memory among
+	 * @param memoryToDistribute
+	 *        the total amount of memory to divide in kilobytes
+	 * @param targetShares
+	 *        the map to store the target share of each client process in, indexed by process ID
+	 */
+	private static void allocate(final List<Demand> demands, final int memoryToDistribute,
+			final Map<Integer, Integer> targetShares) {
+
+		// Every client receives its minimum share first, as far as the memory suffices
+		long remainingMemory = memoryToDistribute;
+		long totalWeight = 0L;
+		for (final Demand demand : demands) {
+			demand.share = Math.min(demand.minimumMemoryShare, Math.max(0L, remainingMemory));
+			remainingMemory -= demand.share;
+			totalWeight += demand.weight;
+		}
+
+		// Fill up the clients with the least headroom per weight first, they saturate first
+		final List<Demand> sortedDemands = new ArrayList<Demand>(demands);
+		Collections.sort(sortedDemands, SATURATION_ORDER);
+
+		for (final Demand demand : sortedDemands) {
+
+			if (remainingMemory > 0L && totalWeight > 0L) {
+				final long share = Math.min(demand.headroom, (remainingMemory * demand.weight) / totalWeight);
+				remainingMemory -= share;
+				totalWeight -= demand.weight;
+				demand.share += share;
+			}
+
+			targetShares.put(Integer.valueOf(demand.pid), Integer.valueOf((int) Math.min(demand.share,
+				Integer.MAX_VALUE)));
+		}
+	}
+}
@@ -0,0 +1,79 @@
+package edu.berkeley.icsi.memngt.daemon.policies;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * The first-fit policy implements the daemon's original allocation strategy. Spare memory is offered to the
+ * infrastructure processes one after another, each taking as much as it wants, and memory for requests which exceed
+ * the spare memory is reclaimed from the clients of each preemptable quality of service class in the order of their
+ * priority.
+ * <p>
+ * This class is thread-safe.
+ * 
+ * @author warneke
+ */
+public final class FirstFitPolicy extends AbstractAllocationPolicy {
+
+	/**
+	 * Orders clients by ascending priority.
+	 */
+	static final Comparator<ClientState> PRIORITY_ORDER = new Comparator<ClientState>() {
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public int compare(final ClientState o1, final ClientState o2) {
+
+			return o1.getPriority() - o2.getPriority();
+		}
+	};
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public AllocationDecision redistribute(final NodeState nodeState) {
+
+		final AllocationDecision decision = new AllocationDecision();
+
+		final List<ClientState> candidates = new ArrayList<ClientState>();
+		for (final ClientState clientState : nodeState.getClientStates()) {
+			if (wantsMemory(clientState)) {
+				candidates.add(clientState);
+			}
+		}
+
+		Collections.sort(candidates, Collections.reverseOrder(PRIORITY_ORDER));
+
+		int spareMemory = nodeState.getSpareMemory();
+		for (final ClientState candidate : candidates) {
+
+			if (spareMemory <= 0) {
+				break;
+			}
+
+			final int memoryToOffer = (int) Math.min(spareMemory, (long) candidate.getMaximumMemoryShare()
+				- (long) candidate.getGrantedMemoryShare());
+			decision.grant(candidate.getPID(), memoryToOffer);
+			spareMemory -= memoryToOffer;
+		}
+
+		return decision;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	protected List<ClientState> getReclaimCandidates(final NodeState nodeState, final ClientState requester) {
+
+		final List<ClientState> candidates = new ArrayList<ClientState>(nodeState.getClientStates());
+		Collections.sort(candidates, PRIORITY_ORDER);
+
+		return candidates;
+	}
+}
@@ -0,0 +1,127 @@
+package edu.berkeley.icsi.memngt.daemon.policies;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * The garbage collection overhead policy moves memory toward the JVMs which spend the largest fraction of their time
+ * collecting garbage, based on the statistics the clients report. Spare memory is divided among the interested
+ * clients in proportion to their garbage collection time fraction. If there is too little spare memory while a client
+ * suffers from garbage collection, memory is reclaimed step by step from clients of the same or a lower quality of
+ * service class which hardly collect garbage and offered to the suffering clients in the following rounds.
+ * <p>
+ * Memory for requests which exceed the spare memory is reclaimed from the clients with the lowest garbage collection
+ * overhead first; suffering clients are spared. Clients which do not report statistics count as having no overhead.
+ * <p>
+ * This class is thread-safe.
+ * 
+ * @author warneke
+ */
+public final class GCOverheadPolicy extends AbstractAllocationPolicy {
+
+	/**
+	 * The garbage collection time fraction above which a client suffers from garbage collection.
+	 */
+	private static final float SUFFERING_THRESHOLD = 0.1f;
+
+	/**
+	 * The garbage collection time fraction below which a client can spare memory for suffering clients.
+	 */
+	private static final float RELAXED_THRESHOLD = 0.02f;
+
+	/**
+	 * The maximum amount of memory in kilobytes moved from relaxed to suffering clients per round.
+	 */
+	private static final int REBALANCING_STEP = 64 * 1024;
+
+	/**
+	 * Orders clients by ascending garbage collection overhead, the allocation rate breaking ties.
+	 */
+	private static final Comparator<ClientState> OVERHEAD_ORDER = new Comparator<ClientState>() {
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public int compare(final ClientState o1, final ClientState o2) {
+
+			final int result = Float.compare(o1.getGCTimeFraction(), o2.getGCTimeFraction());
+			if (result != 0) {
+				return result;
+			}
+
+			return o1.getAllocationRate() - o2.getAllocationRate();
+		}
+	};
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public AllocationDecision redistribute(final NodeState nodeState) {
+
+		final AllocationDecision decision = new AllocationDecision();
+
+		// Determine the interested clients which spend time collecting garbage
+		final List<ClientState> candidates = new ArrayList<ClientState>();
+		double totalOverhead = 0.0;
+		for (final ClientState clientState : nodeState.getClientStates()) {
+			if (wantsMemory(clientState) && clientState.getGCTimeFraction() > 0.0f) {
+				candidates.add(clientState);
+				totalOverhead += clientState.getGCTimeFraction();
+			}
+		}
+
+		if (candidates.isEmpty()) {
+			return decision;
+		}
+
+		Collections.sort(candidates, Collections.reverseOrder(OVERHEAD_ORDER));
+
+		// Divide the spare memory in proportion to the garbage collection overhead
+		final int spareMemory = Math.max(0, nodeState.getSpareMemory());
+		for (final ClientState candidate : candidates) {
+
+			final long share = (long) ((double) spareMemory * candidate.getGCTimeFraction() / totalOverhead);
+			final long headroom = (long) candidate.getMaximumMemoryShare() - (long) candidate.getGrantedMemoryShare();
+			decision.grant(candidate.getPID(), (int) Math.min(share, headroom));
+		}
+
+		// Take memory away from relaxed clients if the spare memory cannot relieve the most suffering client
+		final ClientState mostSuffering = candidates.get(0);
+		if (mostSuffering.getGCTimeFraction() >= SUFFERING_THRESHOLD && spareMemory < REBALANCING_STEP) {
+
+			final List<ClientState> donors = new ArrayList<ClientState>();
+			for (final ClientState clientState : nodeState.getClientStates()) {
+				if (clientState.getGCTimeFraction() < RELAXED_THRESHOLD) {
+					donors.add(clientState);
+				}
+			}
+
+			Collections.sort(donors, OVERHEAD_ORDER);
+			reclaim(decision, donors, mostSuffering, REBALANCING_STEP - spareMemory, true);
+		}
+
+		return decision;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	protected List<ClientState> getReclaimCandidates(final NodeState nodeState, final ClientState requester) {
+
+		final List<ClientState> candidates = new ArrayList<ClientState>();
+		for (final ClientState clientState : nodeState.getClientStates()) {
+			if (clientState.getGCTimeFraction() < SUFFERING_THRESHOLD) {
+				candidates.add(clientState);
+			}
+		}
+
+		Collections.sort(candidates, OVERHEAD_ORDER);
+
+		return candidates;
+	}
+}
@@ -0,0 +1,213 @@
+package edu.berkeley.icsi.memngt.daemon.policies;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import edu.berkeley.icsi.memngt.protocols.UtilityCurve;
+
+/**
+ * The market policy divides memory so that the total utility across all clients is maximized, based on the utility
+ * curves the clients submit with their requests and bids. Since the curves are concave, a greedy solver which
+ * repeatedly hands the next piece of memory to the client with the highest marginal utility finds the optimum.
+ * <p>
+ * Spare memory is only offered to bidding clients. A request which cannot be served from spare memory is only granted
+ * at the expense of other clients if the requester gains more utility than they lose, whereby clients without a curve
+ * are assumed to lose nothing. Requests without a curve are handled like in the other policies. The preemption order
+ * of the quality of service classes applies in any case.
+ * <p>
+ * This class is thread-safe.
+ * 
+ * @author warneke
+ */
+public final class MarketPolicy extends AbstractAllocationPolicy {
+
+	/**
+	 * Orders clients by ascending utility of the last megabyte of their granted share.
+	 */
+	private static final Comparator<ClientState> UTILITY_ORDER = new Comparator<ClientState>() {
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public int compare(final ClientState o1, final ClientState o2) {
+
+			return Float.compare(getUtilityOfLastMegabyte(o1), getUtilityOfLastMegabyte(o2));
+		}
+
+		private float getUtilityOfLastMegabyte(final ClientState clientState) {
+
+			final UtilityCurve utilityCurve = clientState.getUtilityCurve();
+			if (utilityCurve == null) {
+				return 0.0f;
+			}
+
+			return utilityCurve.getMarginalUtility(Math.max(0, clientState.getGrantedMemoryShare() - 1024));
+		}
+	};
+
+	/**
+	 * Orders bidders by descending marginal utility at their current share.
+	 */
+	private static final Comparator<Bidder> BID_ORDER = new Comparator<Bidder>() {
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public int compare(final Bidder o1, final Bidder o2) {
+
+			return Float.compare(o2.getMarginalUtility(), o1.getMarginalUtility());
+		}
+	};
+
+	/**
+	 * A client taking part in the division of spare memory.
+	 * 
+	 * @author warneke
+	 */
+	private static final class Bidder {
+
+		private final ClientState clientState;
+
+		/**
+		 * The share the client holds including the memory assigned to it so far in kilobytes.
+		 */
+		private int share;
+
+		private Bidder(final ClientState clientState) {
+			this.clientState = clientState;
+			this.share = clientState.getGrantedMemoryShare();
+		}
+
+		private float getMarginalUtility() {
+			return this.clientState.getUtilityCurve().getMarginalUtility(this.share);
+		}
+
+		/**
+		 * Returns the share up to which the marginal utility of the client remains constant.
+		 * 
+		 * @return the share in kilobytes up to which the marginal utility remains constant
+		 */
+		private int getNextBreakpoint() {
+
+			final UtilityCurve utilityCurve = this.clientState.getUtilityCurve();
+			int breakpoint = this.clientState.getMaximumMemoryShare();
+			for (int i = 0; i < utilityCurve.getNumberOfSegments(); ++i) {
+				if (this.share < utilityCurve.getSegmentLimit(i)) {
+					breakpoint = Math.min(breakpoint, utilityCurve.getSegmentLimit(i));
+					break;
+				}
+			}
+
+			return breakpoint;
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public boolean requiresBids() {
+
+		return true;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public AllocationDecision redistribute(final NodeState nodeState) {
+
+		final AllocationDecision decision = new AllocationDecision();
+
+		final PriorityQueue<Bidder> bidders = new PriorityQueue<Bidder>(Math.max(1, nodeState.getClientStates()
+			.size()), BID_ORDER);
+		for (final ClientState clientState : nodeState.getClientStates()) {
+			if (wantsMemory(clientState) && clientState.getUtilityCurve() != null) {
+				bidders.add(new Bidder(clientState));
+			}
+		}
+
+		// Hand the memory out piece by piece to the client with the highest marginal utility
+		int remainingMemory = nodeState.getSpareMemory();
+		while (remainingMemory > 0 && !bidders.isEmpty()) {
+
+			final Bidder bidder = bidders.poll();
+			if (bidder.getMarginalUtility() <= 0.0f) {
+				// No other bidder values the memory any higher
+				break;
+			}
+
+			final int memoryToAssign = Math.min(remainingMemory, bidder.getNextBreakpoint() - bidder.share);
+			if (memoryToAssign <= 0) {
+				continue;
+			}
+
+			decision.grant(bidder.clientState.getPID(), memoryToAssign);
+			bidder.share += memoryToAssign;
+			remainingMemory -= memoryToAssign;
+
+			if (bidder.share < bidder.clientState.getMaximumMemoryShare()) {
+				bidders.add(bidder);
+			}
+		}
+
+		return decision;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public AllocationDecision decideOnRequest(final NodeState nodeState, final ClientState requester,
+			final int amountOfMemory) {
+
+		final AllocationDecision decision = super.decideOnRequest(nodeState, requester, amountOfMemory);
+
+		final UtilityCurve utilityCurve = requester.getUtilityCurve();
+		if (utilityCurve == null || decision.getReclaims().isEmpty()) {
+			return decision;
+		}
+
+		// The spare memory covers the most valuable part of the request, the reclaimed memory must pay for the rest
+		final int grantedMemoryShare = requester.getGrantedMemoryShare();
+		final int spareMemory = Math.max(0, nodeState.getSpareMemory());
+		final double gain = utilityCurve.getUtility(grantedMemoryShare + spareMemory, grantedMemoryShare
+			+ amountOfMemory);
+
+		double loss = 0.0;
+		for (final Map.Entry<Integer, Integer> entry : decision.getReclaims().entrySet()) {
+
+			final ClientState clientState = nodeState.getClientState(entry.getKey().intValue());
+			if (clientState == null || clientState.getUtilityCurve() == null) {
+				continue;
+			}
+
+			final int share = clientState.getGrantedMemoryShare();
+			loss += clientState.getUtilityCurve().getUtility(share - entry.getValue().intValue(), share);
+		}
+
+		if (loss >= gain) {
+			return new AllocationDecision();
+		}
+
+		return decision;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	protected List<ClientState> getReclaimCandidates(final NodeState nodeState, final ClientState requester) {
+
+		final List<ClientState> candidates = new ArrayList<ClientState>(nodeState.getClientStates());
+		Collections.sort(candidates, UTILITY_ORDER);
+
+		return candidates;
+	}
+}
@@ -0,0 +1,75 @@
+package edu.berkeley.icsi.memngt.daemon.policies;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An immutable snapshot of the memory situation of the node and the state of all registered client processes. All
+ * memory values are in kilobytes.
+ * <p>
+ * This class is thread-safe.
+ * 
+ * @author warneke
+ */
+public final class NodeState {
+
+	/**
+	 * The amount of free memory which has not been promised to any client yet.
+	 */
+	private final int spareMemory;
+
+	/**
+	 * The states of the registered client processes.
+	 */
+	private final List<ClientState> clientStates;
+
+	/**
+	 * Constructs a new node state.
+	 * 
+	 * @param spareMemory
+	 *        the amount of free memory which has not been promised to any client yet
+	 * @param clientStates
+	 *        the states of the registered client processes
+	 */
+	public NodeState(final int spareMemory, final List<ClientState> clientStates) {
+		this.spareMemory = spareMemory;
+		this.clientStates = Collections.unmodifiableList(new ArrayList<ClientState>(clientStates));
+	}
+
+	/**
+	 * Returns the amount of free memory which has not been promised to any client yet.
+	 * 
+	 * @return the amount of spare memory in kilobytes, possibly negative if the node is overcommitted
+	 */
+	public int getSpareMemory() {
+		return this.spareMemory;
+	}
+
+	/**
+	 * Returns the states of the registered client processes.
+	 * 
+	 * @return the states of the registered client processes
+	 */
+	public List<ClientState> getClientStates() {
+		return this.clientStates;
+	}
+
+	/**
+	 * Returns the state of the client process with the given ID.
+	 * 
+	 * @param pid
+	 *        the ID of the client process
+	 * @return the state of the client process or <code>null</code> if no such client is registered
+	 */
+	public ClientState getClientState(final int pid) {
+
+		for (final ClientState clientState : this.clientStates) {
+			if (clientState.getPID() == pid) {
+				return clientState;
+			}
+		}
+
+		return null;
+	}
+}
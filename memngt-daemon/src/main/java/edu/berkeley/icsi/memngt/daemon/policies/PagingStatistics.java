@@ -0,0 +1,78 @@
+package edu.berkeley.icsi.memngt.daemon.policies;
+
+/**
+ * An immutable snapshot of how much a client process pages: the swap space it occupies, the rate of its major page
+ * faults and the time it stalls waiting for memory. All memory values are in kilobytes.
+ * <p>
+ * This class is thread-safe.
+ * 
+ * @author warneke
+ */
+public final class PagingStatistics {
+
+	/**
+	 * The paging statistics of a client process which has not been measured yet.
+	 */
+	public static final PagingStatistics UNKNOWN = new PagingStatistics(0, 0, -1.0f);
+
+	/**
+	 * The amount of swap space the client occupies, <code>0</code> if unknown.
+	 */
+	private final int swapSize;
+
+	/**
+	 * The rate of major page faults the client recently caused per second.
+	 */
+	private final int majorFaultRate;
+
+	/**
+	 * The share of time in percent the client recently stalled waiting for memory, <code>-1</code> if unknown.
+	 */
+	private final float memoryStall;
+
+	/**
+	 * Constructs new paging statistics.
+	 * 
+	 * @param swapSize
+	 *        the amount of swap space the client occupies, <code>0</code> if unknown
+	 * @param majorFaultRate
+	 *        the rate of major page faults the client recently caused per second
+	 * @param memoryStall
+	 *        the share of time in percent the client recently stalled waiting for memory, <code>-1</code> if unknown
+	 */
+	public PagingStatistics(final int swapSize, final int majorFaultRate, final float memoryStall) {
+		this.swapSize = swapSize;
+		this.majorFaultRate = majorFaultRate;
+		this.memoryStall = memoryStall;
+	}
+
+	/**
+	 * Returns the amount of swap space the client occupies. Swapped out pages still count towards the client's memory
+	 * usage, it just does not show in the physical memory size.
+	 * 
+	 * @return the amount of swap space in kilobytes, <code>0</code> if unknown
+	 */
+	public int getSwapSize() {
+		return this.swapSize;
+	}
+
+	/**
+	 * Returns the rate of major page faults the client recently caused. A client which rarely faults does not touch
+	 * the pages it has lost to swap, i.e. its memory is cold.
+	 * 
+	 * @return the number of major page faults per second
+	 */
+	public int getMajorFaultRate() {
+		return this.majorFaultRate;
+	}
+
+	/**
+	 * Returns the share of time the client recently stalled waiting for memory.
+	 * 
+	 * @return the stall time in percent or <code>-1</code> if the kernel provides no pressure stall information for the
+	 *         client
+	 */
+	public float getMemoryStall() {
+		return this.memoryStall;
+	}
+}
@@ -0,0 +1,95 @@
+package edu.berkeley.icsi.memngt.daemon.policies;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * The priority policy ranks clients by their quality of service class. Spare memory is offered to the highest ranked
+ * clients first, clients of the same class in the order in which they are listed. The policy is preemptive: memory for
+ * requests which exceed the spare memory is reclaimed from any client of a lower class, lowest rank first, and a
+ * client which holds less than its minimum share has the shortfall reclaimed from clients of lower classes during
+ * redistribution. A client memory is reclaimed from is not offered memory in the same round.
+ * <p>
+ * This class is thread-safe.
+ * 
+ * @author warneke
+ */
+public final class PriorityPolicy extends AbstractAllocationPolicy {
+
+	/**
+	 * Orders clients by the ascending rank of their quality of service class.
+	 */
+	private static final Comparator<ClientState> RANK_ORDER = new Comparator<ClientState>() {
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public int compare(final ClientState o1, final ClientState o2) {
+
+			return o1.getQoSClass().getRank() - o2.getQoSClass().getRank();
+		}
+	};
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public AllocationDecision redistribute(final NodeState nodeState) {
+
+		final AllocationDecision decision = new AllocationDecision();
+
+		final List<ClientState> candidates = new ArrayList<ClientState>();
+		for (final ClientState clientState : nodeState.getClientStates()) {
+			if (wantsMemory(clientState)) {
+				candidates.add(clientState);
+			}
+		}
+
+		Collections.sort(candidates, Collections.reverseOrder(RANK_ORDER));
+
+		int spareMemory = Math.max(0, nodeState.getSpareMemory());
+		for (final ClientState candidate : candidates) {
+
+			// Memory which is being reclaimed from the candidate for a higher ranked client is not offered back
+			if (decision.getReclaim(candidate.getPID()) > 0) {
+				continue;
+			}
+
+			final int memoryToOffer = (int) Math.min(spareMemory, (long) candidate.getMaximumMemoryShare()
+				- (long) candidate.getGrantedMemoryShare());
+			decision.grant(candidate.getPID(), memoryToOffer);
+			spareMemory -= memoryToOffer;
+
+			// Preempt lower ranked clients if the candidate still lacks its minimum share; the memory is offered once
+			// they released it
+			final int shortfall = candidate.getMinimumMemoryShare() - candidate.getGrantedMemoryShare()
+				- memoryToOffer;
+			if (shortfall > 0) {
+				reclaim(decision, getReclaimCandidates(nodeState, candidate), candidate, shortfall);
+			}
+		}
+
+		return decision;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	protected List<ClientState> getReclaimCandidates(final NodeState nodeState, final ClientState requester) {
+
+		final List<ClientState> candidates = new ArrayList<ClientState>();
+		for (final ClientState clientState : nodeState.getClientStates()) {
+			if (RANK_ORDER.compare(clientState, requester) < 0) {
+				candidates.add(clientState);
+			}
+		}
+
+		Collections.sort(candidates, RANK_ORDER);
+
+		return candidates;
+	}
+}
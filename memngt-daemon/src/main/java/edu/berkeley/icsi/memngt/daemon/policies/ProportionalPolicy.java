@@ -0,0 +1,126 @@
+package edu.berkeley.icsi.memngt.daemon.policies;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The proportional policy divides the spare memory among the infrastructure processes which accept offers according
+ * to weighted max-min fairness, see {@link FairShareAllocator}. The target shares are computed over the spare memory
+ * and the memory already granted to these processes, but nothing is reclaimed from processes above their target.
+ * Instead, the grants to the processes below their target are scaled down proportionally to fit the spare memory.
+ * Memory for requests which exceed the spare memory is reclaimed from the clients of each preemptable quality of
+ * service class holding the most memory beyond their minimum share relative to their weight first.
+ * <p>
+ * This class is thread-safe.
+ * 
+ * @author warneke
+ */
+public final class ProportionalPolicy extends AbstractAllocationPolicy {
+
+	/**
+	 * Orders clients by descending memory beyond their minimum share relative to their weight.
+	 */
+	private static final Comparator<ClientState> SURPLUS_ORDER = new Comparator<ClientState>() {
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public int compare(final ClientState o1, final ClientState o2) {
+
+			final double s1 = getSurplus(o1);
+			final double s2 = getSurplus(o2);
+
+			if (s1 > s2) {
+				return -1;
+			}
+
+			if (s1 < s2) {
+				return 1;
+			}
+
+			return 0;
+		}
+
+		private double getSurplus(final ClientState clientState) {
+			return ((double) clientState.getGrantedMemoryShare() - (double) clientState.getMinimumMemoryShare())
+				/ Math.max(1, clientState.getWeight());
+		}
+	};
+
+	/**
+	 * The allocator computing the target shares of the infrastructure processes.
+	 */
+	private final FairShareAllocator fairShareAllocator = new FairShareAllocator();
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public AllocationDecision redistribute(final NodeState nodeState) {
+
+		final AllocationDecision decision = new AllocationDecision();
+		final int spareMemory = nodeState.getSpareMemory();
+		if (spareMemory <= 0) {
+			return decision;
+		}
+
+		// Determine the infrastructure processes which want additional memory
+		final List<ClientState> interestedClients = new ArrayList<ClientState>();
+		long memoryToDistribute = 0L;
+		for (final ClientState clientState : nodeState.getClientStates()) {
+			if (wantsMemory(clientState)) {
+				interestedClients.add(clientState);
+				memoryToDistribute += clientState.getGrantedMemoryShare();
+			}
+		}
+
+		if (interestedClients.isEmpty()) {
+			return decision;
+		}
+
+		// Divide the spare memory and the memory already granted to the interested processes in a fair manner
+		memoryToDistribute = Math.min(memoryToDistribute + spareMemory, Integer.MAX_VALUE);
+		final Map<Integer, Integer> targetShares = this.fairShareAllocator.getTargetShares(interestedClients,
+			(int) memoryToDistribute);
+
+		// Clients above their target keep their grant, so the gaps of the others may add up to more than is spare
+		final int[] gaps = new int[interestedClients.size()];
+		long totalGap = 0L;
+		for (int i = 0; i < gaps.length; ++i) {
+
+			final ClientState clientState = interestedClients.get(i);
+			final Integer targetShare = targetShares.get(Integer.valueOf(clientState.getPID()));
+			if (targetShare != null) {
+				gaps[i] = Math.max(0, targetShare.intValue() - clientState.getGrantedMemoryShare());
+				totalGap += gaps[i];
+			}
+		}
+
+		// Shrink the gaps proportionally until they fit into the spare memory
+		for (int i = 0; i < gaps.length; ++i) {
+
+			final int gap = (totalGap <= spareMemory) ? gaps[i] : (int) ((long) gaps[i] * spareMemory / totalGap);
+			if (gap > 0) {
+				decision.grant(interestedClients.get(i).getPID(), gap);
+			}
+		}
+
+		return decision;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	protected List<ClientState> getReclaimCandidates(final NodeState nodeState, final ClientState requester) {
+
+		final List<ClientState> candidates = new ArrayList<ClientState>(nodeState.getClientStates());
+		Collections.sort(candidates, SURPLUS_ORDER);
+
+		return candidates;
+	}
+}
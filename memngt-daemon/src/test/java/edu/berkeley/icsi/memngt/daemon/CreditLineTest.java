@@ -0,0 +1,71 @@
+package edu.berkeley.icsi.memngt.daemon;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests that the {@link CreditLine} never settles the same credit twice and never settles more than it extended.
+ *
+ * @author warneke
+ */
+public class CreditLineTest extends TestCase {
+
+	public void testDrawnCreditIsSettledOnce() {
+
+		final CreditLine creditLine = new CreditLine();
+		creditLine.extend(4000, 1000L);
+
+		assertEquals(1000, creditLine.settle(1000L));
+		assertEquals(0, creditLine.settle(1000L));
+		assertEquals(2000, creditLine.settle(3000L));
+		assertEquals(1000, creditLine.getOutstandingCredit());
+	}
+
+	public void testLateReportDoesNotSettleAgain() {
+
+		final CreditLine creditLine = new CreditLine();
+		creditLine.extend(4000, 1000L);
+
+		assertEquals(3000, creditLine.settle(3000L));
+
+		// A report which was overtaken by a more recent one
+		assertEquals(0, creditLine.settle(2000L));
+		assertEquals(1000, creditLine.getOutstandingCredit());
+	}
+
+	public void testSettlementIsLimitedToExtendedCredit() {
+
+		final CreditLine creditLine = new CreditLine();
+		creditLine.extend(4000, 1000L);
+
+		assertEquals(4000, creditLine.settle(10000L));
+		assertEquals(0, creditLine.getOutstandingCredit());
+	}
+
+	public void testLeaseExpiresOnlyWithOutstandingCredit() {
+
+		final CreditLine creditLine = new CreditLine();
+		assertFalse(creditLine.isExpired(5000L));
+
+		creditLine.extend(4000, 1000L);
+		assertFalse(creditLine.isExpired(999L));
+		assertTrue(creditLine.isExpired(1000L));
+
+		assertEquals(4000, creditLine.settleAll());
+		assertFalse(creditLine.isExpired(5000L));
+	}
+
+	public void testRevokeSettlesOnlyTheDrawnPart() {
+
+		final CreditLine creditLine = new CreditLine();
+		creditLine.extend(4000, 1000L);
+		assertEquals(1000, creditLine.settle(1000L));
+
+		// The client gave up 2000 of its remaining 3000 kilobytes
+		assertEquals(1000, creditLine.revoke(2000));
+		assertEquals(0, creditLine.getOutstandingCredit());
+
+		// Further credit continues from the revised totals
+		creditLine.extend(1000, 2000L);
+		assertEquals(1000, creditLine.settle(3000L));
+	}
+}
@@ -0,0 +1,103 @@
+package edu.berkeley.icsi.memngt.daemon;
+
+import junit.framework.TestCase;
+
+import edu.berkeley.icsi.memngt.protocols.QoSClass;
+
+/**
+ * Tests that the {@link GCScheduler} staggers the collections on its lanes, never delays latency-critical clients and
+ * does not pile up the clients it cannot schedule within the maximum delay.
+ *
+ * @author warneke
+ */
+public class GCSchedulerTest extends TestCase {
+
+	private static final String CONCURRENCY_PROPERTY = "memngt.daemon.gcConcurrency";
+
+	private static final String MAXIMUM_DELAY_PROPERTY = "memngt.daemon.gcMaximumDelay";
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	protected void setUp() {
+
+		System.setProperty(CONCURRENCY_PROPERTY, "1");
+		System.setProperty(MAXIMUM_DELAY_PROPERTY, "1000");
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	protected void tearDown() {
+
+		System.clearProperty(CONCURRENCY_PROPERTY);
+		System.clearProperty(MAXIMUM_DELAY_PROPERTY);
+	}
+
+	public void testCollectionsAreStaggered() {
+
+		final GCScheduler scheduler = new GCScheduler(10000);
+
+		assertEquals(0, scheduler.schedule(1, QoSClass.BATCH, 200, 0L));
+		assertEquals(200, scheduler.schedule(2, QoSClass.BATCH, 200, 0L));
+		assertEquals(300, scheduler.schedule(3, QoSClass.BATCH, 200, 100L));
+	}
+
+	public void testCollectionsRunOnSeparateLanes() {
+
+		System.setProperty(CONCURRENCY_PROPERTY, "2");
+		final GCScheduler scheduler = new GCScheduler(10000);
+
+		assertEquals(0, scheduler.schedule(1, QoSClass.BATCH, 200, 0L));
+		assertEquals(0, scheduler.schedule(2, QoSClass.BATCH, 200, 0L));
+		assertEquals(200, scheduler.schedule(3, QoSClass.BATCH, 200, 0L));
+	}
+
+	public void testLatencyCriticalClientsAreNeverDelayed() {
+
+		final GCScheduler scheduler = new GCScheduler(10000);
+
+		assertEquals(0, scheduler.schedule(1, QoSClass.BATCH, 200, 0L));
+		assertEquals(0, scheduler.schedule(2, QoSClass.LATENCY_CRITICAL, 200, 0L));
+
+		// The latency-critical collection pushes back the slots handed out later
+		assertEquals(400, scheduler.schedule(3, QoSClass.BATCH, 200, 0L));
+	}
+
+	public void testCompletionOnlyFreesOwnSlot() {
+
+		final GCScheduler scheduler = new GCScheduler(10000);
+
+		assertEquals(0, scheduler.schedule(1, QoSClass.BATCH, 200, 0L));
+		assertEquals(200, scheduler.schedule(2, QoSClass.BATCH, 200, 0L));
+
+		scheduler.complete(2, 50L);
+		assertEquals(150, scheduler.schedule(3, QoSClass.BATCH, 200, 50L));
+	}
+
+	public void testClientsBeyondMaximumDelayAreNotScheduled() {
+
+		final GCScheduler scheduler = new GCScheduler(10000);
+
+		assertEquals(0, scheduler.schedule(1, QoSClass.BATCH, 600, 0L));
+		assertEquals(600, scheduler.schedule(2, QoSClass.BATCH, 600, 0L));
+
+		// The lane is booked until 1200, so the next clients collect at once instead of all at the maximum delay
+		assertEquals(0, scheduler.schedule(3, QoSClass.BATCH, 600, 0L));
+		assertEquals(0, scheduler.schedule(4, QoSClass.BATCH, 600, 0L));
+
+		// Neither of them took up a slot
+		assertEquals(200, scheduler.schedule(5, QoSClass.BATCH, 600, 1000L));
+	}
+
+	public void testMaximumDelayIsBoundedByLimit() {
+
+		final GCScheduler scheduler = new GCScheduler(300);
+
+		assertEquals(0, scheduler.schedule(1, QoSClass.BATCH, 200, 0L));
+		assertEquals(200, scheduler.schedule(2, QoSClass.BATCH, 200, 0L));
+		assertEquals(0, scheduler.schedule(3, QoSClass.BATCH, 200, 0L));
+	}
+}
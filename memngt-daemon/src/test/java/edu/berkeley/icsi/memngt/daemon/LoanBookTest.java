@@ -0,0 +1,77 @@
+package edu.berkeley.icsi.memngt.daemon;
+
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the recall order of the {@link LoanBook} and that overdue loans are escalated before they are given up on.
+ *
+ * @author warneke
+ */
+public class LoanBookTest extends TestCase {
+
+	public void testMostRecentLoansAreRecalledFirst() {
+
+		final LoanBook loanBook = new LoanBook();
+		loanBook.add(1, 1000, 500);
+		loanBook.add(2, 2000, 500);
+		loanBook.add(3, 3000, 500);
+
+		final List<LoanBook.Loan> recalledLoans = loanBook.recall(4000, 0L);
+
+		assertEquals(2, recalledLoans.size());
+		assertEquals(3, recalledLoans.get(0).getLoanID());
+		assertEquals(2, recalledLoans.get(1).getLoanID());
+		assertEquals(1000, loanBook.getBorrowedMemory());
+		assertTrue(loanBook.hasRecalledLoans());
+	}
+
+	public void testTrimShrinksMostRecentLoans() {
+
+		final LoanBook loanBook = new LoanBook();
+		loanBook.add(1, 1000, 500);
+		loanBook.add(2, 2000, 500);
+
+		loanBook.trim(1500);
+		assertEquals(1500, loanBook.getBorrowedMemory());
+
+		loanBook.trim(500);
+		assertEquals(500, loanBook.getBorrowedMemory());
+
+		final List<LoanBook.Loan> recalledLoans = loanBook.recall(1, 0L);
+		assertEquals(1, recalledLoans.get(0).getLoanID());
+		assertEquals(500, recalledLoans.get(0).getAmount());
+	}
+
+	public void testOverdueLoanIsEscalatedBeforeItIsRemoved() {
+
+		final LoanBook loanBook = new LoanBook();
+		loanBook.add(1, 1000, 500);
+		loanBook.recall(1000, 0L);
+
+		assertTrue(loanBook.escalateOverdueLoans(499L).isEmpty());
+		assertTrue(loanBook.removeOverdueLoans(499L).isEmpty());
+
+		// The first missed deadline only escalates the loan and extends its deadline
+		assertEquals(1, loanBook.escalateOverdueLoans(500L).size());
+		assertTrue(loanBook.removeOverdueLoans(500L).isEmpty());
+		assertTrue(loanBook.escalateOverdueLoans(600L).isEmpty());
+
+		final List<LoanBook.Loan> overdueLoans = loanBook.removeOverdueLoans(1000L);
+		assertEquals(1, overdueLoans.size());
+		assertFalse(loanBook.hasRecalledLoans());
+	}
+
+	public void testReturnedLoansAreNotOverdue() {
+
+		final LoanBook loanBook = new LoanBook();
+		loanBook.add(1, 1000, 500);
+		loanBook.recall(1000, 0L);
+		loanBook.markReturned();
+
+		assertFalse(loanBook.hasRecalledLoans());
+		assertTrue(loanBook.escalateOverdueLoans(2000L).isEmpty());
+		assertTrue(loanBook.removeOverdueLoans(2000L).isEmpty());
+	}
+}
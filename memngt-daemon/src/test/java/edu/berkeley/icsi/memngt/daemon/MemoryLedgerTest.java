@@ -0,0 +1,105 @@
+package edu.berkeley.icsi.memngt.daemon;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests that the {@link MemoryLedger} never promises the same free memory twice and never returns it twice.
+ *
+ * @author warneke
+ */
+public class MemoryLedgerTest extends TestCase {
+
+	public void testGrantsAreDeductedFromFreeMemory() {
+
+		final MemoryLedger ledger = new MemoryLedger();
+
+		assertTrue(ledger.tryGrant(6000, 10000));
+		assertFalse(ledger.tryGrant(6000, 10000));
+		assertEquals(4000, ledger.grantUpTo(6000, 10000));
+		assertEquals(0, ledger.grantUpTo(1000, 10000));
+		assertEquals(10000, ledger.getOutstandingGrants());
+	}
+
+	public void testReleasedMemoryCanBeGrantedAgain() {
+
+		final MemoryLedger ledger = new MemoryLedger();
+
+		assertTrue(ledger.tryGrant(10000, 10000));
+		ledger.release(4000);
+		assertTrue(ledger.tryGrant(4000, 10000));
+	}
+
+	public void testRefreshReplacesGrantsByBaseline() {
+
+		final MemoryLedger ledger = new MemoryLedger();
+		assertTrue(ledger.tryGrant(8000, 10000));
+
+		// The client allocated half of its grant before the refresh
+		ledger.completeRefresh(ledger.beginRefresh(), 4000);
+
+		assertEquals(4000, ledger.getOutstandingGrants());
+	}
+
+	public void testGrantsDuringRefreshAreKept() {
+
+		final MemoryLedger ledger = new MemoryLedger();
+		assertTrue(ledger.tryGrant(2000, 10000));
+
+		final int token = ledger.beginRefresh();
+		assertTrue(ledger.tryGrant(3000, 10000));
+		ledger.completeRefresh(token, 2000);
+
+		assertEquals(5000, ledger.getOutstandingGrants());
+	}
+
+	public void testRemovalOutsideRefreshReleasesGrant() {
+
+		final MemoryLedger ledger = new MemoryLedger();
+		assertTrue(ledger.tryGrant(5000, 10000));
+
+		assertTrue(ledger.completeRemoval(ledger.beginRemoval(), 5000));
+		assertEquals(0, ledger.getOutstandingGrants());
+	}
+
+	public void testRemovalOverlappingRefreshIsNotReleasedTwice() {
+
+		final MemoryLedger ledger = new MemoryLedger();
+		assertTrue(ledger.tryGrant(5000, 10000));
+
+		// The client is removed before the refresh examines it, so the new baseline no longer contains it
+		final int removalToken = ledger.beginRemoval();
+		ledger.completeRefresh(ledger.beginRefresh(), 0);
+
+		assertFalse(ledger.completeRemoval(removalToken, 5000));
+		assertEquals(0, ledger.getOutstandingGrants());
+	}
+
+	public void testRemovalDuringRefreshIsLeftToRefresh() {
+
+		final MemoryLedger ledger = new MemoryLedger();
+		assertTrue(ledger.tryGrant(5000, 10000));
+
+		final int refreshToken = ledger.beginRefresh();
+		assertFalse(ledger.completeRemoval(ledger.beginRemoval(), 5000));
+		ledger.completeRefresh(refreshToken, 5000);
+
+		// The refresh counted the client, the next one will not
+		assertEquals(5000, ledger.getOutstandingGrants());
+		ledger.completeRefresh(ledger.beginRefresh(), 0);
+		assertEquals(0, ledger.getOutstandingGrants());
+	}
+
+	public void testHeldMemorySurvivesRefreshAndBlocksGrants() {
+
+		final MemoryLedger ledger = new MemoryLedger();
+		ledger.hold(6000);
+		ledger.completeRefresh(ledger.beginRefresh(), 0);
+
+		assertFalse(ledger.tryGrant(6000, 10000));
+		assertEquals(4000, ledger.grantUpTo(6000, 10000));
+
+		ledger.grantHeld(2000);
+		ledger.releaseHeld(4000);
+		assertEquals(6000, ledger.getOutstandingGrants());
+	}
+}
@@ -0,0 +1,44 @@
+package edu.berkeley.icsi.memngt.daemon;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests that the ceiling of a {@link ReductionSchedule} drops by one slice per slice interval.
+ *
+ * @author warneke
+ */
+public class ReductionScheduleTest extends TestCase {
+
+	public void testFirstSliceIsDueAfterFirstInterval() {
+
+		final ReductionSchedule schedule = new ReductionSchedule(1000L, 10000, 1000, 100);
+
+		assertEquals(10000, schedule.getCeiling(1000L));
+		assertEquals(10000, schedule.getCeiling(1099L));
+		assertEquals(9000, schedule.getCeiling(1100L));
+	}
+
+	public void testCeilingDropsOneSlicePerInterval() {
+
+		final ReductionSchedule schedule = new ReductionSchedule(1000L, 10000, 1000, 100);
+
+		assertEquals(8000, schedule.getCeiling(1250L));
+		assertEquals(5000, schedule.getCeiling(1500L));
+	}
+
+	public void testCeilingNeverDropsBelowZero() {
+
+		final ReductionSchedule schedule = new ReductionSchedule(1000L, 2500, 1000, 100);
+
+		assertEquals(500, schedule.getCeiling(1200L));
+		assertEquals(0, schedule.getCeiling(1300L));
+		assertEquals(0, schedule.getCeiling(100000L));
+	}
+
+	public void testCeilingBeforeStartIsStartSize() {
+
+		final ReductionSchedule schedule = new ReductionSchedule(1000L, 10000, 1000, 100);
+
+		assertEquals(10000, schedule.getCeiling(500L));
+	}
+}
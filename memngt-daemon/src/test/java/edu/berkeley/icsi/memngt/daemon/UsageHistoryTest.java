@@ -0,0 +1,93 @@
+package edu.berkeley.icsi.memngt.daemon;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the forecasts of the {@link UsageHistory} and that jitter is not mistaken for a decline.
+ *
+ * @author warneke
+ */
+public class UsageHistoryTest extends TestCase {
+
+	public void testForecastRequiresMinimumSamples() {
+
+		final UsageHistory usageHistory = new UsageHistory();
+		usageHistory.record(1000L, 100000, 100000);
+		usageHistory.record(2000L, 100000, 100000);
+
+		assertFalse(usageHistory.canForecast());
+		assertEquals(-1, usageHistory.forecast(1000L));
+
+		usageHistory.record(3000L, 100000, 100000);
+
+		assertTrue(usageHistory.canForecast());
+		assertEquals(100000, usageHistory.forecast(1000L));
+	}
+
+	public void testLinearGrowthIsExtrapolated() {
+
+		final UsageHistory usageHistory = new UsageHistory();
+
+		// The client grows by 1000 kilobytes per second
+		for (int i = 0; i < 50; ++i) {
+			usageHistory.record(i * 1000L, 100000 + i * 1000, 200000);
+		}
+
+		assertEquals(1000, usageHistory.getTrend(), 50);
+		assertEquals(100000 + 54 * 1000, usageHistory.forecast(5000L), 1000);
+	}
+
+	public void testJitterIsNotADecline() {
+
+		final UsageHistory usageHistory = new UsageHistory();
+		for (int i = 0; i < 50; ++i) {
+			usageHistory.record(i * 1000L, 100000 - (i % 2) * 512, 200000);
+		}
+
+		assertFalse(usageHistory.isDeclining());
+	}
+
+	public void testSustainedDeclineIsDetected() {
+
+		final UsageHistory usageHistory = new UsageHistory();
+		usageHistory.record(0L, 500000, 500000);
+		usageHistory.record(1000L, 500000, 500000);
+		usageHistory.record(2000L, 500000, 500000);
+
+		// The client shrinks by 20 megabytes per second, which must hold for several samples
+		usageHistory.record(3000L, 480000, 500000);
+		assertFalse(usageHistory.isDeclining());
+
+		for (int i = 2; i < 10; ++i) {
+			usageHistory.record(2000L + i * 1000L, 500000 - i * 20000, 500000);
+		}
+		assertTrue(usageHistory.isDeclining());
+
+		// Once the client levels off, it no longer counts as declining
+		for (int i = 0; i < 10; ++i) {
+			usageHistory.record(12000L + i * 1000L, 400000, 500000);
+		}
+		assertFalse(usageHistory.isDeclining());
+	}
+
+	public void testSteadyStateIgnoresSpikes() {
+
+		final UsageHistory usageHistory = new UsageHistory();
+		for (int i = 0; i < 9; ++i) {
+			usageHistory.record(i * 1000L, (i == 4) ? 900000 : 100000, 200000);
+		}
+
+		assertEquals(100000, usageHistory.getSteadyStatePhysicalMemorySize());
+		assertEquals(900000, usageHistory.getPeakPhysicalMemorySize());
+	}
+
+	public void testSamplesInTheSameMillisecondAreIgnored() {
+
+		final UsageHistory usageHistory = new UsageHistory();
+		usageHistory.record(1000L, 100000, 100000);
+		usageHistory.record(1000L, 200000, 100000);
+
+		assertEquals(1, usageHistory.size());
+		assertEquals(100000, usageHistory.getPhysicalMemorySize(0));
+	}
+}
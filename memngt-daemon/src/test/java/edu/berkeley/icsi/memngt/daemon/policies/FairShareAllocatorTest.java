@@ -0,0 +1,145 @@
+package edu.berkeley.icsi.memngt.daemon.policies;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import edu.berkeley.icsi.memngt.protocols.ProcessType;
+import edu.berkeley.icsi.memngt.protocols.QoSClass;
+
+/**
+ * Tests the weighted max-min division of the {@link FairShareAllocator} and the invalidation of its cached target
+ * shares.
+ * 
+ * @author warneke
+ */
+public class FairShareAllocatorTest extends TestCase {
+
+	private static final int UNLIMITED = Integer.MAX_VALUE;
+
+	static ClientState createClientState(final int pid, final int weight, final int grantedMemoryShare,
+			final int minimumMemoryShare, final int maximumMemoryShare) {
+
+		return createClientState(pid, QoSClass.BEST_EFFORT, weight, grantedMemoryShare, minimumMemoryShare,
+			maximumMemoryShare);
+	}
+
+	static ClientState createClientState(final int pid, final QoSClass qosClass, final int weight,
+			final int grantedMemoryShare, final int minimumMemoryShare, final int maximumMemoryShare) {
+
+		return new ClientState(pid, "client-" + pid, ProcessType.INFRASTRUCTURE_PROCESS, qosClass, 0, weight, 0,
+			grantedMemoryShare, minimumMemoryShare, maximumMemoryShare, grantedMemoryShare, true, null, 0.0f, 0,
+			PagingStatistics.UNKNOWN);
+	}
+
+	private static int getShare(final Map<Integer, Integer> targetShares, final int pid) {
+
+		return targetShares.get(Integer.valueOf(pid)).intValue();
+	}
+
+	public void testMinimumSharesComeFirst() {
+
+		final FairShareAllocator allocator = new FairShareAllocator();
+		final Map<Integer, Integer> targetShares = allocator.getTargetShares(Arrays.asList(
+			createClientState(1, 1, 0, 6000, UNLIMITED), createClientState(2, 1, 0, 6000, UNLIMITED)), 8000);
+
+		assertEquals(8000, getShare(targetShares, 1) + getShare(targetShares, 2));
+		assertEquals(6000, getShare(targetShares, 1));
+	}
+
+	public void testDivisionInProportionToWeights() {
+
+		final FairShareAllocator allocator = new FairShareAllocator();
+		final Map<Integer, Integer> targetShares = allocator.getTargetShares(Arrays.asList(
+			createClientState(1, 1, 0, 0, UNLIMITED), createClientState(2, 3, 0, 0, UNLIMITED)), 40000);
+
+		assertEquals(10000, getShare(targetShares, 1));
+		assertEquals(30000, getShare(targetShares, 2));
+	}
+
+	public void testSaturatedClientPassesOnRemainder() {
+
+		final FairShareAllocator allocator = new FairShareAllocator();
+		final Map<Integer, Integer> targetShares = allocator.getTargetShares(Arrays.asList(
+			createClientState(1, 1, 0, 0, UNLIMITED), createClientState(2, 1, 0, 0, 10000),
+			createClientState(3, 1, 0, 0, UNLIMITED)), 90000);
+
+		assertEquals(10000, getShare(targetShares, 2));
+		assertEquals(40000, getShare(targetShares, 1));
+		assertEquals(40000, getShare(targetShares, 3));
+	}
+
+	public void testMinimumShareCountsTowardsMaximum() {
+
+		final FairShareAllocator allocator = new FairShareAllocator();
+		final Map<Integer, Integer> targetShares = allocator.getTargetShares(Arrays.asList(
+			createClientState(1, 1, 0, 8000, 12000), createClientState(2, 1, 0, 0, UNLIMITED)), 100000);
+
+		assertEquals(12000, getShare(targetShares, 1));
+		assertEquals(88000, getShare(targetShares, 2));
+	}
+
+	public void testSmallChangeOfMemoryReusesCachedShares() {
+
+		final FairShareAllocator allocator = new FairShareAllocator();
+		final List<ClientState> clientStates = Arrays.asList(createClientState(1, 1, 0, 0, UNLIMITED),
+			createClientState(2, 1, 0, 0, UNLIMITED));
+
+		allocator.getTargetShares(clientStates, 100000);
+		final Map<Integer, Integer> targetShares = allocator.getTargetShares(clientStates, 102000);
+
+		assertEquals(50000, getShare(targetShares, 1));
+		assertEquals(50000, getShare(targetShares, 2));
+	}
+
+	public void testLargeChangeOfMemoryInvalidatesCache() {
+
+		final FairShareAllocator allocator = new FairShareAllocator();
+		final List<ClientState> clientStates = Arrays.asList(createClientState(1, 1, 0, 0, UNLIMITED),
+			createClientState(2, 1, 0, 0, UNLIMITED));
+
+		allocator.getTargetShares(clientStates, 100000);
+		final Map<Integer, Integer> targetShares = allocator.getTargetShares(clientStates, 110000);
+
+		assertEquals(55000, getShare(targetShares, 1));
+		assertEquals(55000, getShare(targetShares, 2));
+	}
+
+	public void testChangedParametersInvalidateCache() {
+
+		final FairShareAllocator allocator = new FairShareAllocator();
+
+		allocator.getTargetShares(Arrays.asList(createClientState(1, 1, 0, 0, UNLIMITED), createClientState(2, 1,
+			0, 0, UNLIMITED)), 100000);
+		final Map<Integer, Integer> targetShares = allocator.getTargetShares(Arrays.asList(createClientState(1, 1,
+			0, 0, UNLIMITED), createClientState(2, 3, 0, 0, UNLIMITED)), 100000);
+
+		assertEquals(25000, getShare(targetShares, 1));
+		assertEquals(75000, getShare(targetShares, 2));
+	}
+
+	public void testChangedMembershipInvalidatesCache() {
+
+		final FairShareAllocator allocator = new FairShareAllocator();
+
+		allocator.getTargetShares(Arrays.asList(createClientState(1, 1, 0, 0, UNLIMITED), createClientState(2, 1,
+			0, 0, UNLIMITED)), 100000);
+
+		// Same number of clients, but one has been replaced
+		Map<Integer, Integer> targetShares = allocator.getTargetShares(Arrays.asList(createClientState(1, 1, 0, 0,
+			UNLIMITED), createClientState(3, 1, 0, 0, UNLIMITED)), 100000);
+
+		assertFalse(targetShares.containsKey(Integer.valueOf(2)));
+		assertEquals(50000, getShare(targetShares, 3));
+
+		final List<ClientState> clientStates = new ArrayList<ClientState>();
+		clientStates.add(createClientState(1, 1, 0, 0, UNLIMITED));
+		targetShares = allocator.getTargetShares(clientStates, 100000);
+
+		assertEquals(1, targetShares.size());
+		assertEquals(100000, getShare(targetShares, 1));
+	}
+}
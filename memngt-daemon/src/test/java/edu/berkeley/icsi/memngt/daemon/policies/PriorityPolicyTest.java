@@ -0,0 +1,42 @@
+package edu.berkeley.icsi.memngt.daemon.policies;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import edu.berkeley.icsi.memngt.protocols.QoSClass;
+
+/**
+ * Tests that the reclaims the {@link PriorityPolicy} adds for several clients never take more from a donor than the
+ * donor can give up.
+ * 
+ * @author warneke
+ */
+public class PriorityPolicyTest extends TestCase {
+
+	private static final int UNLIMITED = Integer.MAX_VALUE;
+
+	public void testShortfallsDoNotStackBeyondReclaimableMemory() {
+
+		final NodeState nodeState = new NodeState(0, Arrays.asList(FairShareAllocatorTest.createClientState(1,
+			QoSClass.BATCH, 1, 0, 4000, UNLIMITED), FairShareAllocatorTest.createClientState(2, QoSClass.BATCH, 1, 0,
+			4000, UNLIMITED), FairShareAllocatorTest.createClientState(3, QoSClass.CACHE, 1, 5000, 0, UNLIMITED)));
+
+		final AllocationDecision decision = new PriorityPolicy().redistribute(nodeState);
+
+		assertEquals(5000, decision.getReclaim(3));
+		assertEquals(0, decision.getGrant(3));
+	}
+
+	public void testDonorIsNotOfferedMemory() {
+
+		final NodeState nodeState = new NodeState(0, Arrays.asList(FairShareAllocatorTest.createClientState(1,
+			QoSClass.BATCH, 1, 0, 4000, UNLIMITED), FairShareAllocatorTest.createClientState(2, QoSClass.CACHE, 1,
+			8000, 0, UNLIMITED)));
+
+		final AllocationDecision decision = new PriorityPolicy().redistribute(nodeState);
+
+		assertEquals(4000, decision.getReclaim(2));
+		assertFalse(decision.getGrants().containsKey(Integer.valueOf(2)));
+	}
+}
@@ -0,0 +1,60 @@
+package edu.berkeley.icsi.memngt.daemon.policies;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests that the {@link ProportionalPolicy} never offers more than the spare memory, even if some clients hold more
+ * than their fair share.
+ * 
+ * @author warneke
+ */
+public class ProportionalPolicyTest extends TestCase {
+
+	private static final int UNLIMITED = Integer.MAX_VALUE;
+
+	public void testGapsWhichFitAreGrantedInFull() {
+
+		final NodeState nodeState = new NodeState(20000, Arrays.asList(FairShareAllocatorTest.createClientState(1, 1,
+			0, 0, UNLIMITED), FairShareAllocatorTest.createClientState(2, 1, 0, 0, UNLIMITED)));
+
+		final AllocationDecision decision = new ProportionalPolicy().redistribute(nodeState);
+
+		assertEquals(10000, decision.getGrant(1));
+		assertEquals(10000, decision.getGrant(2));
+		assertTrue(decision.getReclaims().isEmpty());
+	}
+
+	public void testClientAboveTargetKeepsGrantAndOthersFitSpareMemory() {
+
+		final NodeState nodeState = new NodeState(3000, Arrays.asList(FairShareAllocatorTest.createClientState(1, 1,
+			6000, 0, UNLIMITED), FairShareAllocatorTest.createClientState(2, 1, 0, 0, UNLIMITED),
+			FairShareAllocatorTest.createClientState(3, 1, 0, 0, UNLIMITED)));
+
+		final AllocationDecision decision = new ProportionalPolicy().redistribute(nodeState);
+
+		assertEquals(0, decision.getGrant(1));
+		assertEquals(1500, decision.getGrant(2));
+		assertEquals(1500, decision.getGrant(3));
+		assertTrue(decision.getReclaims().isEmpty());
+	}
+
+	public void testGrantsNeverExceedSpareMemory() {
+
+		final NodeState nodeState = new NodeState(2000, Arrays.asList(FairShareAllocatorTest.createClientState(1, 1,
+			8000, 0, 10000), FairShareAllocatorTest.createClientState(2, 2, 0, 0, UNLIMITED),
+			FairShareAllocatorTest.createClientState(3, 1, 1000, 0, UNLIMITED)));
+
+		final AllocationDecision decision = new ProportionalPolicy().redistribute(nodeState);
+
+		int totalGrants = 0;
+		for (final Integer grant : decision.getGrants().values()) {
+			assertTrue(grant.intValue() >= 0);
+			totalGrants += grant.intValue();
+		}
+
+		assertTrue(totalGrants <= 2000);
+		assertTrue(decision.getGrant(2) > decision.getGrant(3));
+	}
+}